@@ -5,9 +5,12 @@ package br.dev.pedrolamarao.gradle.metal;
 import org.gradle.testkit.runner.GradleRunner;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.gradle.testkit.runner.TaskOutcome.*;
@@ -641,6 +644,102 @@ class MetalApplicationTest extends MetalTestBase
         }
     }
 
+    @DisplayName("compile with launcher")
+    @DisabledOnOs(OS.WINDOWS)
+    @Test
+    void launcher () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src/main/cxx"));
+
+        Files.writeString(projectDir.resolve("src/main/cxx/main.cxx"),
+            """
+            int main (int argc, char * argv []) { return 0; }
+            """
+        );
+
+        // launcher stub: records calls, serves objects of previous calls with the same arguments
+        final var launcher = projectDir.resolve("launcher.sh");
+        Files.writeString(launcher,
+            """
+            #!/bin/sh
+            key=$(echo "$*" | cksum | cut -d ' ' -f 1)
+            for argument in "$@"; do
+                case "$argument" in --output=*) output="${argument#--output=}" ;; esac
+            done
+            if [ -f "$LAUNCHER_STORE/$key" ]; then
+                echo "hit $*" >> "$LAUNCHER_LOG"
+                cp "$LAUNCHER_STORE/$key" "$output"
+                exit 0
+            fi
+            echo "miss $*" >> "$LAUNCHER_LOG"
+            "$@" || exit $?
+            mkdir -p "$LAUNCHER_STORE"
+            cp "$output" "$LAUNCHER_STORE/$key"
+            """
+        );
+        Files.setPosixFilePermissions(launcher,PosixFilePermissions.fromString("rwxr-xr-x"));
+
+        final var log = projectDir.resolve("launcher.log");
+        final var store = projectDir.resolve("launcher");
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCompile
+            
+            plugins {
+                id("br.dev.pedrolamarao.metal.application")
+                id("br.dev.pedrolamarao.metal.cxx")
+            }
+            
+            application {
+                launcher = listOf("%s")
+                launcherEnvironment = mapOf("LAUNCHER_LOG" to "%s", "LAUNCHER_STORE" to "%s")
+            }
+            
+            tasks.withType<MetalCompile>().configureEach {
+                objectCache = false
+            }
+            """.formatted(launcher,log,store)
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compileCxx","compileCxxCommands")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compileCxx").getOutcome() ).isEqualTo(SUCCESS);
+        final var calls = Files.readAllLines(log);
+        assertThat( calls ).hasSize(1);
+        assertThat( calls.get(0) ).startsWith("miss ");
+
+        try (var stream = Files.walk(projectDir.resolve("build/commands/main/cxx")).filter(Files::isRegularFile)) {
+            for (var commands : stream.toList())
+                assertThat( Files.readString(commands) ).doesNotContain(launcher.toString());
+        }
+
+        GradleRunner.create()
+            .withArguments("--configuration-cache","clean")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        final var recompile = GradleRunner.create()
+            .withArguments("--configuration-cache","compileCxx")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( recompile.task(":compileCxx").getOutcome() ).isEqualTo(SUCCESS);
+        final var recalls = Files.readAllLines(log);
+        assertThat( recalls ).hasSize(2);
+        assertThat( recalls.get(1) ).startsWith("hit ");
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj/main/cxx")).filter(Files::isRegularFile)) {
+            assertThat( stream.count() ).isEqualTo(1);
+        }
+    }
+
     @DisplayName("compile with no sources")
     @Test
     void empty () throws IOException
@@ -728,4 +827,100 @@ class MetalApplicationTest extends MetalTestBase
 
         assertThat( archive.task(":link").getOutcome() ).isEqualTo(SUCCESS);
     }
+
+    @DisplayName("compile and link with limited concurrency")
+    @DisabledOnOs(OS.WINDOWS)
+    @Test
+    void concurrency () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src/main/c"));
+        for (int i = 0, j = 16; i != j; ++i)
+        {
+            Files.writeString(projectDir.resolve("src/main/c/%d.c".formatted(i)),
+                """
+                int foo_%d () { return %d; }
+                """.formatted(i,i)
+            );
+        }
+        Files.writeString(projectDir.resolve("src/main/c/main.c"),
+            """
+            int main (int argc, char* argv[]) { return 0; }
+            """
+        );
+
+        // launcher stub: records how many compiler commands are running when each starts
+        final var launcher = projectDir.resolve("launcher.sh");
+        Files.writeString(launcher,
+            """
+            #!/bin/sh
+            mkdir -p "$LAUNCHER_RUNNING"
+            touch "$LAUNCHER_RUNNING/$$"
+            ls "$LAUNCHER_RUNNING" | wc -l >> "$LAUNCHER_LOG"
+            sleep 0.5
+            "$@"
+            status=$?
+            rm "$LAUNCHER_RUNNING/$$"
+            exit $status
+            """
+        );
+        Files.setPosixFilePermissions(launcher,PosixFilePermissions.fromString("rwxr-xr-x"));
+
+        final var log = projectDir.resolve("launcher.log");
+        final var running = projectDir.resolve("running");
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCompile
+            
+            plugins {
+                id("br.dev.pedrolamarao.metal.application")
+                id("br.dev.pedrolamarao.metal.c")
+            }
+            
+            application {
+                launcher = listOf("%s")
+                launcherEnvironment = mapOf("LAUNCHER_LOG" to "%s", "LAUNCHER_RUNNING" to "%s")
+            }
+            
+            tasks.withType<MetalCompile>().configureEach {
+                objectCache = false
+            }
+            """.formatted(launcher,log,running)
+        );
+
+        // without limits, compiler commands overlap
+
+        final var unlimited = GradleRunner.create()
+            .withArguments("--configuration-cache","--max-workers=4","-Pmetal.memoryAdmission=false","compileC")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( unlimited.task(":compileC").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( Files.readAllLines(log).stream().mapToInt(line -> Integer.parseInt(line.trim())).max().orElse(0) ).isGreaterThan(1);
+
+        // with limits, they do not
+
+        Files.delete(log);
+
+        final var link = GradleRunner.create()
+            .withArguments("--configuration-cache","--max-workers=4","--rerun-tasks","-Pmetal.memoryAdmission=false","-Pmetal.concurrency=compile=1,link=1","link")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( link.task(":compileC").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( link.task(":link").getOutcome() ).isEqualTo(SUCCESS);
+        final var counts = Files.readAllLines(log);
+        assertThat( counts ).hasSize(17);
+        assertThat( counts.stream().mapToInt(line -> Integer.parseInt(line.trim())).max().orElse(0) ).isEqualTo(1);
+
+        final var invalid = GradleRunner.create()
+            .withArguments("--build-cache","--configuration-cache","--rerun-tasks","-Pmetal.concurrency=link=0","link")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .buildAndFail();
+
+        assertThat( invalid.getOutput() ).contains("metal.concurrency: invalid limit: link=0");
+    }
 }
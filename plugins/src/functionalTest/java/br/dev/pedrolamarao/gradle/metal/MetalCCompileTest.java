@@ -76,4 +76,150 @@ class MetalCCompileTest extends MetalTestBase
 
         assertThat( recompile.task(":compile").getOutcome() ).isEqualTo(FROM_CACHE);
     }
+
+    @DisplayName("compile in unity batches")
+    @Test
+    void unity () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+
+        // sources in the same batch share a translation unit: static names must be distinct
+
+        for (var name : new String[] { "a", "b", "c", "d", "e" })
+        {
+            Files.writeString(projectDir.resolve("src/%s.c".formatted(name)),
+                """
+                static int value_%s () { return 0; }
+                int %s () { return value_%s(); }
+                """.formatted(name,name,name)
+            );
+        }
+
+        Files.writeString(projectDir.resolve("src/main.c"),
+            """
+            int main () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCCompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalCCompile>("compile") {
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+                unityBatchSize = 3
+                unityExcludes = listOf("src/main.c")
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--build-cache","--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        // two batches and one excluded source
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(Files::isRegularFile)) {
+            assertThat( stream.count() ).isEqualTo(3);
+        }
+
+        // changed sources move out of their batch
+
+        Files.writeString(projectDir.resolve("src/a.c"),
+            """
+            int a () { return 1; }
+            """
+        );
+
+        final var recompile = GradleRunner.create()
+            .withArguments("--build-cache","--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( recompile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(Files::isRegularFile)) {
+            assertThat( stream.count() ).isEqualTo(4);
+        }
+    }
+
+    @DisplayName("compile many sources per compiler invocation")
+    @Test
+    void multiSource () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src/a"));
+        Files.createDirectories(projectDir.resolve("src/b"));
+
+        for (int i = 0; i != 8; ++i)
+        {
+            Files.writeString(projectDir.resolve("src/a/%d.c".formatted(i)),"int a_%d () { return %d; }".formatted(i,i));
+            Files.writeString(projectDir.resolve("src/b/%d.c".formatted(i)),"int b_%d () { return %d; }".formatted(i,i));
+        }
+
+        Files.writeString(projectDir.resolve("src/a/broken.c"),
+            """
+            int broken () { return; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCCompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalCCompile>("compile") {
+                multiSource = true
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        // failures refer to individual sources
+
+        final var failure = GradleRunner.create()
+            .withArguments("--configuration-cache","--max-workers=2","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .buildAndFail();
+
+        assertThat( failure.getOutput() ).contains("broken.c");
+
+        Files.writeString(projectDir.resolve("src/a/broken.c"),
+            """
+            int broken () { return 0; }
+            """
+        );
+
+        // sources with the same file name compile in different invocations
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","--max-workers=2","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(Files::isRegularFile)) {
+            assertThat( stream.count() ).isEqualTo(17);
+        }
+    }
 }
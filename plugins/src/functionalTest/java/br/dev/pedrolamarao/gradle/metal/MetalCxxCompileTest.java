@@ -8,6 +8,10 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.gradle.testkit.runner.TaskOutcome.FROM_CACHE;
@@ -76,4 +80,991 @@ class MetalCxxCompileTest extends MetalTestBase
 
         assertThat( recompile.task(":compile").getOutcome() ).isEqualTo(FROM_CACHE);
     }
+
+    @Test
+    void objectCache () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+        Files.createDirectories(projectDir.resolve("include"));
+
+        Files.writeString(projectDir.resolve("include/foo.h"),
+            """
+            int foo ();
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/foo.cxx"),
+            """
+            #include <foo.h>
+            
+            int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalCxxCompile>("compile") {
+                includePath.add(layout.projectDirectory.dir("include").asFile.toString())
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","--info","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        GradleRunner.create()
+            .withArguments("--configuration-cache","clean")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        final var hit = GradleRunner.create()
+            .withArguments("--configuration-cache","--info","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( hit.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( hit.getOutput() ).contains("object cache hit");
+
+        Files.writeString(projectDir.resolve("include/foo.h"),
+            """
+            int foo ();
+            int bar ();
+            """
+        );
+
+        final var miss = GradleRunner.create()
+            .withArguments("--configuration-cache","--info","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( miss.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( miss.getOutput() ).doesNotContain("object cache hit");
+    }
+
+    @DisplayName("share cached objects among checkouts")
+    @Test
+    void objectCacheCheckouts () throws IOException
+    {
+        final var checkouts = List.of(projectDir.resolve("one"),projectDir.resolve("two"));
+        for (var checkout : checkouts)
+        {
+            Files.createDirectories(checkout.resolve("src"));
+            Files.createDirectories(checkout.resolve("include"));
+
+            if (Files.exists(projectDir.resolve("gradle.properties")))
+                Files.copy(projectDir.resolve("gradle.properties"),checkout.resolve("gradle.properties"));
+
+            Files.writeString(checkout.resolve("settings.gradle.kts"),"");
+
+            Files.writeString(checkout.resolve("include/checkouts.h"),
+                """
+                int checkouts ();
+                """
+            );
+
+            Files.writeString(checkout.resolve("src/checkouts.cxx"),
+                """
+                #include <checkouts.h>
+                
+                int checkouts () { return 2; }
+                """
+            );
+
+            Files.writeString(checkout.resolve("build.gradle.kts"),
+                """
+                import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+                
+                plugins {
+                    id("base")
+                    id("br.dev.pedrolamarao.metal.base")
+                }
+                
+                val compile = tasks.register<MetalCxxCompile>("compile") {
+                    includePath.add(layout.projectDirectory.dir("include").asFile.toString())
+                    outputDirectory = layout.buildDirectory.dir("obj")
+                    source = layout.projectDirectory.dir("src").asFileTree
+                    target = metal.host
+                }
+                """
+            );
+        }
+
+        final var one = GradleRunner.create()
+            .withArguments("--configuration-cache","--info","compile")
+            .withPluginClasspath()
+            .withProjectDir(checkouts.get(0).toFile())
+            .build();
+
+        assertThat( one.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        final var two = GradleRunner.create()
+            .withArguments("--configuration-cache","--info","compile")
+            .withPluginClasspath()
+            .withProjectDir(checkouts.get(1).toFile())
+            .build();
+
+        assertThat( two.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( two.getOutput() ).contains("object cache hit");
+
+        final Path object;
+        try (var stream = Files.walk(checkouts.get(1).resolve("build/obj"))) {
+            object = stream.filter(file -> file.getFileName().toString().equals("checkouts.cxx.o")).findFirst().orElseThrow();
+        }
+        final var objectModified = Files.getLastModifiedTime(object);
+
+        // restored depfiles name headers of this checkout: header changes recompile dependents
+        Files.writeString(checkouts.get(1).resolve("include/checkouts.h"),
+            """
+            int checkouts ();
+            int more ();
+            """
+        );
+
+        final var change = GradleRunner.create()
+            .withArguments("--configuration-cache","--info","compile")
+            .withPluginClasspath()
+            .withProjectDir(checkouts.get(1).toFile())
+            .build();
+
+        assertThat( change.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( change.getOutput() ).doesNotContain("object cache hit");
+        assertThat( Files.getLastModifiedTime(object) ).isNotEqualTo(objectModified);
+    }
+
+    @Test
+    void explain () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+        Files.createDirectories(projectDir.resolve("include"));
+
+        Files.writeString(projectDir.resolve("include/foo.h"),
+            """
+            int foo ();
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/foo.cxx"),
+            """
+            #include <foo.h>
+            
+            int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/bar.cxx"),
+            """
+            int bar () { return 0; }
+            """
+        );
+
+        final var buildScript =
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalCxxCompile>("compile") {
+                includePath.add(layout.projectDirectory.dir("include").asFile.toString())
+                options = listOf(%s)
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """;
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),buildScript.formatted(""));
+
+        GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        // units not compiled again keep their recorded digests
+
+        final Path record;
+        try (var stream = Files.walk(projectDir.resolve("build/explain")).filter(it -> it.endsWith("inputs.json"))) {
+            record = stream.findFirst().orElseThrow();
+        }
+        final var unit = Pattern.compile("\"src/bar.cxx\":\\s*\"[0-9a-f]{64}\"");
+        final var before = unit.matcher(Files.readString(record)).results().map(MatchResult::group).toList();
+        assertThat( before ).hasSize(1);
+
+        // header change: dependent sources are compiled again
+
+        Files.writeString(projectDir.resolve("include/foo.h"),
+            """
+            int foo ();
+            int bar ();
+            """
+        );
+
+        final var explain = GradleRunner.create()
+            .withArguments("--configuration-cache","metalExplain")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( explain.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( explain.getOutput() ).contains("src/foo.cxx: include/foo.h changed");
+        assertThat( explain.getOutput() ).doesNotContain("src/bar.cxx:");
+        assertThat( unit.matcher(Files.readString(record)).results().map(MatchResult::group).toList() ).isEqualTo(before);
+
+        // option change: compared with a copy of the previous records
+
+        final var baseline = projectDir.resolve("baseline");
+        try (var stream = Files.walk(projectDir.resolve("build/explain")).filter(Files::isRegularFile)) {
+            for (var file : stream.toList()) {
+                final var copy = baseline.resolve(projectDir.resolve("build/explain").relativize(file));
+                Files.createDirectories(copy.getParent());
+                Files.copy(file,copy);
+            }
+        }
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),buildScript.formatted("\"-DFOO\""));
+
+        final var compare = GradleRunner.create()
+            .withArguments("--configuration-cache","metalExplain","--baseline=" + baseline)
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compare.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( compare.getOutput() ).contains("command: added [-DFOO]");
+    }
+
+    @Test
+    void remoteExecution () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+        Files.createDirectories(projectDir.resolve("include"));
+
+        Files.writeString(projectDir.resolve("include/foo.h"),
+            """
+            int foo ();
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/foo.cxx"),
+            """
+            #include <foo.h>
+            
+            int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalCxxCompile>("compile") {
+                includePath.add(layout.projectDirectory.dir("include").asFile.toString())
+                objectCache = false
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var serverDir = Files.createTempDirectory("metal-remote");
+        try (var server = new MetalRemoteServer(serverDir))
+        {
+            final var remote = "-Pmetal.remote=%s".formatted(server.endpoint());
+
+            final var compile = GradleRunner.create()
+                .withArguments("--configuration-cache",remote,"compile")
+                .withPluginClasspath()
+                .withProjectDir(projectDir.toFile())
+                .build();
+
+            assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+            assertThat( server.executions() ).isEqualTo(1);
+
+            try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(it -> it.toString().endsWith(".o"))) {
+                assertThat( stream.count() ).isEqualTo(1);
+            }
+
+            GradleRunner.create()
+                .withArguments("--configuration-cache","clean")
+                .withPluginClasspath()
+                .withProjectDir(projectDir.toFile())
+                .build();
+
+            // remote action cache serves the same action
+            final var recompile = GradleRunner.create()
+                .withArguments("--configuration-cache",remote,"compile")
+                .withPluginClasspath()
+                .withProjectDir(projectDir.toFile())
+                .build();
+
+            assertThat( recompile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+            assertThat( server.executions() ).isEqualTo(1);
+
+            try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(it -> it.toString().endsWith(".o"))) {
+                assertThat( stream.count() ).isEqualTo(1);
+            }
+        }
+
+        // streamed operations, as framed by transcoders
+        for (var framing : List.of("array","lines"))
+        {
+            GradleRunner.create()
+                .withArguments("--configuration-cache","clean")
+                .withPluginClasspath()
+                .withProjectDir(projectDir.toFile())
+                .build();
+
+            try (var server = new MetalRemoteServer(serverDir,framing))
+            {
+                final var compile = GradleRunner.create()
+                    .withArguments("--configuration-cache","-Pmetal.remote=%s".formatted(server.endpoint()),"compile")
+                    .withPluginClasspath()
+                    .withProjectDir(projectDir.toFile())
+                    .build();
+
+                assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+                assertThat( compile.getOutput() ).doesNotContain("compiling locally");
+                assertThat( server.executions() ).isEqualTo(1);
+            }
+        }
+
+        GradleRunner.create()
+            .withArguments("--configuration-cache","clean")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        // malformed responses fall back to local execution
+        try (var server = new MetalRemoteServer(serverDir,"malformed"))
+        {
+            final var compile = GradleRunner.create()
+                .withArguments("--configuration-cache","-Pmetal.remote=%s".formatted(server.endpoint()),"compile")
+                .withPluginClasspath()
+                .withProjectDir(projectDir.toFile())
+                .build();
+
+            assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+            assertThat( compile.getOutput() ).contains("remote execution failed, compiling locally");
+            assertThat( server.executions() ).isEqualTo(1);
+
+            try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(it -> it.toString().endsWith(".o"))) {
+                assertThat( stream.count() ).isEqualTo(1);
+            }
+        }
+
+        GradleRunner.create()
+            .withArguments("--configuration-cache","clean")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        // unreachable endpoint falls back to local execution
+        final var fallback = GradleRunner.create()
+            .withArguments("--configuration-cache","-Pmetal.remote=http://127.0.0.1:1","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( fallback.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(it -> it.toString().endsWith(".o"))) {
+            assertThat( stream.count() ).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void incremental () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+
+        Files.writeString(projectDir.resolve("src/foo.cxx"),
+            """
+            int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/bar.cxx"),
+            """
+            int bar () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalCxxCompile>("compile") {
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        final Path barObject;
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(Files::isRegularFile)) {
+            barObject = stream.filter(it -> it.getFileName().toString().equals("bar.cxx.o")).findAny().orElseThrow();
+        }
+        final var barModified = Files.getLastModifiedTime(barObject);
+
+        Files.writeString(projectDir.resolve("src/foo.cxx"),
+            """
+            int foo () { return 1; }
+            """
+        );
+
+        final var recompile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( recompile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( Files.getLastModifiedTime(barObject) ).isEqualTo(barModified);
+
+        Files.delete(projectDir.resolve("src/foo.cxx"));
+
+        final var removed = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( removed.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(Files::isRegularFile)) {
+            assertThat( stream.toList() ).containsExactly(barObject);
+        }
+    }
+
+    @Test
+    void includeDependencies () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("include"));
+        Files.createDirectories(projectDir.resolve("src"));
+
+        Files.writeString(projectDir.resolve("include/foo.h"),
+            """
+            int foo ();
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/foo.cxx"),
+            """
+            #include <foo.h>
+            int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/bar.cxx"),
+            """
+            int bar () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalCxxCompile>("compile") {
+                includePath.add( layout.projectDirectory.dir("include").asFile.toString() )
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        final Path fooObject;
+        final Path barObject;
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(Files::isRegularFile)) {
+            final var list = stream.toList();
+            fooObject = list.stream().filter(it -> it.getFileName().toString().equals("foo.cxx.o")).findAny().orElseThrow();
+            barObject = list.stream().filter(it -> it.getFileName().toString().equals("bar.cxx.o")).findAny().orElseThrow();
+        }
+        final var fooModified = Files.getLastModifiedTime(fooObject);
+        final var barModified = Files.getLastModifiedTime(barObject);
+
+        Files.writeString(projectDir.resolve("include/foo.h"),
+            """
+            int foo ();
+            int baz ();
+            """
+        );
+
+        final var recompile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( recompile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( Files.getLastModifiedTime(fooObject) ).isNotEqualTo(fooModified);
+        assertThat( Files.getLastModifiedTime(barObject) ).isEqualTo(barModified);
+    }
+
+    @Test
+    void implementationPartitions () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src/ixx"));
+        Files.createDirectories(projectDir.resolve("src/cxx"));
+
+        Files.writeString(projectDir.resolve("src/ixx/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo ();
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/cxx/impl.cxx"),
+            """
+            module foo:impl;
+            
+            int impl () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/cxx/foo.cxx"),
+            """
+            module foo;
+            
+            import :impl;
+            
+            int foo () { return impl(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val precompile = tasks.register<MetalIxxPrecompile>("precompile") {
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("bmi")
+                source = layout.projectDirectory.dir("src/ixx").asFileTree
+                target = metal.host
+            }
+            
+            val compile = tasks.register<MetalCxxCompile>("compile") {
+                importPath.add( precompile.flatMap { it.outputDirectory }.map { it.asFile.toString() } )
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src/cxx").asFileTree
+                target = metal.host
+                dependsOn(precompile)
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(Files::isRegularFile)) {
+            assertThat( stream.count() ).isEqualTo(2);
+        }
+    }
+
+    @DisplayName("scan sources only if there are modules to import")
+    @Test
+    void scanModules () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src/ixx"));
+        Files.createDirectories(projectDir.resolve("src/cxx"));
+
+        Files.writeString(projectDir.resolve("src/cxx/main.cxx"),
+            """
+            int main () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val precompile = tasks.register<MetalIxxPrecompile>("precompile") {
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("bmi")
+                source = layout.projectDirectory.dir("src/ixx").asFileTree
+                target = metal.host
+            }
+            
+            val compile = tasks.register<MetalCxxCompile>("compile") {
+                importPath.add( precompile.flatMap { it.outputDirectory }.map { it.asFile.toString() } )
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src/cxx").asFileTree
+                target = metal.host
+                dependsOn(precompile)
+            }
+            """
+        );
+
+        final var plain = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( plain.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( projectDir.resolve("build/tmp/compile/cache") ).doesNotExist();
+
+        Files.writeString(projectDir.resolve("src/ixx/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/cxx/main.cxx"),
+            """
+            import foo;
+            
+            int main () { return foo(); }
+            """
+        );
+
+        final var modular = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( modular.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        try (var stream = Files.list(projectDir.resolve("build/tmp/compile/cache"))) {
+            assertThat( stream.count() ).isEqualTo(1);
+        }
+    }
+
+    @DisplayName("compile sources without module dependencies in unity batches")
+    @Test
+    void unity () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src/ixx"));
+        Files.createDirectories(projectDir.resolve("src/cxx"));
+
+        Files.writeString(projectDir.resolve("src/ixx/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo () { return 0; }
+            """
+        );
+
+        // sources in the same batch share a translation unit: static names must be distinct
+
+        for (var name : new String[] { "a", "b", "c", "d", "e" })
+        {
+            Files.writeString(projectDir.resolve("src/cxx/%s.cxx".formatted(name)),
+                """
+                static int value_%s () { return 0; }
+                int %s () { return value_%s(); }
+                """.formatted(name,name,name)
+            );
+        }
+
+        Files.writeString(projectDir.resolve("src/cxx/main.cxx"),
+            """
+            import foo;
+            
+            int main () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val precompile = tasks.register<MetalIxxPrecompile>("precompile") {
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("bmi")
+                source = layout.projectDirectory.dir("src/ixx").asFileTree
+                target = metal.host
+            }
+            
+            val compile = tasks.register<MetalCxxCompile>("compile") {
+                importPath.add( precompile.flatMap { it.outputDirectory }.map { it.asFile.toString() } )
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src/cxx").asFileTree
+                target = metal.host
+                unityBatchSize = 3
+                dependsOn(precompile)
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        // two batches and one source requiring modules
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(it -> it.toString().endsWith(".o"))) {
+            assertThat( stream.count() ).isEqualTo(3);
+        }
+    }
+
+    @DisplayName("compile many sources without module dependencies per compiler invocation")
+    @Test
+    void multiSource () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src/ixx"));
+        Files.createDirectories(projectDir.resolve("src/cxx"));
+
+        Files.writeString(projectDir.resolve("src/ixx/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo () { return 0; }
+            """
+        );
+
+        for (int i = 0; i != 8; ++i)
+            Files.writeString(projectDir.resolve("src/cxx/%d.cxx".formatted(i)),"int a_%d () { return %d; }".formatted(i,i));
+
+        Files.writeString(projectDir.resolve("src/cxx/main.cxx"),
+            """
+            import foo;
+            
+            int main () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val precompile = tasks.register<MetalIxxPrecompile>("precompile") {
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("bmi")
+                source = layout.projectDirectory.dir("src/ixx").asFileTree
+                target = metal.host
+            }
+            
+            val compile = tasks.register<MetalCxxCompile>("compile") {
+                importPath.add( precompile.flatMap { it.outputDirectory }.map { it.asFile.toString() } )
+                multiSource = true
+                objectCache = false
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src/cxx").asFileTree
+                target = metal.host
+                dependsOn(precompile)
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","--max-workers=2","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        // sources without module dependencies compile in groups; sources requiring modules, alone
+
+        try (var stream = Files.list(projectDir.resolve("build/tmp/compile/multi"))) {
+            assertThat( stream.count() ).isEqualTo(2);
+        }
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(it -> it.toString().endsWith(".o"))) {
+            assertThat( stream.count() ).isEqualTo(9);
+        }
+    }
+
+    @DisplayName("compile module chains with a single worker")
+    @Test
+    void singleWorker () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src/ixx"));
+        Files.createDirectories(projectDir.resolve("src/cxx"));
+
+        Files.writeString(projectDir.resolve("src/ixx/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/ixx/bar.ixx"),
+            """
+            export module bar;
+            
+            import foo;
+            
+            export int bar ();
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/ixx/baz.ixx"),
+            """
+            export module baz;
+            
+            import bar;
+            
+            export int baz () { return bar(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/cxx/inner.cxx"),
+            """
+            module bar:inner;
+            
+            import foo;
+            
+            int inner () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/cxx/outer.cxx"),
+            """
+            module bar:outer;
+            
+            import :inner;
+            
+            int outer () { return inner(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/cxx/bar.cxx"),
+            """
+            module bar;
+            
+            import :outer;
+            
+            int bar () { return outer(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val precompile = tasks.register<MetalIxxPrecompile>("precompile") {
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("bmi")
+                source = layout.projectDirectory.dir("src/ixx").asFileTree
+                target = metal.host
+            }
+            
+            val compile = tasks.register<MetalCxxCompile>("compile") {
+                importPath.add( precompile.flatMap { it.outputDirectory }.map { it.asFile.toString() } )
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src/cxx").asFileTree
+                target = metal.host
+                dependsOn(precompile)
+            }
+            """
+        );
+
+        // workers waiting on each other with a single worker lease would never finish
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","--max-workers=1","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":precompile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(Files::isRegularFile)) {
+            assertThat( stream.count() ).isEqualTo(3);
+        }
+    }
 }
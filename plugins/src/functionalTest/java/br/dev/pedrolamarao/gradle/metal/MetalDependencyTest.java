@@ -200,6 +200,312 @@ class MetalDependencyTest extends MetalTestBase
         assertThat( run.task(":application:run").getOutcome() ).isEqualTo( SUCCESS );
     }
 
+    @Test
+    void incompatibleOptions () throws IOException
+    {
+        // base library
+
+        final var baseDir = projectDir.resolve("base");
+        Files.createDirectories(baseDir);
+        Files.writeString(baseDir.resolve("build.gradle.kts"),
+            """
+            plugins {
+                id("br.dev.pedrolamarao.metal.library")
+                id("br.dev.pedrolamarao.metal.cxx")
+            }
+            
+            library {
+                compileOptions = listOf("-std=c++20")
+            }
+            """
+        );
+
+        Files.createDirectories(baseDir.resolve("src/main/cpp"));
+        Files.writeString(baseDir.resolve("src/main/cpp/base.h"),
+            """
+            int base ();
+            """
+        );
+
+        Files.createDirectories(baseDir.resolve("src/main/ixx"));
+        Files.writeString(baseDir.resolve("src/main/ixx/base.ixx"),
+            """
+            module;
+            
+            #include <base.h>
+            
+            export module base;
+            
+            export int mbase () { return base(); }
+            """
+        );
+
+        Files.createDirectories(baseDir.resolve("src/main/cxx"));
+        Files.writeString(baseDir.resolve("src/main/cxx/base.cxx"),
+            """
+            #include <base.h>
+            
+            int base () { return 0; }
+            """
+        );
+
+        // application, with options incompatible with base module files
+
+        final var applicationDir = projectDir.resolve("application");
+        Files.createDirectories(applicationDir);
+        Files.writeString(applicationDir.resolve("build.gradle.kts"),
+            """
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.application")
+                id("br.dev.pedrolamarao.metal.cxx")
+            }
+            
+            application {
+                compileOptions = listOf("-std=c++23")
+            }
+            
+            dependencies {
+                implementation(project(":base"))
+            }
+            """
+        );
+
+        final var applicationSourceDir = applicationDir.resolve("src/main/cxx");
+        Files.createDirectories(applicationSourceDir);
+        Files.writeString(applicationSourceDir.resolve("main.cxx"),
+            """
+            import base;
+            
+            int main (int argc, char * argv [])
+            {
+                return mbase();
+            }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("settings.gradle.kts"),
+            """
+            include("application")
+            include("base")
+            """
+        );
+
+        final var run = GradleRunner.create()
+            .withArguments("--configuration-cache","--info",":application:run")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( run.task(":application:run").getOutcome() ).isEqualTo( SUCCESS );
+
+        try (var stream = Files.walk(baseDir.resolve("build/bmi/main/ixx")).filter(it -> it.endsWith("modules.json"))) {
+            assertThat( stream.count() ).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void precompiledHeader () throws IOException
+    {
+        // base library, publishing a precompiled header
+
+        final var baseDir = projectDir.resolve("base");
+        Files.createDirectories(baseDir);
+        Files.writeString(baseDir.resolve("build.gradle.kts"),
+            """
+            plugins {
+                id("br.dev.pedrolamarao.metal.library")
+                id("br.dev.pedrolamarao.metal.cxx")
+            }
+            
+            library {
+                compileOptions = listOf("-std=c++20")
+                precompiledHeader = "base.h"
+            }
+            """
+        );
+
+        Files.createDirectories(baseDir.resolve("src/main/cpp"));
+        Files.writeString(baseDir.resolve("src/main/cpp/base.h"),
+            """
+            #pragma once
+            inline int base () { return 0; }
+            """
+        );
+
+        // application, with compatible options, using the precompiled header without including it
+
+        final var applicationDir = projectDir.resolve("application");
+        Files.createDirectories(applicationDir.resolve("src/main/cxx"));
+        Files.writeString(applicationDir.resolve("build.gradle.kts"),
+            """
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.application")
+                id("br.dev.pedrolamarao.metal.cxx")
+            }
+            
+            application {
+                compileOptions = listOf("-std=c++20")
+            }
+            
+            dependencies {
+                implementation(project(":base"))
+            }
+            """
+        );
+        Files.writeString(applicationDir.resolve("src/main/cxx/main.cxx"),
+            """
+            int main (int argc, char * argv [])
+            {
+                return base();
+            }
+            """
+        );
+
+        // other application, with incompatible options
+
+        final var otherDir = projectDir.resolve("other");
+        Files.createDirectories(otherDir.resolve("src/main/cxx"));
+        Files.writeString(otherDir.resolve("build.gradle.kts"),
+            """
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.application")
+                id("br.dev.pedrolamarao.metal.cxx")
+            }
+            
+            application {
+                compileOptions = listOf("-std=c++23")
+            }
+            
+            dependencies {
+                implementation(project(":base"))
+            }
+            """
+        );
+        Files.writeString(otherDir.resolve("src/main/cxx/main.cxx"),
+            """
+            #include <base.h>
+            
+            int main (int argc, char * argv [])
+            {
+                return base();
+            }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("settings.gradle.kts"),
+            """
+            include("application")
+            include("base")
+            include("other")
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache",":application:compileCxx")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":base:precompileHeaderCxx").getOutcome() ).isEqualTo( SUCCESS );
+        assertThat( compile.task(":application:compileCxx").getOutcome() ).isEqualTo( SUCCESS );
+
+        final var other = GradleRunner.create()
+            .withArguments("--configuration-cache",":other:compileCxx")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( other.task(":base:precompileHeaderCxx") ).isNull();
+        assertThat( other.task(":other:compileCxx").getOutcome() ).isEqualTo( SUCCESS );
+    }
+
+    @Test
+    void precompiledHeaderLanguages () throws IOException
+    {
+        // base library, publishing C and C++ precompiled headers of the same header, with the same options
+
+        final var baseDir = projectDir.resolve("base");
+        Files.createDirectories(baseDir.resolve("src/main/cpp"));
+        Files.writeString(baseDir.resolve("build.gradle.kts"),
+            """
+            plugins {
+                id("br.dev.pedrolamarao.metal.library")
+                id("br.dev.pedrolamarao.metal.c")
+                id("br.dev.pedrolamarao.metal.cxx")
+            }
+            
+            library {
+                precompiledHeader = "base.h"
+            }
+            """
+        );
+        Files.writeString(baseDir.resolve("src/main/cpp/base.h"),
+            """
+            #pragma once
+            static inline int base (void) { return 0; }
+            """
+        );
+
+        // application, with C and C++ sources using the precompiled header of their language without including it
+
+        final var applicationDir = projectDir.resolve("application");
+        Files.createDirectories(applicationDir.resolve("src/main/c"));
+        Files.createDirectories(applicationDir.resolve("src/main/cxx"));
+        Files.writeString(applicationDir.resolve("build.gradle.kts"),
+            """
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.application")
+                id("br.dev.pedrolamarao.metal.c")
+                id("br.dev.pedrolamarao.metal.cxx")
+            }
+            
+            dependencies {
+                implementation(project(":base"))
+            }
+            """
+        );
+        Files.writeString(applicationDir.resolve("src/main/c/foo.c"),
+            """
+            int foo (void)
+            {
+                return base();
+            }
+            """
+        );
+        Files.writeString(applicationDir.resolve("src/main/cxx/main.cxx"),
+            """
+            extern "C" int foo ();
+            
+            int main (int argc, char * argv [])
+            {
+                return base() + foo();
+            }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("settings.gradle.kts"),
+            """
+            include("application")
+            include("base")
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache",":application:compileC",":application:compileCxx")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":base:precompileHeaderC").getOutcome() ).isEqualTo( SUCCESS );
+        assertThat( compile.task(":base:precompileHeaderCxx").getOutcome() ).isEqualTo( SUCCESS );
+        assertThat( compile.task(":application:compileC").getOutcome() ).isEqualTo( SUCCESS );
+        assertThat( compile.task(":application:compileCxx").getOutcome() ).isEqualTo( SUCCESS );
+    }
+
     @Test
     void composite () throws IOException
     {
@@ -0,0 +1,162 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import org.gradle.testkit.runner.GradleRunner;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.gradle.testkit.runner.TaskOutcome.SKIPPED;
+import static org.gradle.testkit.runner.TaskOutcome.SUCCESS;
+
+@DisplayName("Gradle Metal C++ header unit support")
+class MetalHeaderUnitPrecompileTest extends MetalTestBase
+{
+    @Test
+    void compile () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("include"));
+        Files.createDirectories(projectDir.resolve("src"));
+
+        Files.writeString(projectDir.resolve("include/foo.h"),
+            """
+            inline int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/bar.cxx"),
+            """
+            import "foo.h";
+            
+            int bar () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalCxxCompile
+            import br.dev.pedrolamarao.gradle.metal.MetalHeaderUnitPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val precompile = tasks.register<MetalHeaderUnitPrecompile>("precompile") {
+                headerUnits.add("foo.h")
+                includePath.add( layout.projectDirectory.dir("include").asFile.toString() )
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("bmi")
+                target = metal.host
+            }
+            
+            val compile = tasks.register<MetalCxxCompile>("compile") {
+                headerUnitPath.add( precompile.flatMap { it.outputDirectory }.map { it.asFile.toString() } )
+                includePath.add( layout.projectDirectory.dir("include").asFile.toString() )
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+                dependsOn(precompile)
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":precompile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        try (var stream = Files.walk(projectDir.resolve("build/bmi")).filter(Files::isRegularFile)) {
+            assertThat( stream.count() ).isEqualTo(1);
+        }
+    }
+
+    @DisplayName("compile again only header units including changed headers")
+    @Test
+    void incremental () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("include"));
+
+        Files.writeString(projectDir.resolve("include/foo.h"),
+            """
+            inline int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("include/bar.h"),
+            """
+            inline int bar () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalHeaderUnitPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            tasks.register<MetalHeaderUnitPrecompile>("precompile") {
+                headerUnits.addAll("foo.h","bar.h")
+                includePath.add( layout.projectDirectory.dir("include").asFile.toString() )
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("bmi")
+                target = metal.host
+            }
+            
+            tasks.register<MetalHeaderUnitPrecompile>("empty") {
+                includePath.add( layout.projectDirectory.dir("include").asFile.toString() )
+                outputDirectory = layout.buildDirectory.dir("empty")
+                target = metal.host
+            }
+            """
+        );
+
+        final var precompile = GradleRunner.create()
+            .withArguments("--configuration-cache","precompile","empty")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( precompile.task(":precompile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( precompile.task(":empty").getOutcome() ).isEqualTo(SKIPPED);
+
+        final Path foo;
+        final Path bar;
+        try (var stream = Files.walk(projectDir.resolve("build/bmi")).filter(Files::isRegularFile)) {
+            final var files = stream.toList();
+            foo = files.stream().filter(it -> it.endsWith("foo.h.pcm")).findFirst().orElseThrow();
+            bar = files.stream().filter(it -> it.endsWith("bar.h.pcm")).findFirst().orElseThrow();
+        }
+        final var fooModified = Files.getLastModifiedTime(foo);
+        final var barModified = Files.getLastModifiedTime(bar);
+
+        Files.writeString(projectDir.resolve("include/bar.h"),
+            """
+            inline int bar () { return 1; }
+            """
+        );
+
+        final var recompile = GradleRunner.create()
+            .withArguments("--configuration-cache","precompile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( recompile.task(":precompile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( Files.getLastModifiedTime(foo) ).isEqualTo(fooModified);
+        assertThat( Files.getLastModifiedTime(bar) ).isNotEqualTo(barModified);
+    }
+}
@@ -8,6 +8,7 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.gradle.testkit.runner.TaskOutcome.FROM_CACHE;
@@ -83,4 +84,655 @@ class MetalIxxPrecompileTest extends MetalTestBase
 
         assertThat( recompile.task(":compile").getOutcome() ).isEqualTo(FROM_CACHE);
     }
+
+    @Test
+    void chain () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+
+        Files.writeString(projectDir.resolve("src/a.ixx"),
+            """
+            export module baz;
+            
+            import bar;
+            
+            export int baz () { return bar(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/b.ixx"),
+            """
+            export module bar;
+            
+            import foo;
+            
+            export int bar () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/c.ixx"),
+            """
+            export module foo;
+            
+            export int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/d.ixx"),
+            """
+            export module qux;
+            
+            import foo;
+            
+            export int qux () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalIxxPrecompile>("compile") {
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(Files::isRegularFile)) {
+            assertThat( stream.count() ).isEqualTo(4);
+        }
+    }
+
+    @Test
+    void cycle () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+
+        Files.writeString(projectDir.resolve("src/foo.ixx"),
+            """
+            export module foo;
+            
+            import bar;
+            
+            export int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/bar.ixx"),
+            """
+            export module bar;
+            
+            import foo;
+            
+            export int bar () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalIxxPrecompile>("compile") {
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .buildAndFail();
+
+        assertThat( compile.getOutput() ).contains("module dependency cycle");
+    }
+
+    @Test
+    void scanPerSource () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+
+        Files.writeString(projectDir.resolve("src/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/bar.ixx"),
+            """
+            export module bar;
+            
+            import foo;
+            
+            export int bar () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalIxxPrecompile>("compile") {
+                batchScan = false
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(Files::isRegularFile)) {
+            assertThat( stream.count() ).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void rescan () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+
+        Files.writeString(projectDir.resolve("src/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/bar.ixx"),
+            """
+            export module bar;
+            
+            import foo;
+            
+            export int bar () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalIxxPrecompile>("compile") {
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        Files.writeString(projectDir.resolve("src/foo.ixx"),
+            """
+            export module foo;
+            
+            import bar;
+            
+            export int foo () { return bar(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/bar.ixx"),
+            """
+            export module bar;
+            
+            export int bar () { return 0; }
+            """
+        );
+
+        final var recompile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( recompile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+    }
+
+    @Test
+    void rescanHeader () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("include"));
+        Files.createDirectories(projectDir.resolve("src"));
+
+        Files.writeString(projectDir.resolve("include/config.h"),
+            """
+            #define USE_BAR 0
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/foo.ixx"),
+            """
+            module;
+            
+            #include <config.h>
+            
+            export module foo;
+            
+            #if USE_BAR
+            import bar;
+            export int foo () { return bar(); }
+            #else
+            export int foo () { return 0; }
+            #endif
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/bar.ixx"),
+            """
+            export module bar;
+            
+            export int bar () { return 1; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalIxxPrecompile>("compile") {
+                includePath.add( layout.projectDirectory.dir("include").asFile.toString() )
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("obj")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        // foo now imports bar: a scan result reused from the previous execution would miss it
+        Files.writeString(projectDir.resolve("include/config.h"),
+            """
+            #define USE_BAR 1
+            """
+        );
+
+        final var recompile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( recompile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+    }
+
+    @Test
+    void reducedModules () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+
+        Files.writeString(projectDir.resolve("src/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalIxxPrecompile>("compile") {
+                objectDirectory = layout.buildDirectory.dir("obj")
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("bmi")
+                reducedModules = true
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            
+            val twoPhase = tasks.register<MetalIxxPrecompile>("twoPhase") {
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("two-phase")
+                reducedModules = true
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        final var moduleFile = projectDir.resolve("build/bmi/foo.pcm");
+        final var moduleContent = Files.readAllBytes(moduleFile);
+        final var moduleModified = Files.getLastModifiedTime(moduleFile);
+
+        // function bodies are not reachable from importers: the reduced module file does not change
+        Files.writeString(projectDir.resolve("src/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo () { return 1; }
+            """
+        );
+
+        final var recompile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( recompile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( Files.readAllBytes(moduleFile) ).isEqualTo(moduleContent);
+        assertThat( Files.getLastModifiedTime(moduleFile) ).isEqualTo(moduleModified);
+
+        final var twoPhase = GradleRunner.create()
+            .withArguments("--configuration-cache","twoPhase")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .buildAndFail();
+
+        assertThat( twoPhase.getOutput() ).contains("reduced modules require an object directory");
+    }
+
+    @Test
+    void incremental () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+
+        Files.writeString(projectDir.resolve("src/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/bar.ixx"),
+            """
+            export module bar;
+            
+            import foo;
+            
+            export int bar () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/qux.ixx"),
+            """
+            export module qux;
+            
+            export int qux () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalIxxPrecompile>("compile") {
+                objectDirectory = layout.buildDirectory.dir("obj")
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("bmi")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        final var fooObject = findObject("foo.ixx.o");
+        final var barObject = findObject("bar.ixx.o");
+        final var quxObject = findObject("qux.ixx.o");
+        final var fooModified = Files.getLastModifiedTime(fooObject);
+        final var barModified = Files.getLastModifiedTime(barObject);
+        final var quxModified = Files.getLastModifiedTime(quxObject);
+
+        // qux is not required by other modules: only qux is compiled again
+        Files.writeString(projectDir.resolve("src/qux.ixx"),
+            """
+            export module qux;
+            
+            export int qux () { return 1; }
+            """
+        );
+
+        final var recompile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( recompile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( Files.getLastModifiedTime(fooObject) ).isEqualTo(fooModified);
+        assertThat( Files.getLastModifiedTime(barObject) ).isEqualTo(barModified);
+        assertThat( Files.getLastModifiedTime(quxObject) ).isNotEqualTo(quxModified);
+
+        // removed sources leave no objects behind
+        Files.delete(projectDir.resolve("src/qux.ixx"));
+
+        final var remove = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( remove.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( quxObject ).doesNotExist();
+        assertThat( Files.getLastModifiedTime(fooObject) ).isEqualTo(fooModified);
+        assertThat( Files.getLastModifiedTime(barObject) ).isEqualTo(barModified);
+    }
+
+    private Path findObject (String name) throws IOException
+    {
+        try (var stream = Files.walk(projectDir.resolve("build/obj"))) {
+            return stream.filter(file -> file.getFileName().toString().equals(name)).findFirst().orElseThrow();
+        }
+    }
+
+    @Test
+    void singlePass () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src"));
+
+        Files.writeString(projectDir.resolve("src/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/bar.ixx"),
+            """
+            export module bar;
+            
+            import foo;
+            
+            export int bar () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalIxxPrecompile>("compile") {
+                objectDirectory = layout.buildDirectory.dir("obj")
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("bmi")
+                source = layout.projectDirectory.dir("src").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        try (var stream = Files.walk(projectDir.resolve("build/bmi")).filter(it -> it.toString().endsWith(".pcm"))) {
+            assertThat( stream.count() ).isEqualTo(2);
+        }
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(it -> it.toString().endsWith(".o"))) {
+            assertThat( stream.count() ).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void implementation () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src/ixx"));
+        Files.createDirectories(projectDir.resolve("src/cxx"));
+
+        Files.writeString(projectDir.resolve("src/ixx/foo.ixx"),
+            """
+            export module foo;
+            
+            export int foo ();
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/cxx/foo.cxx"),
+            """
+            module foo;
+            
+            int foo () { return 0; }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("src/cxx/main.cxx"),
+            """
+            import foo;
+            
+            int main () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            import br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile
+            
+            plugins {
+                id("base")
+                id("br.dev.pedrolamarao.metal.base")
+            }
+            
+            val compile = tasks.register<MetalIxxPrecompile>("compile") {
+                implementationSource.from(layout.projectDirectory.dir("src/cxx"))
+                objectDirectory = layout.buildDirectory.dir("obj")
+                options = listOf("-std=c++20")
+                outputDirectory = layout.buildDirectory.dir("bmi")
+                source = layout.projectDirectory.dir("src/ixx").asFileTree
+                target = metal.host
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--configuration-cache","compile")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":compile").getOutcome() ).isEqualTo(SUCCESS);
+
+        try (var stream = Files.walk(projectDir.resolve("build/bmi")).filter(it -> it.toString().endsWith(".pcm"))) {
+            assertThat( stream.count() ).isEqualTo(1);
+        }
+
+        try (var stream = Files.walk(projectDir.resolve("build/obj")).filter(it -> it.toString().endsWith(".o"))) {
+            assertThat( stream.count() ).isEqualTo(3);
+        }
+    }
 }
@@ -9,6 +9,7 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.gradle.testkit.runner.TaskOutcome.*;
 
@@ -828,4 +829,184 @@ class MetalLibraryTest extends MetalTestBase
 
         assertThat( archive.task(":archive").getOutcome() ).isEqualTo(SUCCESS);
     }
+
+    @DisplayName("compile with precompiled header")
+    @Test
+    void precompiledHeader () throws IOException
+    {
+        Files.createDirectories(projectDir.resolve("src/main/cpp"));
+        Files.writeString(projectDir.resolve("src/main/cpp/umbrella.h"),
+            """
+            #pragma once
+            #include <foo.h>
+            """
+        );
+        Files.writeString(projectDir.resolve("src/main/cpp/foo.h"),
+            """
+            #pragma once
+            inline int foo () { return 0; }
+            """
+        );
+        Files.writeString(projectDir.resolve("src/main/cpp/bar.h"),
+            """
+            #pragma once
+            int bar ();
+            """
+        );
+
+        Files.createDirectories(projectDir.resolve("src/main/cxx"));
+        Files.writeString(projectDir.resolve("src/main/cxx/bar.cxx"),
+            """
+            #include <bar.h>
+            int bar () { return foo(); }
+            """
+        );
+
+        Files.writeString(projectDir.resolve("build.gradle.kts"),
+            """
+            plugins {
+                id("br.dev.pedrolamarao.metal.library")
+                id("br.dev.pedrolamarao.metal.cxx")
+            }
+
+            library {
+                precompiledHeader = "umbrella.h"
+            }
+            """
+        );
+
+        final var compile = GradleRunner.create()
+            .withArguments("--build-cache","--configuration-cache","compileCxx")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( compile.task(":precompileHeaderCxx").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( compile.task(":compileCxx").getOutcome() ).isEqualTo(SUCCESS);
+
+        // headers out of the precompiled header do not invalidate it
+
+        Files.writeString(projectDir.resolve("src/main/cpp/bar.h"),
+            """
+            #pragma once
+            int bar (); // changed
+            """
+        );
+
+        final var recompile = GradleRunner.create()
+            .withArguments("--build-cache","--configuration-cache","--info","compileCxx")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( recompile.getOutput() ).contains("header dependencies unchanged");
+        assertThat( recompile.task(":compileCxx").getOutcome() ).isEqualTo(SUCCESS);
+
+        // headers in the precompiled header invalidate it
+
+        Files.writeString(projectDir.resolve("src/main/cpp/foo.h"),
+            """
+            #pragma once
+            inline int foo () { return 1; }
+            """
+        );
+
+        final var reprecompile = GradleRunner.create()
+            .withArguments("--build-cache","--configuration-cache","--info","compileCxx")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( reprecompile.getOutput() ).doesNotContain("header dependencies unchanged");
+        assertThat( reprecompile.task(":precompileHeaderCxx").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( reprecompile.task(":compileCxx").getOutcome() ).isEqualTo(SUCCESS);
+
+        // the precompiled header itself invalidates it
+
+        Files.writeString(projectDir.resolve("src/main/cpp/umbrella.h"),
+            """
+            #pragma once
+            #include <foo.h>
+            inline int umbrella () { return foo(); }
+            """
+        );
+
+        final var umbrella = GradleRunner.create()
+            .withArguments("--build-cache","--configuration-cache","--info","compileCxx")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.toFile())
+            .build();
+
+        assertThat( umbrella.getOutput() ).doesNotContain("header dependencies unchanged");
+        assertThat( umbrella.task(":precompileHeaderCxx").getOutcome() ).isEqualTo(SUCCESS);
+        assertThat( umbrella.task(":compileCxx").getOutcome() ).isEqualTo(SUCCESS);
+    }
+
+    @DisplayName("relocate among checkouts")
+    @Test
+    void relocate () throws IOException
+    {
+        for (var checkout : new String[] { "a", "b" })
+        {
+            final var checkoutDir = projectDir.resolve(checkout);
+            Files.createDirectories(checkoutDir.resolve("src/main/cpp"));
+            Files.createDirectories(checkoutDir.resolve("src/main/cxx"));
+            if (Files.exists(projectDir.resolve("gradle.properties")))
+                Files.copy(projectDir.resolve("gradle.properties"),checkoutDir.resolve("gradle.properties"));
+            Files.writeString(checkoutDir.resolve("settings.gradle.kts"),"rootProject.name = \"relocate\"");
+            Files.writeString(checkoutDir.resolve("build.gradle.kts"),
+                """
+                plugins {
+                    id("br.dev.pedrolamarao.metal.library")
+                    id("br.dev.pedrolamarao.metal.cxx")
+                }
+
+                library {
+                    compileOptions = listOf("-g")
+                }
+                """
+            );
+            Files.writeString(checkoutDir.resolve("src/main/cpp/foo.h"),
+                """
+                #pragma once
+                inline char const * foo_file () { return __FILE__; }
+                """
+            );
+            Files.writeString(checkoutDir.resolve("src/main/cxx/foo.cxx"),
+                """
+                #include <foo.h>
+                char const * foo () { return foo_file(); }
+                """
+            );
+            Files.writeString(checkoutDir.resolve("src/main/cxx/bar.cxx"),
+                """
+                char const * bar () { return __FILE__; }
+                """
+            );
+        }
+
+        GradleRunner.create()
+            .withArguments("--build-cache","--configuration-cache","archive")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.resolve("a").toFile())
+            .build();
+
+        // archives do not depend on the location of the checkout
+
+        try (var stream = Files.walk(projectDir.resolve("a/build/lib/main")).filter(Files::isRegularFile)) {
+            final var content = new String(Files.readAllBytes(stream.findFirst().orElseThrow()),ISO_8859_1);
+            assertThat( content ).doesNotContain(projectDir.resolve("a").toString());
+        }
+
+        // checkouts in other locations reuse cached outputs
+
+        final var archive = GradleRunner.create()
+            .withArguments("--build-cache","--configuration-cache","archive")
+            .withPluginClasspath()
+            .withProjectDir(projectDir.resolve("b").toFile())
+            .build();
+
+        assertThat( archive.task(":compileCxx").getOutcome() ).isEqualTo(FROM_CACHE);
+        assertThat( archive.task(":archive").getOutcome() ).isEqualTo(FROM_CACHE);
+    }
 }
@@ -0,0 +1,360 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Remote execution stand-in server.
+ *
+ * <p>Serves the Remote Execution API v2 HTTP mapping in process, with content addressable storage and action cache in memory;
+ * executes actions locally, in a temporary input root.</p>
+ *
+ * <p>Execute responses are framed as a gRPC-JSON transcoder would frame a single operation (<code>unary</code>),
+ * a stream as a JSON array (<code>array</code>) or as newline delimited messages wrapped in result (<code>lines</code>);
+ * or are <code>malformed</code>.</p>
+ */
+final class MetalRemoteServer implements AutoCloseable
+{
+    private final Map<String,byte[]> blobs = new ConcurrentHashMap<>();
+
+    private final Map<String,String> results = new ConcurrentHashMap<>();
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    private final String framing;
+
+    private final HttpServer server;
+
+    private final Path directory;
+
+    MetalRemoteServer (Path directory) throws IOException
+    {
+        this(directory,"unary");
+    }
+
+    MetalRemoteServer (Path directory, String framing) throws IOException
+    {
+        this.directory = directory;
+        this.framing = framing;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1",0),0);
+        server.createContext("/v2/",this::handle);
+        server.start();
+    }
+
+    String endpoint ()
+    {
+        return "http://127.0.0.1:%d".formatted(server.getAddress().getPort());
+    }
+
+    int executions ()
+    {
+        return executions.get();
+    }
+
+    @Override
+    public void close ()
+    {
+        server.stop(0);
+    }
+
+    private void handle (HttpExchange exchange) throws IOException
+    {
+        try (exchange)
+        {
+            respond(exchange);
+        }
+    }
+
+    private void respond (HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            final var path = exchange.getRequestURI().getPath();
+            final var request = exchange.getRequestMethod().equals("POST") ? Json.parse(new String(exchange.getRequestBody().readAllBytes(),UTF_8)) : null;
+            final String response;
+            if (path.startsWith("/v2/actionResults/")) {
+                response = results.get(path.substring("/v2/actionResults/".length()).split("/")[0]);
+            }
+            else {
+                response = switch (path) {
+                    case "/v2/blobs:findMissing" -> findMissing(request);
+                    case "/v2/blobs:batchUpdate" -> batchUpdate(request);
+                    case "/v2/blobs:batchRead" -> batchRead(request);
+                    case "/v2/actions:execute" -> execute(request);
+                    default -> null;
+                };
+            }
+            final var bytes = response == null ? new byte[0] : response.getBytes(UTF_8);
+            exchange.sendResponseHeaders(response == null ? 404 : 200,bytes.length == 0 ? -1 : bytes.length);
+            if (bytes.length != 0) exchange.getResponseBody().write(bytes);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            exchange.sendResponseHeaders(500,-1);
+        }
+    }
+
+    private String findMissing (Object request)
+    {
+        final var missing = new ArrayList<String>();
+        for (var digest : Json.list(Json.map(request).get("blobDigests"))) {
+            final var hash = (String) Json.map(digest).get("hash");
+            if (! blobs.containsKey(hash)) missing.add(digest(hash,Json.map(digest).get("sizeBytes")));
+        }
+        return "{\"missingBlobDigests\":[%s]}".formatted(String.join(",",missing));
+    }
+
+    private String batchUpdate (Object request)
+    {
+        for (var update : Json.list(Json.map(request).get("requests"))) {
+            final var map = Json.map(update);
+            blobs.put((String) Json.map(map.get("digest")).get("hash"),Base64.getDecoder().decode((String) map.get("data")));
+        }
+        return "{\"responses\":[]}";
+    }
+
+    private String batchRead (Object request)
+    {
+        final var responses = new ArrayList<String>();
+        for (var digest : Json.list(Json.map(request).get("digests"))) {
+            final var hash = (String) Json.map(digest).get("hash");
+            final var data = blobs.get(hash);
+            if (data != null)
+                responses.add("{\"digest\":%s,\"data\":\"%s\"}".formatted(digest(hash,data.length),Base64.getEncoder().encodeToString(data)));
+        }
+        return "{\"responses\":[%s]}".formatted(String.join(",",responses));
+    }
+
+    private String execute (Object request) throws IOException, InterruptedException
+    {
+        executions.incrementAndGet();
+
+        final var actionHash = (String) Json.map(Json.map(request).get("actionDigest")).get("hash");
+        final var action = Proto.parse(blobs.get(actionHash));
+        final var command = Proto.parse(blobs.get(Proto.digest(action.get(1).get(0))));
+        final var inputRoot = Proto.digest(action.get(2).get(0));
+
+        // materialize input root
+        final var root = Files.createTempDirectory(directory,"action");
+        materialize(inputRoot,root);
+
+        final var arguments = command.getOrDefault(1,List.of()).stream().map(it -> new String(it,UTF_8)).toList();
+        final var outputs = command.getOrDefault(3,List.of()).stream().map(it -> new String(it,UTF_8)).toList();
+        for (var output : outputs) Files.createDirectories(root.resolve(output).getParent());
+
+        final var process = new ProcessBuilder(arguments).directory(root.toFile()).start();
+        final var stdout = process.getInputStream().readAllBytes();
+        final var stderr = process.getErrorStream().readAllBytes();
+        final var exitCode = process.waitFor();
+
+        final var files = new ArrayList<String>();
+        if (exitCode == 0) {
+            for (var output : outputs) {
+                final var data = Files.readAllBytes(root.resolve(output));
+                final var hash = sha256(data);
+                blobs.put(hash,data);
+                files.add("{\"path\":\"%s\",\"digest\":%s}".formatted(output,digest(hash,data.length)));
+            }
+        }
+        final var result = "{\"exitCode\":%d,\"outputFiles\":[%s],\"stdoutRaw\":\"%s\",\"stderrRaw\":\"%s\"}".formatted(
+            exitCode,
+            String.join(",",files),
+            Base64.getEncoder().encodeToString(stdout),
+            Base64.getEncoder().encodeToString(stderr)
+        );
+        if (exitCode == 0 && ! framing.equals("malformed")) results.put(actionHash,result);
+        final var pending = "{\"name\":\"operations/%s\",\"done\":false}".formatted(actionHash);
+        final var done = "{\"name\":\"operations/%s\",\"done\":true,\"response\":{\"result\":%s}}".formatted(actionHash,result);
+        return switch (framing) {
+            case "array" -> "[%s,%s]".formatted(pending,done);
+            case "lines" -> "{\"result\":%s}\n{\"result\":%s}\n".formatted(pending,done);
+            case "malformed" -> "{\"name\":\"operations/%s\",\"done\":true,\"response\":[]}".formatted(actionHash);
+            default -> done;
+        };
+    }
+
+    private void materialize (String hash, Path directory) throws IOException
+    {
+        final var message = Proto.parse(blobs.get(hash));
+        for (var file : message.getOrDefault(1,List.of())) {
+            final var node = Proto.parse(file);
+            final var path = directory.resolve(new String(node.get(1).get(0),UTF_8));
+            Files.write(path,blobs.get(Proto.digest(node.get(2).get(0))));
+        }
+        for (var subdirectory : message.getOrDefault(2,List.of())) {
+            final var node = Proto.parse(subdirectory);
+            final var path = directory.resolve(new String(node.get(1).get(0),UTF_8));
+            Files.createDirectories(path);
+            materialize(Proto.digest(node.get(2).get(0)),path);
+        }
+    }
+
+    private static String digest (String hash, Object size)
+    {
+        return "{\"hash\":\"%s\",\"sizeBytes\":\"%s\"}".formatted(hash,size);
+    }
+
+    private static String sha256 (byte[] data)
+    {
+        try { return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data)); }
+        catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+    }
+
+    /**
+     * Protobuf reader: length delimited fields only, by field number; other fields are skipped.
+     */
+    static final class Proto
+    {
+        static Map<Integer,List<byte[]>> parse (byte[] bytes)
+        {
+            final var fields = new LinkedHashMap<Integer,List<byte[]>>();
+            final var position = new int[] { 0 };
+            while (position[0] < bytes.length) {
+                final var tag = varint(bytes,position);
+                final var field = (int) (tag >>> 3);
+                switch ((int) (tag & 7)) {
+                    case 0 -> varint(bytes,position);
+                    case 2 -> {
+                        final var length = (int) varint(bytes,position);
+                        final var value = new byte[length];
+                        System.arraycopy(bytes,position[0],value,0,length);
+                        position[0] += length;
+                        fields.computeIfAbsent(field,it -> new ArrayList<>()).add(value);
+                    }
+                    default -> throw new IllegalArgumentException("unexpected wire type: " + tag);
+                }
+            }
+            return fields;
+        }
+
+        static String digest (byte[] message)
+        {
+            return new String(parse(message).get(1).get(0),UTF_8);
+        }
+
+        private static long varint (byte[] bytes, int[] position)
+        {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                final var b = bytes[position[0]++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+        }
+    }
+
+    /**
+     * JSON reader.
+     */
+    static final class Json
+    {
+        private final String text;
+
+        private int position;
+
+        private Json (String text)
+        {
+            this.text = text;
+        }
+
+        static Object parse (String text)
+        {
+            return new Json(text).value();
+        }
+
+        @SuppressWarnings("unchecked")
+        static Map<String,Object> map (Object value)
+        {
+            return (Map<String,Object>) value;
+        }
+
+        @SuppressWarnings("unchecked")
+        static List<Object> list (Object value)
+        {
+            return value == null ? List.of() : (List<Object>) value;
+        }
+
+        private Object value ()
+        {
+            skip();
+            final var c = text.charAt(position);
+            if (c == '{') {
+                final var map = new LinkedHashMap<String,Object>();
+                ++position; skip();
+                if (text.charAt(position) == '}') { ++position; return map; }
+                while (true) {
+                    final var key = (String) value();
+                    skip(); ++position; // :
+                    map.put(key,value());
+                    skip();
+                    if (text.charAt(position++) == '}') return map;
+                }
+            }
+            if (c == '[') {
+                final var list = new ArrayList<Object>();
+                ++position; skip();
+                if (text.charAt(position) == ']') { ++position; return list; }
+                while (true) {
+                    list.add(value());
+                    skip();
+                    if (text.charAt(position++) == ']') return list;
+                }
+            }
+            if (c == '"') {
+                final var string = new StringBuilder();
+                ++position;
+                while (true) {
+                    final var d = text.charAt(position++);
+                    if (d == '"') return string.toString();
+                    if (d == '\\') {
+                        final var e = text.charAt(position++);
+                        switch (e) {
+                            case 'n' -> string.append('\n');
+                            case 't' -> string.append('\t');
+                            case 'r' -> string.append('\r');
+                            case 'b' -> string.append('\b');
+                            case 'f' -> string.append('\f');
+                            case 'u' -> { string.append((char) Integer.parseInt(text.substring(position,position + 4),16)); position += 4; }
+                            default -> string.append(e);
+                        }
+                    }
+                    else string.append(d);
+                }
+            }
+            final var start = position;
+            while (position < text.length() && ",}] \n\r\t".indexOf(text.charAt(position)) == -1) ++position;
+            final var literal = text.substring(start,position);
+            return switch (literal) {
+                case "true" -> true;
+                case "false" -> false;
+                case "null" -> null;
+                default -> Long.parseLong(literal);
+            };
+        }
+
+        private void skip ()
+        {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) ++position;
+        }
+    }
+}
@@ -63,6 +63,16 @@ public class Metal
      */
     public static final String LINKABLE_ELEMENTS = "linkableElements";
 
+    /**
+     * Precompiled dependencies configuration name.
+     */
+    public static final String PRECOMPILED_DEPENDENCIES = "precompiledDependencies";
+
+    /**
+     * Precompiled elements configuration name.
+     */
+    public static final String PRECOMPILED_ELEMENTS = "precompiledElements";
+
     /**
      * Find executable file in path.
      *
@@ -0,0 +1,281 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import org.gradle.api.logging.Logging;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Gradle Metal admission controller.
+ *
+ * <p>Native tool processes are admitted only if they fit in available memory and in the concurrency limit of their kind,
+ * such as <code>compile</code>, <code>precompile</code>, <code>scan</code>, <code>link</code> or <code>archive</code>;
+ * otherwise the requesting worker waits. The first process is always admitted.</p>
+ *
+ * <p>Memory needed by a process is estimated by the peak resident set size observed for the same kind and key,
+ * such as the source file, in previous executions; or else by the mean of peaks observed for the same kind.
+ * Available memory is read from <code>/proc/meminfo</code>, less memory expected but not yet used by admitted processes;
+ * where unavailable, only concurrency limits apply. Peaks are observed by sampling descendant processes
+ * in <code>/proc</code>, and remembered among builds.</p>
+ */
+final class MetalAdmission implements AutoCloseable
+{
+    /**
+     * Memory estimate when no peak was observed for the kind, in bytes.
+     */
+    static final long DEFAULT_ESTIMATE = 512L << 20;
+
+    /**
+     * Fraction of available memory kept free.
+     */
+    static final double HEADROOM = 0.1;
+
+    /**
+     * Admitted process.
+     */
+    final class Permit implements AutoCloseable
+    {
+        private final String kind;
+
+        private final String key;
+
+        private final long estimate;
+
+        private volatile long observed;
+
+        private Permit (String kind, String key, long estimate)
+        {
+            this.kind = kind;
+            this.key = key;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public void close ()
+        {
+            release(this);
+        }
+    }
+
+    private final Map<String,Integer> limits;
+
+    private final boolean memory;
+
+    private final Path historyFile;
+
+    private final Map<String,Long> peaks = new ConcurrentHashMap<>();
+
+    private final List<Permit> active = new ArrayList<>();
+
+    private final Map<String,Integer> activeByKind = new HashMap<>();
+
+    private final ScheduledExecutorService sampler;
+
+    /**
+     * Constructor.
+     *
+     * @param limits       concurrency limits, by kind
+     * @param memory       whether to admit by available memory
+     * @param historyFile  observed peaks file
+     */
+    MetalAdmission (Map<String,Integer> limits, boolean memory, Path historyFile)
+    {
+        this.limits = Map.copyOf(limits);
+        this.memory = memory && Files.isReadable(Path.of("/proc/meminfo"));
+        this.historyFile = historyFile;
+        if (this.memory) {
+            load();
+            sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final var thread = new Thread(runnable,"metal-admission");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sampler.scheduleWithFixedDelay(this::sample,200,200,TimeUnit.MILLISECONDS);
+        }
+        else {
+            sampler = null;
+        }
+    }
+
+    /**
+     * Admit process, waiting if necessary.
+     *
+     * @param kind  process kind
+     * @param key   process key, such as the source file; an argument, or an option value such as <code>--output=key</code>, of the process command line
+     * @return      permit, to close when the process ends
+     */
+    Permit admit (String kind, String key)
+    {
+        final var permit = new Permit(kind,key,estimate(kind,key));
+        synchronized (active)
+        {
+            var waited = false;
+            while (! admissible(permit))
+            {
+                if (! waited) {
+                    Logging.getLogger(MetalAdmission.class).info("admission: waiting: {}: {}",kind,key);
+                    waited = true;
+                }
+                try { active.wait(1000); }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            active.add(permit);
+            activeByKind.merge(kind,1,Integer::sum);
+        }
+        return permit;
+    }
+
+    private boolean admissible (Permit permit)
+    {
+        final var limit = limits.get(permit.kind);
+        if (limit != null && activeByKind.getOrDefault(permit.kind,0) >= limit) return false;
+        if (! memory || active.isEmpty()) return true;
+        // memory in use by admitted processes is already accounted for by the system
+        var reserved = 0L;
+        for (var other : active) reserved += Math.max(0,other.estimate - other.observed);
+        return permit.estimate + reserved <= (long) (available() * (1 - HEADROOM));
+    }
+
+    private void release (Permit permit)
+    {
+        if (memory && permit.observed != 0) peaks.put(permit.kind + ":" + permit.key,permit.observed);
+        synchronized (active)
+        {
+            active.remove(permit);
+            activeByKind.merge(permit.kind,-1,Integer::sum);
+            active.notifyAll();
+        }
+    }
+
+    private long estimate (String kind, String key)
+    {
+        if (! memory) return 0;
+        final var peak = peaks.get(kind + ":" + key);
+        if (peak != null) return peak;
+        final var prefix = kind + ":";
+        final var statistics = peaks.entrySet().stream()
+            .filter(entry -> entry.getKey().startsWith(prefix))
+            .mapToLong(Map.Entry::getValue)
+            .summaryStatistics();
+        return statistics.getCount() == 0 ? DEFAULT_ESTIMATE : (long) statistics.getAverage();
+    }
+
+    /**
+     * Available memory, from <code>/proc/meminfo</code>.
+     *
+     * @return available memory, in bytes
+     */
+    static long available ()
+    {
+        try
+        {
+            for (var line : Files.readAllLines(Path.of("/proc/meminfo"),UTF_8)) {
+                if (line.startsWith("MemAvailable:")) return kilobytes(line);
+            }
+        }
+        catch (IOException ignored) { }
+        return Long.MAX_VALUE;
+    }
+
+    private void sample ()
+    {
+        final List<Permit> permits;
+        synchronized (active) {
+            if (active.isEmpty()) return;
+            permits = List.copyOf(active);
+        }
+        ProcessHandle.current().descendants().forEach(process ->
+        {
+            final var directory = Path.of("/proc",Long.toString(process.pid()));
+            try
+            {
+                final var arguments = new String(Files.readAllBytes(directory.resolve("cmdline")),UTF_8).split("\0");
+                final var matching = permits.stream().filter(permit -> matches(arguments,permit.key)).toList();
+                if (matching.isEmpty()) return;
+                for (var line : Files.readAllLines(directory.resolve("status"),UTF_8)) {
+                    if (! line.startsWith("VmHWM:")) continue;
+                    final var peak = kilobytes(line);
+                    matching.forEach(permit -> permit.observed = Math.max(permit.observed,peak));
+                }
+            }
+            // processes may end while sampled
+            catch (IOException ignored) { }
+        });
+    }
+
+    /**
+     * Whether key is an argument, or an option value, of a command line.
+     *
+     * <p>Keys are matched exactly: the key <code>foo.c</code> does not match <code>src/foo.c</code>
+     * and the key <code>foo.o</code> does not match <code>foo.o.d</code>.</p>
+     *
+     * @param arguments  command line arguments
+     * @param key        process key
+     * @return           whether key matches
+     */
+    static boolean matches (String[] arguments, String key)
+    {
+        final var option = "=" + key;
+        for (var argument : arguments)
+            if (argument.equals(key) || argument.endsWith(option)) return true;
+        return false;
+    }
+
+    private static long kilobytes (String line)
+    {
+        final var fields = line.trim().split("\\s+");
+        return Long.parseLong(fields[1]) << 10;
+    }
+
+    private void load ()
+    {
+        if (! Files.isRegularFile(historyFile)) return;
+        final var properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(historyFile,UTF_8)) {
+            properties.load(reader);
+        }
+        catch (IOException | IllegalArgumentException e) {
+            Logging.getLogger(MetalAdmission.class).info("admission: ignoring peaks file: {}",historyFile,e);
+            return;
+        }
+        properties.forEach((key,value) -> {
+            try { peaks.put(key.toString(),Long.parseLong(value.toString())); }
+            catch (NumberFormatException ignored) { }
+        });
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+        if (sampler == null) return;
+        sampler.shutdownNow();
+        final var properties = new Properties();
+        peaks.forEach((key,value) -> properties.setProperty(key,value.toString()));
+        Files.createDirectories(historyFile.getParent());
+        final var temporary = Files.createTempFile(historyFile.getParent(),"peaks",".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary,UTF_8)) {
+            properties.store(writer,null);
+        }
+        Files.move(temporary,historyFile,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+}
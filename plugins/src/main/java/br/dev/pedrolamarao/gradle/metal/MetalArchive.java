@@ -2,6 +2,8 @@
 
 package br.dev.pedrolamarao.gradle.metal;
 
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileTree;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
@@ -10,9 +12,11 @@ import org.gradle.api.tasks.*;
 import org.gradle.process.ExecOperations;
 
 import javax.inject.Inject;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Gradle Metal archiver task.
@@ -28,6 +32,16 @@ public abstract class MetalArchive extends SourceTask
     @Input
     public abstract Property<String> getArchiver ();
 
+    /**
+     * Explain directory.
+     *
+     * <p>Holds the input record and the reasons of the last execution.</p>
+     *
+     * @return property
+     */
+    @OutputDirectory
+    public abstract DirectoryProperty getExplainDirectory ();
+
     /**
      * Archiver options.
      *
@@ -68,17 +82,34 @@ public abstract class MetalArchive extends SourceTask
     @ServiceReference
     protected abstract Property<MetalService> getMetal ();
 
+    private final File rootDirectory;
+
     /**
      * Constructor.
      */
     @Inject
     public MetalArchive ()
     {
+        final var name = getName();
         getArchiver().convention("llvm-ar");
+        getExplainDirectory().convention(getProject().getLayout().getBuildDirectory().dir("explain/%s".formatted(name)));
+        rootDirectory = getProject().getRootDir();
+    }
+
+    @Override
+    @InputFiles
+    @SkipWhenEmpty
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileTree getSource ()
+    {
+        return super.getSource();
     }
 
     /**
      * Archive action.
+     *
+     * <p>Archives are created anew, with members in path order and without timestamps, owners or modes.</p>
      */
     @TaskAction
     public void archive () throws Exception
@@ -89,19 +120,46 @@ public abstract class MetalArchive extends SourceTask
 
         final var atFile = this.getTemporaryDir().toPath().resolve("sources");
         try (var writer = Files.newBufferedWriter(atFile)) {
-            getSource().forEach(file -> {
+            getSource().getFiles().stream().sorted().forEach(file -> {
                 try { writer.write(file.toString().replace("\\","\\\\") + "\n"); }
                     catch (IOException e) { throw new RuntimeException(e); }
             });
         }
 
+        // archivers update existing archives: remove members of previous archives
+        Files.deleteIfExists(output.toPath());
+
         final var command = new ArrayList<String>();
         command.add(archiver.toString());
-        command.add("rcs");
+        command.add("rcsD");
         command.addAll(options);
         command.add(output.toString());
         command.add("@"+atFile);
 
-        getExec().exec(it -> it.commandLine(command));
+        final var permit = getMetal().get().admit("archive",output.toString());
+        try
+        {
+            getExec().exec(it -> it.commandLine(command));
+        }
+        finally
+        {
+            permit.close();
+        }
+
+        // record inputs and explain execution
+
+        final var inputs = new ArrayList<String>();
+        getSource().getFiles().stream().sorted().forEach(file -> inputs.add(file.toString()));
+        final var record = new MetalInputRecord.Builder(getPath(),rootDirectory)
+            .input("toolchain",getMetal().get().getToolVersion(getArchiver().get()))
+            .command("command",command)
+            .unit(output.toString(),inputs,true)
+            .build();
+        final var reasons = record.update(
+            getExplainDirectory().get().getAsFile().toPath(),
+            getTemporaryDir().toPath().resolve(MetalInputRecord.FILE_NAME),
+            List.of(MetalCompileImpl.relocate(rootDirectory.toPath(),output.toString()))
+        );
+        reasons.forEach(reason -> getLogger().info("{}: {}",getPath(),reason));
     }
 }
@@ -5,7 +5,9 @@ package br.dev.pedrolamarao.gradle.metal;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.InputChanges;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,6 +34,7 @@ public abstract class MetalAsmCompile extends MetalCompileImpl
             list.add(getMetal().get().locateTool(getCompiler().get()).toString());
             list.add("--target=%s".formatted(getTarget().get()));
             list.addAll(getOptions().get());
+            list.addAll(relocationArguments());
             list.add("--compile");
             list.add("--language=assembler");
             return list;
@@ -40,10 +43,13 @@ public abstract class MetalAsmCompile extends MetalCompileImpl
 
     /**
      * Compile action.
+     *
+     * @param changes  input changes
+     * @throws IOException in case of failure
      */
     @TaskAction
-    public void compile ()
+    public void compile (InputChanges changes) throws IOException
     {
-        super.compile();
+        super.compile(changes);
     }
 }
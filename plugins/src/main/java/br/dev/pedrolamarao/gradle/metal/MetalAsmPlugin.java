@@ -51,6 +51,9 @@ public class MetalAsmPlugin implements Plugin<Project>
             );
 
             task.getOutputDirectory().set(output);
+            task.getLauncher().convention(component.getLauncher());
+            task.getLauncherEnvironment().convention(component.getLauncherEnvironment());
+            task.getMultiSource().convention(component.getMultiSource());
             task.getOptions().convention(component.getCompileOptions());
             task.setSource(sourceDirectory);
             task.getTarget().convention(component.getTarget());
@@ -59,7 +62,7 @@ public class MetalAsmPlugin implements Plugin<Project>
             task.include(component.getIncludes());
             task.onlyIf("target is enabled",it -> condition.get());
         });
-        component.getObjectFiles().from(compileTask);
+        component.getObjectFiles().from(compileTask.flatMap(MetalCompile::getOutputDirectory));
 
         final var commandsTask = tasks.register("compileAsmCommands",MetalCompileCommands.class,task ->
         {
@@ -100,6 +103,9 @@ public class MetalAsmPlugin implements Plugin<Project>
             );
 
             task.getOutputDirectory().set(output);
+            task.getLauncher().convention(component.getLauncher());
+            task.getLauncherEnvironment().convention(component.getLauncherEnvironment());
+            task.getMultiSource().convention(component.getMultiSource());
             task.getOptions().convention(component.getCompileOptions());
             task.setSource(sourceDirectory);
             task.getTarget().convention(component.getTarget());
@@ -108,7 +114,7 @@ public class MetalAsmPlugin implements Plugin<Project>
             task.include(component.getIncludes());
             task.onlyIf("target is enabled",it -> condition.get());
         });
-        component.getObjectFiles().from(compileTask);
+        component.getObjectFiles().from(compileTask.flatMap(MetalCompile::getOutputDirectory));
 
         final var commandsTask = tasks.register("compileTestAsmCommands",MetalCompileCommands.class,task ->
         {
@@ -2,14 +2,18 @@
 
 package br.dev.pedrolamarao.gradle.metal;
 
+import org.gradle.api.GradleException;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.tasks.SourceTask;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Gradle Metal base plugin.
@@ -23,7 +27,20 @@ public class MetalBasePlugin implements Plugin<Project>
 
         project.getPluginManager().apply("base");
 
-        project.getGradle().getSharedServices().registerIfAbsent("metal",MetalService.class,it -> {});
+        final var cacheDirectory = new File(project.getGradle().getGradleUserHomeDir(),"caches/metal");
+        final var objectCacheSize = project.getProviders().gradleProperty("metal.objectCacheSize").map(Long::parseLong);
+        final var remoteEndpoint = project.getProviders().gradleProperty("metal.remote");
+        final var remoteInstance = project.getProviders().gradleProperty("metal.remoteInstance");
+        final var concurrencyLimits = project.getProviders().gradleProperty("metal.concurrency").map(MetalBasePlugin::parseConcurrencyLimits);
+        final var memoryAdmission = project.getProviders().gradleProperty("metal.memoryAdmission").map(Boolean::parseBoolean);
+        project.getGradle().getSharedServices().registerIfAbsent("metal",MetalService.class,it -> {
+            it.getParameters().getCacheDirectory().set(cacheDirectory);
+            it.getParameters().getObjectCacheSize().set(objectCacheSize.orElse(5L << 30));
+            it.getParameters().getRemoteEndpoint().set(remoteEndpoint);
+            it.getParameters().getRemoteInstance().set(remoteInstance.orElse(""));
+            it.getParameters().getConcurrencyLimits().set(concurrencyLimits.orElse(Map.of("link",2)));
+            it.getParameters().getMemoryAdmission().set(memoryAdmission.orElse(true));
+        });
 
         project.getExtensions().create("metal",MetalExtension.class);
 
@@ -82,6 +99,15 @@ public class MetalBasePlugin implements Plugin<Project>
             configuration.setDescription("linkable elements");
         });
 
+        configurations.consumable(Metal.PRECOMPILED_ELEMENTS, configuration -> {
+            configuration.attributes(it -> {
+                it.attribute(MetalCapability.ATTRIBUTE, MetalCapability.PRECOMPILED);
+                it.attribute(MetalVisibility.ATTRIBUTE, MetalVisibility.COMPILE);
+            });
+            configuration.extendsFrom(api.get());
+            configuration.setDescription("precompiled elements");
+        });
+
         // incoming dependencies
 
         final var commandsDependencies = configurations.resolvable(Metal.COMMANDS_DEPENDENCIES, configuration -> {
@@ -120,6 +146,15 @@ public class MetalBasePlugin implements Plugin<Project>
             configuration.setDescription("link dependencies");
         });
 
+        configurations.resolvable(Metal.PRECOMPILED_DEPENDENCIES, configuration -> {
+            configuration.attributes(it -> {
+                it.attribute(MetalCapability.ATTRIBUTE, MetalCapability.PRECOMPILED);
+                it.attribute(MetalVisibility.ATTRIBUTE, MetalVisibility.COMPILE);
+            });
+            configuration.extendsFrom(implementation.get());
+            configuration.setDescription("precompiled dependencies");
+        });
+
         configurations.resolvable("testImportDependencies", configuration -> {
             configuration.attributes(it -> {
                 it.attribute(MetalCapability.ATTRIBUTE, MetalCapability.IMPORTABLE);
@@ -147,6 +182,35 @@ public class MetalBasePlugin implements Plugin<Project>
             configuration.setDescription("test link dependencies");
         });
 
+        configurations.resolvable("testPrecompiledDependencies", configuration -> {
+            configuration.attributes(it -> {
+                it.attribute(MetalCapability.ATTRIBUTE, MetalCapability.PRECOMPILED);
+                it.attribute(MetalVisibility.ATTRIBUTE, MetalVisibility.COMPILE);
+            });
+            configuration.extendsFrom(testImplementation.get());
+            configuration.setDescription("test precompiled dependencies");
+        });
+
+        // explain task
+
+        project.getTasks().register("metalExplain",MetalExplain.class).configure(task ->
+        {
+            final var tasks = task.getProject().getTasks();
+            final var compileTasks = tasks.withType(MetalCompileImpl.class);
+            final var linkTasks = tasks.withType(MetalLink.class);
+            final var archiveTasks = tasks.withType(MetalArchive.class);
+            task.setGroup("metal");
+            task.setDescription("Explains why native tasks executed.");
+            task.dependsOn(compileTasks,linkTasks,archiveTasks);
+            task.getExplainDirectories().from(task.getProject().provider(() -> {
+                final var directories = new ArrayList<Object>();
+                compileTasks.forEach(it -> directories.add(it.getExplainDirectory()));
+                linkTasks.forEach(it -> directories.add(it.getExplainDirectory()));
+                archiveTasks.forEach(it -> directories.add(it.getExplainDirectory()));
+                return directories;
+            }));
+        });
+
         // aggregate commands task
 
         project.getTasks().register("aggregateCommands",SourceTask.class).configure(task ->
@@ -182,4 +246,29 @@ public class MetalBasePlugin implements Plugin<Project>
             });
         });
     }
+
+    /**
+     * Parse concurrency limits, such as <code>link=2,precompile=2</code>.
+     *
+     * @param value  property value
+     * @return       limits, by kind
+     */
+    static Map<String,Integer> parseConcurrencyLimits (String value)
+    {
+        final var limits = new LinkedHashMap<String,Integer>();
+        for (var item : value.split(","))
+        {
+            if (item.isBlank()) continue;
+            final var pair = item.split("=",2);
+            try {
+                final var limit = Integer.parseInt(pair[1].trim());
+                if (limit < 1) throw new NumberFormatException();
+                limits.put(pair[0].trim(),limit);
+            }
+            catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new GradleException("metal.concurrency: invalid limit: " + item);
+            }
+        }
+        return limits;
+    }
 }
@@ -2,12 +2,20 @@
 
 package br.dev.pedrolamarao.gradle.metal;
 
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.InputChanges;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,15 +30,39 @@ public abstract class MetalCCompile extends MetalCompileImpl
      *
      * @return property
      */
-    @Input
+    @Internal
     public abstract ListProperty<String> getIncludePath ();
 
+    /**
+     * Precompiled header file.
+     *
+     * <p>The precompiled header is included before the first line of each source.</p>
+     *
+     * @return property
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getPrecompiledHeaderFile ();
+
     /**
      * Constructor.
      */
     public MetalCCompile ()
     {
         getCompiler().convention("clang");
+        getIncludeFiles().from(getIncludePath());
+    }
+
+    /**
+     * Compiler include path, relative to the root directory where possible.
+     *
+     * @return provider
+     */
+    @Input
+    protected Provider<List<String>> getRelocatedIncludePath ()
+    {
+        return getIncludePath().map(this::relocate);
     }
 
     @Override
@@ -42,6 +74,11 @@ public abstract class MetalCCompile extends MetalCompileImpl
             list.add(getMetal().get().locateTool(getCompiler().get()).toString());
             list.add("--target=%s".formatted(getTarget().get()));
             list.addAll(getOptions().get());
+            list.addAll(relocationArguments());
+            if (getPrecompiledHeaderFile().isPresent()) {
+                list.add("-include-pch");
+                list.add(getPrecompiledHeaderFile().get().getAsFile().toString());
+            }
             getIncludePath().get().forEach(path -> list.add("--include-directory=%s".formatted(path)));
             list.add("--compile");
             list.add("--language=c");
@@ -51,10 +88,13 @@ public abstract class MetalCCompile extends MetalCompileImpl
 
     /**
      * Compile action.
+     *
+     * @param changes  input changes
+     * @throws IOException in case of failure
      */
     @TaskAction
-    public void compile ()
+    public void compile (InputChanges changes) throws IOException
     {
-        super.compile();
+        super.compile(changes);
     }
 }
@@ -6,7 +6,7 @@ import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 
 /**
  * Gradle Metal C language plugin.
@@ -29,6 +29,7 @@ public class MetalCPlugin implements Plugin<Project>
         {
             final var library = (MetalLibraryImpl) extensions.getByType(MetalLibrary.class);
             registerMain(project,library);
+            registerPrecompiledElements(project,library);
 
             final var test = (MetalApplicationImpl) extensions.getByType(MetalApplication.class);
             registerTest(project,test);
@@ -43,15 +44,42 @@ public class MetalCPlugin implements Plugin<Project>
 
         final var commandsElements = configurations.named(Metal.COMMANDS_ELEMENTS);
         final var includeDependencies = configurations.named(Metal.INCLUDABLE_DEPENDENCIES);
+        final var precompiledDependencies = configurations.named(Metal.PRECOMPILED_DEPENDENCIES);
         final var sourceDirectory = layout.getProjectDirectory().dir("src/main/c");
 
         final var includePath = includeDependencies.map(it -> {
-            final var list = new HashSet<String>();
+            final var list = new LinkedHashSet<String>();
             list.add(layout.getProjectDirectory().dir("src/main/cpp").toString());
             it.getElements().get().forEach(element -> list.add(element.toString()));
             return list;
         });
 
+        final var headerTask = tasks.register("precompileHeaderC",MetalHeaderPrecompile.class,task ->
+        {
+            final var condition = component.getTargets().zip(task.getTarget(),
+                (allowed,target) -> allowed.isEmpty() || allowed.contains(target)
+            );
+            final var enabled = component.getPrecompiledHeader().map(header -> true).orElse(false);
+            final var output = task.getProject().getLayout().getBuildDirectory().file(
+                task.getTarget().map("pch/main/c/%s/header.pch"::formatted)
+            );
+
+            task.dependsOn(
+                includeDependencies.map(Configuration::getBuildDependencies)
+            );
+            task.getHeader().convention(component.getPrecompiledHeader());
+            task.getIncludePath().convention(includePath);
+            task.getLanguage().convention("c");
+            task.getOptions().convention(component.getCompileOptions());
+            task.getOutput().convention(output);
+            task.getPrecompiledHeaderFile().convention(component.getPrecompiledDependency(precompiledDependencies,task.getCompatibility()));
+            task.getTarget().convention(component.getTarget());
+
+            task.onlyIf("precompiled header is enabled",it -> enabled.get());
+            task.onlyIf("target is enabled",it -> condition.get());
+        });
+        final var precompiledHeader = component.getPrecompiledHeader().flatMap(header -> headerTask.flatMap(MetalHeaderPrecompile::getOutput));
+
         final var compileTask = tasks.register("compileC",MetalCCompile.class,task ->
         {
             final var condition = component.getTargets().zip(task.getTarget(),
@@ -64,15 +92,21 @@ public class MetalCPlugin implements Plugin<Project>
             task.dependsOn(includeDependencies.map(Configuration::getBuildDependencies));
             task.getIncludePath().convention(includePath);
             task.getOutputDirectory().convention(output);
+            task.getLauncher().convention(component.getLauncher());
+            task.getLauncherEnvironment().convention(component.getLauncherEnvironment());
+            task.getMultiSource().convention(component.getMultiSource());
             task.getOptions().convention(component.getCompileOptions());
+            task.getPrecompiledHeaderFile().convention(precompiledHeader.orElse(component.getPrecompiledDependency(precompiledDependencies,task.getCompatibility("c"))));
             task.setSource(sourceDirectory);
             task.getTarget().convention(component.getTarget());
+            task.getUnityBatchSize().convention(component.getUnityBatchSize());
+            task.getUnityExcludes().convention(component.getUnityExcludes());
 
             task.exclude(component.getExcludes());
             task.include(component.getIncludes());
             task.onlyIf("target is enabled",it -> condition.get());
         });
-        component.getObjectFiles().from(compileTask);
+        component.getObjectFiles().from(compileTask.flatMap(MetalCompile::getOutputDirectory));
 
         final var commandsTask = tasks.register("compileCCommands",MetalCompileCommands.class,task ->
         {
@@ -94,6 +128,28 @@ public class MetalCPlugin implements Plugin<Project>
         commandsElements.configure(it -> it.getOutgoing().artifact(commandsTask));
     }
 
+    private static void registerPrecompiledElements (Project project, MetalComponentImpl component)
+    {
+        final var headerTask = project.getTasks().named("precompileHeaderC",MetalHeaderPrecompile.class);
+
+        // consumers never match the incompatible key: disabled precompiled headers are not published
+        final var enabled = component.getTargets().zip(component.getTarget(),
+            (allowed,target) -> allowed.isEmpty() || allowed.contains(target)
+        );
+        final var compatibility = component.getPrecompiledHeader()
+            .zip(enabled,(header,allowed) -> allowed)
+            .filter(allowed -> allowed)
+            .flatMap(allowed -> headerTask.flatMap(MetalHeaderPrecompile::getCompatibility))
+            .orElse(MetalCompatibility.NONE);
+
+        project.getConfigurations().named(Metal.PRECOMPILED_ELEMENTS).configure(configuration ->
+            configuration.getOutgoing().getVariants().create("c",variant -> {
+                variant.attributes(it -> it.attributeProvider(MetalCompatibility.ATTRIBUTE,compatibility));
+                variant.artifact(headerTask.flatMap(MetalHeaderPrecompile::getOutput));
+            })
+        );
+    }
+
     private static void registerTest (Project project, MetalComponentImpl component)
     {
         final var configurations = project.getConfigurations();
@@ -102,16 +158,43 @@ public class MetalCPlugin implements Plugin<Project>
 
         final var commandsElements = configurations.named(Metal.COMMANDS_ELEMENTS);
         final var includeDependencies = configurations.named("testIncludeDependencies");
+        final var precompiledDependencies = configurations.named("testPrecompiledDependencies");
         final var sourceDirectory = layout.getProjectDirectory().dir("src/test/c");
 
         final var includePath = includeDependencies.map(it -> {
-            final var list = new HashSet<String>();
+            final var list = new LinkedHashSet<String>();
             list.add(layout.getProjectDirectory().dir("src/main/cpp").toString());
             list.add(layout.getProjectDirectory().dir("src/test/cpp").toString());
             it.getElements().get().forEach(element -> list.add(element.toString()));
             return list;
         });
 
+        final var headerTask = tasks.register("precompileTestHeaderC",MetalHeaderPrecompile.class,task ->
+        {
+            final var condition = component.getTargets().zip(task.getTarget(),
+                (allowed,target) -> allowed.isEmpty() || allowed.contains(target)
+            );
+            final var enabled = component.getPrecompiledHeader().map(header -> true).orElse(false);
+            final var output = task.getProject().getLayout().getBuildDirectory().file(
+                task.getTarget().map("pch/test/c/%s/header.pch"::formatted)
+            );
+
+            task.dependsOn(
+                includeDependencies.map(Configuration::getBuildDependencies)
+            );
+            task.getHeader().convention(component.getPrecompiledHeader());
+            task.getIncludePath().convention(includePath);
+            task.getLanguage().convention("c");
+            task.getOptions().convention(component.getCompileOptions());
+            task.getOutput().convention(output);
+            task.getPrecompiledHeaderFile().convention(component.getPrecompiledDependency(precompiledDependencies,task.getCompatibility()));
+            task.getTarget().convention(component.getTarget());
+
+            task.onlyIf("precompiled header is enabled",it -> enabled.get());
+            task.onlyIf("target is enabled",it -> condition.get());
+        });
+        final var precompiledHeader = component.getPrecompiledHeader().flatMap(header -> headerTask.flatMap(MetalHeaderPrecompile::getOutput));
+
         final var compileTask = tasks.register("compileTestC",MetalCCompile.class,task ->
         {
             final var condition = component.getTargets().zip(task.getTarget(),
@@ -124,15 +207,21 @@ public class MetalCPlugin implements Plugin<Project>
             task.dependsOn(includeDependencies.map(Configuration::getBuildDependencies));
             task.getIncludePath().convention(includePath);
             task.getOutputDirectory().convention(output);
+            task.getLauncher().convention(component.getLauncher());
+            task.getLauncherEnvironment().convention(component.getLauncherEnvironment());
+            task.getMultiSource().convention(component.getMultiSource());
             task.getOptions().convention(component.getCompileOptions());
+            task.getPrecompiledHeaderFile().convention(precompiledHeader.orElse(component.getPrecompiledDependency(precompiledDependencies,task.getCompatibility("c"))));
             task.setSource(sourceDirectory);
             task.getTarget().convention(component.getTarget());
+            task.getUnityBatchSize().convention(component.getUnityBatchSize());
+            task.getUnityExcludes().convention(component.getUnityExcludes());
 
             task.exclude(component.getExcludes());
             task.include(component.getIncludes());
             task.onlyIf("target is enabled",it -> condition.get());
         });
-        component.getObjectFiles().from(compileTask);
+        component.getObjectFiles().from(compileTask.flatMap(MetalCompile::getOutputDirectory));
 
         final var commandsTask = tasks.register("compileTestCCommands",MetalCompileCommands.class,task ->
         {
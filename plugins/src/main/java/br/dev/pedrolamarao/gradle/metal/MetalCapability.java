@@ -39,7 +39,12 @@ public enum MetalCapability
     /**
      * No capability artifacts.
      */
-    NONE;
+    NONE,
+
+    /**
+     * Precompiled header artifacts.
+     */
+    PRECOMPILED;
 
     /**
      * Capability attribute.
@@ -0,0 +1,28 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import org.gradle.api.attributes.Attribute;
+
+/**
+ * Metal artifacts compatibility.
+ *
+ * <p>Precompiled artifacts are usable only by compiler commands with the same language, compiler version, target and options;
+ * their compatibility key is given by {@link MetalService#getModuleCompatibility(String, String, String, java.util.List)}.</p>
+ */
+public final class MetalCompatibility
+{
+    /**
+     * Compatibility attribute.
+     */
+    public static final Attribute<String> ATTRIBUTE = Attribute.of("br.dev.pedrolamarao.gradle.metal.MetalCompatibility",String.class);
+
+    /**
+     * Incompatible key: artifacts with this key are not usable by any compiler command.
+     */
+    public static final String NONE = "none";
+
+    private MetalCompatibility ()
+    {
+    }
+}
@@ -5,8 +5,10 @@ package br.dev.pedrolamarao.gradle.metal;
 import org.gradle.api.Task;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputDirectory;
 
 
@@ -31,6 +33,43 @@ public interface MetalCompile extends Task
     @Input
     ListProperty<String> getOptions ();
 
+    /**
+     * Compiler launcher command, such as <code>ccache</code>, <code>sccache</code> or <code>distcc</code>.
+     *
+     * <p>Prepended to compiler commands when compiling; compile commands list the compiler itself.</p>
+     *
+     * @return property
+     */
+    @Internal
+    ListProperty<String> getLauncher ();
+
+    /**
+     * Compiler launcher environment.
+     *
+     * @return property
+     */
+    @Internal
+    MapProperty<String,String> getLauncherEnvironment ();
+
+    /**
+     * Whether to cache objects in the host object cache.
+     *
+     * @return property
+     */
+    @Internal
+    Property<Boolean> getObjectCache ();
+
+    /**
+     * Whether to execute compiler commands remotely, if a remote execution endpoint is configured.
+     *
+     * <p>The endpoint, from the <code>metal.remote</code> property, must serve the Remote Execution API v2 through a gRPC-JSON transcoder.
+     * Transport and protocol failures fall back to local execution.</p>
+     *
+     * @return property
+     */
+    @Internal
+    Property<Boolean> getRemoteExecution ();
+
     /**
      * Compiler output directory.
      *
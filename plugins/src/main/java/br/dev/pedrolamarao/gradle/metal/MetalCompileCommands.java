@@ -13,7 +13,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.util.stream.Collectors;
 
-import static br.dev.pedrolamarao.gradle.metal.MetalCompileImpl.hash;
+import static br.dev.pedrolamarao.gradle.metal.MetalCompileImpl.objectName;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
@@ -67,11 +67,14 @@ public abstract class MetalCompileCommands extends SourceTask
 
     // task
 
+    private final File rootDirectory;
+
     /**
      * Constructor.
      */
     public MetalCompileCommands ()
     {
+        rootDirectory = getProject().getRootDir();
     }
 
     private static final String template =
@@ -103,7 +106,7 @@ public abstract class MetalCompileCommands extends SourceTask
             writer.write("[\n");
             getSource().forEach(file ->
             {
-                final var output = new File(compileDirectory,"%X/%s.%s".formatted(hash(file),file.getName(),"o"));
+                final var output = new File(compileDirectory,objectName(rootDirectory,file));
 
                 try {
                     // ARGH
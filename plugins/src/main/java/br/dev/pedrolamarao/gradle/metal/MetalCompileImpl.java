@@ -2,27 +2,60 @@
 
 package br.dev.pedrolamarao.gradle.metal;
 
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileType;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logging;
 import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.provider.ProviderFactory;
 import org.gradle.api.services.ServiceReference;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
 import org.gradle.api.tasks.SourceTask;
 import org.gradle.process.ExecOperations;
+import org.gradle.process.ExecResult;
+import org.gradle.work.ChangeType;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
 import org.gradle.workers.WorkAction;
 import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkQueue;
 import org.gradle.workers.WorkerExecutor;
 
 import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 
 abstract class MetalCompileImpl extends SourceTask implements MetalCompile
@@ -39,11 +72,211 @@ abstract class MetalCompileImpl extends SourceTask implements MetalCompile
     @Internal
     abstract Provider<List<String>> getCommand ();
 
+    /**
+     * Compiler command, mapping imported modules to the module files given.
+     *
+     * <p>Task actions resolve imported modules once and build their commands with this method;
+     * {@link #getCommand()} maps module files as found in import directories, precompiling nothing.</p>
+     *
+     * @param imports  module files, by module name
+     * @return         compiler command
+     * @throws IOException in case of failure
+     */
+    List<String> command (Map<String,Path> imports) throws IOException
+    {
+        return getCommand().get();
+    }
+
+    /**
+     * Whether to compile many sources per compiler invocation.
+     *
+     * <p>Sources without module dependencies are compiled in groups, one compiler invocation per group,
+     * sparing process start-up for each source; groups are sized to spread sources among available workers.
+     * Not applied with compiler launchers or remote execution. Default is false.</p>
+     *
+     * @return property
+     */
+    @Internal
+    public abstract Property<Boolean> getMultiSource ();
+
+    /**
+     * Unity build batch size.
+     *
+     * <p>If greater than one, sources are compiled in batches: generated sources including about this many sources each,
+     * balanced by source size. Sources requiring modules are compiled alone. Default is zero.</p>
+     *
+     * @return property
+     */
+    @Input
+    public abstract Property<Integer> getUnityBatchSize ();
+
+    /**
+     * Unity build exclusions.
+     *
+     * <p>Sources matching these glob patterns, relative to the root directory, such as <code>**&#47;main.cxx</code>,
+     * are compiled alone.</p>
+     *
+     * @return property
+     */
+    @Input
+    public abstract ListProperty<String> getUnityExcludes ();
+
+    /**
+     * Source dependencies index file.
+     *
+     * @return property
+     */
+    @OutputFile
+    protected abstract RegularFileProperty getDependencyFile ();
+
+    /**
+     * Explain directory.
+     *
+     * <p>Holds the input record and the reasons of the last execution.</p>
+     *
+     * @return property
+     */
+    @OutputDirectory
+    protected abstract DirectoryProperty getExplainDirectory ();
+
+    /**
+     * Module output directory.
+     *
+     * <p>Sources providing modules, such as implementation partitions, produce module files in this directory.</p>
+     *
+     * @return property
+     */
+    @Optional
+    @OutputDirectory
+    protected abstract DirectoryProperty getModuleDirectory ();
+
+    /**
+     * Compiler include files.
+     *
+     * <p>Header dependencies are tracked among these files.</p>
+     *
+     * @return property
+     */
+    @IgnoreEmptyDirectories
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    protected abstract ConfigurableFileCollection getIncludeFiles ();
+
+    /**
+     * Unity batch directory.
+     *
+     * <p>Holds generated batch sources; batch sources include their sources by relative path,
+     * and also record which sources each batch compiles.</p>
+     *
+     * @return property
+     */
+    @OutputDirectory
+    protected abstract DirectoryProperty getUnityDirectory ();
+
+    /**
+     * Maximum number of workers.
+     *
+     * @return property
+     */
+    @Internal
+    protected abstract Property<Integer> getMaxWorkers ();
+
+    final File rootDirectory;
+
+    /**
+     * Constructor.
+     */
+    protected MetalCompileImpl ()
+    {
+        final var name = getName();
+        final var buildDirectory = getProject().getLayout().getBuildDirectory();
+        getObjectCache().convention(true);
+        getRemoteExecution().convention(true);
+        rootDirectory = getProject().getRootDir();
+        getDependencyFile().convention(
+            buildDirectory.zip(getTarget(),(dir,target) -> dir.file("deps/%s/%s/dependencies".formatted(name,target)))
+        );
+        getExplainDirectory().convention(
+            buildDirectory.zip(getTarget(),(dir,target) -> dir.dir("explain/%s/%s".formatted(name,target)))
+        );
+        getMaxWorkers().convention(getProject().getGradle().getStartParameter().getMaxWorkerCount());
+        getMultiSource().convention(false);
+        getUnityBatchSize().convention(0);
+        getUnityDirectory().convention(
+            buildDirectory.zip(getTarget(),(dir,target) -> dir.dir("unity/%s/%s".formatted(name,target)))
+        );
+    }
+
+    @Override
+    @Incremental
+    @InputFiles
+    @SkipWhenEmpty
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileTree getSource ()
+    {
+        return super.getSource();
+    }
+
+    /**
+     * Scan sources for module dependencies.
+     *
+     * <p>Sources without module dependencies may be omitted from the result.</p>
+     *
+     * @param sources  sources
+     * @param command  compiler command
+     * @param imports  module files, by module name
+     * @return         modules, by source
+     * @throws IOException in case of failure
+     */
+    Map<File,MetalIxxModule> scanModules (Collection<File> sources, List<String> command, Map<String,Path> imports) throws IOException
+    {
+        return Map.of();
+    }
+
+    /**
+     * Module files in the import path, resolved for this task's compiler command.
+     *
+     * <p>Resolving may precompile imported modules: task actions call this once per execution.</p>
+     *
+     * @return module files, by module name
+     * @throws IOException in case of failure
+     */
+    Map<String,Path> importModules () throws IOException
+    {
+        return Map.of();
+    }
+
     interface CompileParameter extends WorkParameters
     {
         ListProperty<String> getCommand ();
 
-        DirectoryProperty getOutputDirectory ();
+        RegularFileProperty getDependencyFile ();
+
+        ListProperty<String> getLauncher ();
+
+        MapProperty<String,String> getLauncherEnvironment ();
+
+        RegularFileProperty getModuleOutput ();
+
+        DirectoryProperty getObjectCacheDirectory ();
+
+        DirectoryProperty getObjectCacheRoot ();
+
+        Property<Long> getObjectCacheSize ();
+
+        RegularFileProperty getObject ();
+
+        Property<String> getRemoteEndpoint ();
+
+        Property<String> getRemoteInstance ();
+
+        DirectoryProperty getRemoteRoot ();
+
+        Property<String> getSchedule ();
+
+        ConfigurableFileCollection getScheduleRequires ();
 
         RegularFileProperty getSource ();
     }
@@ -53,55 +286,1072 @@ abstract class MetalCompileImpl extends SourceTask implements MetalCompile
         @Inject
         protected abstract ExecOperations getExec ();
 
+        @ServiceReference
+        public abstract Property<MetalService> getMetal ();
+
         @Inject
         public CompileAction () { }
 
         @Override
         public void execute ()
+        {
+            final var parameters = getParameters();
+            if (! parameters.getSchedule().isPresent()) {
+                compile();
+                return;
+            }
+
+            // modules start once the modules they require are compiled
+            final var schedule = getMetal().get().getSchedule();
+            final var id = parameters.getSchedule().get();
+            MetalModuleSchedule.Outcome outcome = null;
+            try
+            {
+                schedule.await(id,parameters.getScheduleRequires().getFiles());
+                compile();
+                outcome = MetalModuleSchedule.Outcome.MODIFIED;
+            }
+            finally
+            {
+                schedule.complete(id,parameters.getSource().getAsFile().get(),outcome);
+            }
+        }
+
+        private void compile ()
         {
             final var parameters = getParameters();
 
             final var commandBase = parameters.getCommand().get();
             final var source = parameters.getSource().getAsFile().get();
-            final var output = parameters.getOutputDirectory()
-                .file("%X/%s.%s".formatted(hash(source),source.getName(),"o"))
-                .get().getAsFile();
+            final var output = parameters.getObject().getAsFile().get();
 
             try
             {
                 Files.createDirectories(output.toPath().getParent());
+
+                final var command = new ArrayList<>(commandBase);
+                if (parameters.getDependencyFile().isPresent()) {
+                    command.add("-MD");
+                    command.add("-MF");
+                    command.add(parameters.getDependencyFile().get().toString());
+                }
+                if (parameters.getModuleOutput().isPresent()) {
+                    final var moduleOutput = parameters.getModuleOutput().getAsFile().get().toPath();
+                    Files.createDirectories(moduleOutput.getParent());
+                    command.add("-fmodule-output=%s".formatted(moduleOutput));
+                    command.add("--language=c++-module");
+                }
+                command.add("--output=%s".formatted(output));
+                command.add(source.toString());
+
+                // object cache requires depfiles to know headers; module outputs are not cached
+                final var cache = parameters.getObjectCacheDirectory().isPresent()
+                    && parameters.getDependencyFile().isPresent()
+                    && ! parameters.getModuleOutput().isPresent()
+                    && MetalObjectCache.cacheable(commandBase)
+                    ? new MetalObjectCache(parameters.getObjectCacheDirectory().get().getAsFile().toPath(),parameters.getObjectCacheSize().get(),parameters.getObjectCacheRoot().get().getAsFile().toPath())
+                    : null;
+                final var depfile = parameters.getDependencyFile().getAsFile().map(File::toPath).getOrNull();
+                final var key = cache == null ? null : MetalObjectCache.key(commandBase,source,parameters.getObjectCacheRoot().get().getAsFile().toPath());
+
+                if (cache != null && cache.restore(key,output.toPath(),depfile)) {
+                    Logging.getLogger(CompileAction.class).info("object cache hit: {}",source);
+                }
+                else {
+                    final var started = System.currentTimeMillis();
+                    if (! executeRemotely(commandBase,source,output.toPath(),depfile)) {
+                        final var launched = new ArrayList<>(parameters.getLauncher().get());
+                        launched.addAll(command);
+                        final var permit = getMetal().get().admit("compile",source.toString());
+                        try
+                        {
+                            getExec().exec(it -> {
+                                it.commandLine(launched);
+                                it.environment(parameters.getLauncherEnvironment().get());
+                            });
+                        }
+                        finally
+                        {
+                            permit.close();
+                        }
+                    }
+                    // launchers serving hits may not write depfiles
+                    if (cache != null && source.lastModified() < started && Files.exists(depfile))
+                        cache.store(key,started,output.toPath(),depfile);
+                }
             }
             catch (IOException e)
             {
                 throw new RuntimeException(e);
             }
+        }
+
+        /**
+         * Execute compiler command remotely, if configured.
+         *
+         * <p>Inputs are discovered by running the preprocessor locally; discovered inputs are written to the depfile.
+         * Transport failures fall back to local execution; compiler failures do not.</p>
+         *
+         * @return whether executed remotely
+         */
+        private boolean executeRemotely (List<String> commandBase, File source, Path output, Path depfile) throws IOException
+        {
+            final var parameters = getParameters();
+            if (! parameters.getRemoteEndpoint().isPresent()
+                || parameters.getModuleOutput().isPresent()
+                || ! MetalObjectCache.cacheable(commandBase))
+                return false;
+
+            final var remote = new MetalRemoteExecution(
+                parameters.getRemoteEndpoint().get(),
+                parameters.getRemoteInstance().getOrElse(""),
+                parameters.getRemoteRoot().get().getAsFile().toPath()
+            );
+            if (! remote.accepts(List.of(output))) return false;
+
+            // discover inputs: source, headers and module files
+            final var discovered = depfile != null ? depfile : output.resolveSibling(output.getFileName() + ".d");
+            final var discover = new ArrayList<>(commandBase);
+            discover.add("-M");
+            discover.add("-MF");
+            discover.add(discovered.toString());
+            discover.add(source.toString());
+            getExec().exec(it -> {
+                it.commandLine(discover);
+                it.setStandardOutput(OutputStream.nullOutputStream());
+            });
+            final var inputs = new ArrayList<Path>();
+            inputs.add(source.toPath());
+            MetalDependencies.parseDepfile(discovered).forEach(input -> inputs.add(Path.of(input)));
+            for (int i = 0; i != commandBase.size(); ++i) {
+                final var argument = commandBase.get(i);
+                if (argument.equals("-include-pch") && i + 1 != commandBase.size()) {
+                    inputs.add(Path.of(commandBase.get(i + 1)));
+                    continue;
+                }
+                if (! argument.startsWith("-fmodule-file=")) continue;
+                final var value = argument.substring("-fmodule-file=".length());
+                inputs.add(Path.of(value.substring(value.indexOf('=') + 1)));
+            }
+            if (depfile == null) Files.delete(discovered);
 
             final var command = new ArrayList<>(commandBase);
             command.add("--output=%s".formatted(output));
             command.add(source.toString());
 
-            getExec().exec(it -> it.commandLine(command));
+            final var logger = Logging.getLogger(CompileAction.class);
+            final MetalRemoteExecution.Result result;
+            try
+            {
+                result = remote.execute(command,inputs,List.of(output));
+            }
+            catch (IOException e)
+            {
+                logger.warn("remote execution failed, compiling locally: {}: {}",source,e.getMessage());
+                return false;
+            }
+            // diagnostics go through the worker logger: failures report them, successes report warnings
+            final var stdout = new String(result.stdout()).strip();
+            final var stderr = new String(result.stderr()).strip();
+            if (result.exitCode() != 0)
+                throw new RuntimeException("remote compilation failed with exit code %d: %s%n%s".formatted(result.exitCode(),source,stderr));
+            if (! stdout.isEmpty()) logger.quiet("{}",stdout);
+            if (! stderr.isEmpty()) logger.warn("{}",stderr);
+            logger.info("remote execution: {}",source);
+            return true;
         }
     }
 
-    void compile ()
+    interface MultiCompileParameter extends WorkParameters
+    {
+        ListProperty<String> getCommand ();
+
+        ListProperty<String> getDependencyFiles ();
+
+        DirectoryProperty getObjectCacheDirectory ();
+
+        DirectoryProperty getObjectCacheRoot ();
+
+        Property<Long> getObjectCacheSize ();
+
+        ListProperty<String> getObjects ();
+
+        ListProperty<String> getSources ();
+
+        DirectoryProperty getWorkDirectory ();
+    }
+
+    /**
+     * Compile many sources in one compiler invocation.
+     *
+     * <p>The compiler writes objects and depfiles into the work directory, named after the sources;
+     * they are then moved to their output paths. If the invocation fails, each source is compiled again alone,
+     * so that diagnostics and failures refer to individual sources.</p>
+     */
+    static abstract class MultiCompileAction implements WorkAction<MultiCompileParameter>
+    {
+        @Inject
+        protected abstract ExecOperations getExec ();
+
+        @ServiceReference
+        public abstract Property<MetalService> getMetal ();
+
+        @Inject
+        public MultiCompileAction () { }
+
+        @Override
+        public void execute ()
+        {
+            final var parameters = getParameters();
+            final var logger = Logging.getLogger(MultiCompileAction.class);
+
+            final var commandBase = parameters.getCommand().get();
+            final var depfiles = parameters.getDependencyFiles().get();
+            final var objects = parameters.getObjects().get();
+            final var sources = parameters.getSources().get();
+
+            try
+            {
+                // object cache requires depfiles to know headers
+                final var cache = parameters.getObjectCacheDirectory().isPresent()
+                    && ! depfiles.isEmpty()
+                    && MetalObjectCache.cacheable(commandBase)
+                    ? new MetalObjectCache(parameters.getObjectCacheDirectory().get().getAsFile().toPath(),parameters.getObjectCacheSize().get(),parameters.getObjectCacheRoot().get().getAsFile().toPath())
+                    : null;
+
+                final var pending = new ArrayList<Integer>();
+                final var keys = new HashMap<Integer,String>();
+                for (int i = 0; i != sources.size(); ++i)
+                {
+                    final var source = new File(sources.get(i));
+                    Files.createDirectories(Path.of(objects.get(i)).getParent());
+                    if (! depfiles.isEmpty()) Files.createDirectories(Path.of(depfiles.get(i)).getParent());
+                    if (cache != null) {
+                        final var key = MetalObjectCache.key(commandBase,source,parameters.getObjectCacheRoot().get().getAsFile().toPath());
+                        keys.put(i,key);
+                        if (cache.restore(key,Path.of(objects.get(i)),Path.of(depfiles.get(i)))) {
+                            logger.info("object cache hit: {}",source);
+                            continue;
+                        }
+                    }
+                    pending.add(i);
+                }
+                if (pending.isEmpty()) return;
+
+                final var directory = parameters.getWorkDirectory().get().getAsFile().toPath();
+                Files.createDirectories(directory);
+                try (var stream = Files.list(directory)) {
+                    for (var file : stream.toList()) Files.delete(file);
+                }
+
+                final var command = new ArrayList<>(commandBase);
+                if (! depfiles.isEmpty()) command.add("-MD");
+                pending.forEach(i -> command.add(sources.get(i)));
+
+                // diagnostics of failed invocations are reported by compiling each source again
+                final var stdout = new ByteArrayOutputStream();
+                final var stderr = new ByteArrayOutputStream();
+                final var started = System.currentTimeMillis();
+                final ExecResult result;
+                // memory is estimated and observed by the first source
+                final var permit = getMetal().get().admit("compile",sources.get(pending.get(0)));
+                try
+                {
+                    result = getExec().exec(it -> {
+                        it.commandLine(command);
+                        it.setErrorOutput(stderr);
+                        it.setIgnoreExitValue(true);
+                        it.setStandardOutput(stdout);
+                        it.setWorkingDir(directory.toFile());
+                    });
+                }
+                finally
+                {
+                    permit.close();
+                }
+
+                if (result.getExitValue() != 0)
+                {
+                    logger.info("multiple source compilation failed, compiling each source: {}",pending.size());
+                    final var failed = new ArrayList<String>();
+                    for (var i : pending) {
+                        if (! compile(commandBase,sources.get(i),objects.get(i),depfiles.isEmpty() ? null : depfiles.get(i)))
+                            failed.add(sources.get(i));
+                    }
+                    if (! failed.isEmpty()) throw new RuntimeException("compilation failed: " + String.join(", ",failed));
+                    return;
+                }
+                // warnings of successful invocations go through the worker logger
+                final var output = stdout.toString().strip();
+                final var errors = stderr.toString().strip();
+                if (! output.isEmpty()) logger.quiet("{}",output);
+                if (! errors.isEmpty()) logger.warn("{}",errors);
+
+                for (var i : pending)
+                {
+                    final var source = new File(sources.get(i));
+                    final var object = Path.of(objects.get(i));
+                    final var stem = stem(source);
+                    Files.move(directory.resolve(stem + ".o"),object,StandardCopyOption.REPLACE_EXISTING);
+                    if (depfiles.isEmpty()) continue;
+                    final var depfile = Path.of(depfiles.get(i));
+                    Files.move(directory.resolve(stem + ".d"),depfile,StandardCopyOption.REPLACE_EXISTING);
+                    if (cache != null && source.lastModified() < started)
+                        cache.store(keys.get(i),started,object,depfile);
+                }
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private boolean compile (List<String> commandBase, String source, String object, String depfile)
+        {
+            final var command = new ArrayList<>(commandBase);
+            if (depfile != null) {
+                command.add("-MD");
+                command.add("-MF");
+                command.add(depfile);
+            }
+            command.add("--output=%s".formatted(object));
+            command.add(source);
+            final var permit = getMetal().get().admit("compile",source);
+            try
+            {
+                return getExec().exec(it -> {
+                    it.commandLine(command);
+                    it.setIgnoreExitValue(true);
+                })
+                .getExitValue() == 0;
+            }
+            finally
+            {
+                permit.close();
+            }
+        }
+    }
+
+    void compile (InputChanges changes) throws IOException
     {
         final var workers = getWorkers().noIsolation();
 
-        final var options = getCommand();
+        final var imports = importModules();
+        final var commandBase = command(imports);
         final var outputDirectory = getOutputDirectory();
 
-        getSource().forEach(source ->
+        final var dependencyFile = getDependencyFile().get().getAsFile().toPath();
+        final var dependencies = changes.isIncremental() ? MetalDependencies.read(dependencyFile,rootDirectory.toPath()) : new MetalDependencies();
+        final var includeRoots = getIncludeFiles().getFiles().stream().map(file -> file.toPath().normalize()).toList();
+
+        // collect sources to compile: changed sources and dependents of changed headers
+
+        var compile = new LinkedHashSet<File>();
+        final var removed = new HashSet<String>();
+
+        for (var change : changes.getFileChanges(getSource()))
         {
-            workers.submit(CompileAction.class,parameters ->
+            if (change.getFileType() == FileType.DIRECTORY) continue;
+
+            final var source = change.getFile();
+
+            if (change.getChangeType() == ChangeType.REMOVED) {
+                removed.add(source.toString());
+                dependencies.remove(source.toString());
+                deleteObject(outputDirectory.file(objectName(rootDirectory,source)).get().getAsFile().toPath());
+                continue;
+            }
+
+            compile.add(source);
+        }
+
+        if (changes.isIncremental())
+        {
+            final var headers = new HashSet<String>();
+            for (var change : changes.getFileChanges(getIncludeFiles())) {
+                if (change.getFileType() == FileType.DIRECTORY) continue;
+                headers.add(change.getFile().toString());
+            }
+            for (var source : dependencies.dependents(headers)) {
+                if (! removed.contains(source)) compile.add(new File(source));
+            }
+        }
+
+        // discover module dependencies: sources requiring modules provided by sources to compile are compiled again
+
+        final var moduleDirectory = getModuleDirectory().getAsFile().map(File::toPath).getOrNull();
+        final var modules = new HashMap<>(scanModules(compile,commandBase,imports));
+        if (moduleDirectory != null && changes.isIncremental())
+        {
+            var scanned = modules.values();
+            while (! scanned.isEmpty())
+            {
+                final var provided = new HashSet<String>();
+                scanned.forEach(module -> module.provides().forEach(name ->
+                    provided.add(moduleDirectory.resolve(moduleFileName(name)).toString())
+                ));
+                final var more = new ArrayList<File>();
+                for (var source : dependencies.dependents(provided)) {
+                    final var file = new File(source);
+                    if (! removed.contains(source) && compile.add(file)) more.add(file);
+                }
+                final var next = scanModules(more,commandBase,imports);
+                modules.putAll(next);
+                scanned = next.values();
+            }
+        }
+
+        // sources without module dependencies are plain sources, even if scanned: in unity batches or many per compiler invocation
+        modules.values().removeIf(module -> module.provides().isEmpty() && module.requires().isEmpty());
+
+        // group sources without module dependencies into unity batches
+
+        if (getUnityBatchSize().get() > 1)
+            compile = unity(changes.isIncremental(),compile,modules.keySet(),dependencies);
+
+        final var graph = MetalIxxGraph.of(modules.values());
+        final var provided = new HashSet<String>();
+        graph.modules().forEach(module -> provided.addAll(module.provides()));
+
+        // compile; sources providing or requiring modules start once the modules they require are compiled
+
+        final var depfiles = new LinkedHashMap<File,Path>();
+        final var moduleFiles = new HashMap<File,List<String>>();
+        final var schedule = getMetal().get().getSchedule();
+        final var scheduled = graph.sorted().stream().map(MetalIxxModule::source).toList();
+        final var id = schedule.open(scheduled);
+
+        try
+        {
+            // modules first, in dependency order, longest chains first: workers start work in submission order
+            for (var module : graph.sorted())
+            {
+                final var command = new ArrayList<>(commandBase);
+                final var files = new ArrayList<String>();
+                for (var name : module.requires())
+                {
+                    final var local = moduleDirectory == null ? null : moduleDirectory.resolve(moduleFileName(name));
+                    if (local != null && (provided.contains(name) || Files.exists(local))) {
+                        command.add("-fmodule-file=%s=%s".formatted(name,local));
+                        files.add(local.toString());
+                    }
+                    else if (imports.containsKey(name)) {
+                        files.add(imports.get(name).toString());
+                    }
+                }
+                moduleFiles.put(module.source(),files);
+                final var moduleOutput = module.provides().isEmpty() || moduleDirectory == null ? null
+                    : moduleDirectory.resolve(moduleFileName(module.provides().get(0)));
+                final var requires = graph.requires(module).stream().map(MetalIxxModule::source).toList();
+                submit(workers,command,module.source(),moduleOutput,depfiles,id,requires);
+            }
+
+            // plain sources await nothing
+            final var plain = new ArrayList<File>();
+            for (var source : compile)
             {
-                parameters.getCommand().set(options);
-                parameters.getOutputDirectory().set(outputDirectory);
-                parameters.getSource().set(source);
+                dependencies.remove(source.toString());
+                if (! modules.containsKey(source)) plain.add(source);
+            }
+            if (multiSource()) submitMany(workers,commandBase,plain,depfiles);
+            else for (var source : plain) submit(workers,commandBase,source,null,depfiles);
+
+            // awaiting releases this task's worker lease to workers
+            workers.await();
+        }
+        finally
+        {
+            schedule.close(id,scheduled);
+
+            // update dependencies index, even if some compilation failed
+            for (var entry : depfiles.entrySet())
+            {
+                final var depfile = entry.getValue();
+                if (depfile != null && ! Files.exists(depfile)) continue;
+                final var headers = new ArrayList<String>();
+                for (var header : depfile == null ? List.<String>of() : MetalDependencies.parseDepfile(depfile)) {
+                    final var path = Path.of(header).normalize();
+                    for (var root : includeRoots) {
+                        if (path.startsWith(root)) {
+                            headers.add(path.toString());
+                            break;
+                        }
+                    }
+                }
+                headers.addAll(moduleFiles.getOrDefault(entry.getKey(),List.of()));
+                dependencies.put(entry.getKey().toString(),headers);
+            }
+            dependencies.write(dependencyFile,rootDirectory.toPath());
+        }
+
+        // record inputs and explain execution
+
+        final var executed = new HashSet<String>();
+        compile.forEach(source -> executed.add(source.toString()));
+        final var record = new MetalInputRecord.Builder(getPath(),rootDirectory)
+            .previous(getExplainDirectory().get().file(MetalInputRecord.FILE_NAME).getAsFile().toPath())
+            .input("toolchain",getMetal().get().getToolVersion(getCompiler().get()))
+            .command("command",commandBase);
+        for (var source : dependencies.sources()) {
+            final var files = new ArrayList<String>();
+            files.add(source);
+            files.addAll(dependencies.get(source));
+            record.unit(source,files,executed.contains(source));
+        }
+        explain(record.build(),compile);
+    }
+
+    /**
+     * Group sources into unity batches.
+     *
+     * <p>Non-incremental executions group all sources into new batches, except for sources requiring modules and excluded sources.
+     * Incremental executions keep existing batches: changed and removed sources move out of their batches,
+     * which are compiled again without them; changed sources are compiled alone until the next non-incremental execution.</p>
+     *
+     * @param incremental   whether this execution is incremental
+     * @param compile       sources to compile
+     * @param modular       sources with module dependencies
+     * @param dependencies  dependencies index
+     * @return              sources to compile, with batched sources replaced by their batches
+     * @throws IOException in case of failure
+     */
+    LinkedHashSet<File> unity (boolean incremental, Collection<File> compile, Collection<File> modular, MetalDependencies dependencies) throws IOException
+    {
+        final var directory = getUnityDirectory().get().getAsFile().toPath();
+        final var result = new LinkedHashSet<File>();
+
+        if (! incremental)
+        {
+            try (var stream = Files.list(directory)) {
+                for (var file : stream.toList()) Files.delete(file);
+            }
+
+            final var matchers = getUnityExcludes().get().stream()
+                .map(pattern -> FileSystems.getDefault().getPathMatcher("glob:" + pattern))
+                .toList();
+            final var eligible = new TreeMap<String,List<File>>();
+            for (var source : compile)
+            {
+                final var relative = Path.of(relocate(rootDirectory.toPath(),source.toString()));
+                if (modular.contains(source) || matchers.stream().anyMatch(matcher -> matcher.matches(relative))) {
+                    result.add(source);
+                    continue;
+                }
+                eligible.computeIfAbsent(extension(source),it -> new ArrayList<>()).add(source);
+            }
+
+            // batches are named by extension, so that sources keep their language
+            for (var entry : eligible.entrySet())
+            {
+                final var batches = balance(entry.getValue(),getUnityBatchSize().get());
+                for (int i = 0; i != batches.size(); ++i)
+                {
+                    final var batch = directory.resolve("unity-%d.%s".formatted(i,entry.getKey()));
+                    writeBatch(batch,batches.get(i));
+                    getLogger().info("{}: unity batch {}: {} sources",getPath(),batch.getFileName(),batches.get(i).size());
+                    result.add(batch.toFile());
+                }
+            }
+            return result;
+        }
+
+        final var batches = readBatches(directory);
+        for (var entry : batches.entrySet())
+        {
+            final var batch = entry.getKey();
+            final var sources = entry.getValue();
+            if (! sources.removeIf(source -> compile.contains(source) || ! source.isFile())) continue;
+            if (sources.isEmpty()) {
+                Files.delete(batch);
+                dependencies.remove(batch.toString());
+                deleteObject(getOutputDirectory().file(objectName(rootDirectory,batch.toFile())).get().getAsFile().toPath());
+                continue;
+            }
+            writeBatch(batch,sources);
+            result.add(batch.toFile());
+        }
+        result.addAll(compile);
+        return result;
+    }
+
+    /**
+     * Balance sources among batches by source size.
+     *
+     * <p>Each source, largest first, is added to the smallest batch; batch count is the source count divided by the batch size.</p>
+     *
+     * @param sources  sources
+     * @param size     batch size
+     * @return         batches, with sources in path order
+     */
+    static List<List<File>> balance (Collection<File> sources, int size)
+    {
+        final var count = (sources.size() + size - 1) / size;
+        final var batches = new ArrayList<List<File>>();
+        final var weights = new long[count];
+        for (int i = 0; i != count; ++i) batches.add(new ArrayList<>());
+
+        final var sorted = new ArrayList<>(sources);
+        sorted.sort((a,b) -> a.length() != b.length() ? Long.compare(b.length(),a.length()) : a.compareTo(b));
+        for (var source : sorted)
+        {
+            var smallest = 0;
+            for (int i = 1; i != count; ++i)
+                if (weights[i] < weights[smallest]) smallest = i;
+            batches.get(smallest).add(source);
+            weights[smallest] += Math.max(source.length(),1);
+        }
+
+        batches.forEach(batch -> batch.sort(File::compareTo));
+        return batches;
+    }
+
+    static String extension (File source)
+    {
+        final var name = source.getName();
+        final var dot = name.lastIndexOf('.');
+        return dot == -1 ? "" : name.substring(dot + 1);
+    }
+
+    static void writeBatch (Path batch, Collection<File> sources) throws IOException
+    {
+        final var lines = new ArrayList<String>();
+        lines.add("// unity batch generated by Gradle Metal");
+        for (var source : sources) {
+            final var path = source.toPath().toAbsolutePath().normalize();
+            final var relative = path.getRoot().equals(batch.getRoot()) ? batch.getParent().relativize(path).toString().replace('\\','/') : path.toString();
+            lines.add("#include \"%s\"".formatted(relative));
+        }
+        Files.write(batch,lines);
+    }
+
+    static Map<Path,List<File>> readBatches (Path directory) throws IOException
+    {
+        final var batches = new TreeMap<Path,List<File>>();
+        if (! Files.isDirectory(directory)) return batches;
+        try (var stream = Files.list(directory))
+        {
+            for (var batch : stream.filter(file -> file.getFileName().toString().startsWith("unity-")).toList())
+            {
+                final var sources = new ArrayList<File>();
+                for (var line : Files.readAllLines(batch)) {
+                    if (! line.startsWith("#include \"")) continue;
+                    final var path = line.substring("#include \"".length(),line.length() - 1);
+                    sources.add(batch.getParent().resolve(path).normalize().toFile());
+                }
+                batches.put(batch,sources);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Write input record and reasons of execution into the explain directory.
+     *
+     * @param record    input record
+     * @param executed  executed units
+     * @throws IOException in case of failure
+     */
+    void explain (MetalInputRecord record, Collection<File> executed) throws IOException
+    {
+        final var units = executed.stream().map(source -> relocate(rootDirectory.toPath(),source.toString())).toList();
+        final var reasons = record.update(
+            getExplainDirectory().get().getAsFile().toPath(),
+            getTemporaryDir().toPath().resolve(MetalInputRecord.FILE_NAME),
+            units
+        );
+        reasons.forEach(reason -> getLogger().info("{}: {}",getPath(),reason));
+    }
+
+    private void submit (WorkQueue workers, List<String> command, File source, Path moduleOutput, Map<File,Path> depfiles) throws IOException
+    {
+        submit(workers,command,source,moduleOutput,depfiles,null,List.of());
+    }
+
+    private void submit (WorkQueue workers, List<String> command, File source, Path moduleOutput, Map<File,Path> depfiles, String schedule, List<File> requires) throws IOException
+    {
+        // depfiles are required to track headers under include roots and to cache objects
+        final var objectCache = getObjectCache().get();
+        final var depfile = getIncludeFiles().isEmpty() && ! objectCache ? null : getTemporaryDir().toPath().resolve(objectName(rootDirectory,source) + ".d");
+        if (depfile != null) Files.deleteIfExists(depfile);
+        depfiles.put(source,depfile);
+        // module files are not preprocessed: precompiled headers do not apply
+        final var sourceCommand = source.getName().endsWith(".pcm") ? withoutPrecompiledHeader(command) : command;
+        workers.submit(CompileAction.class,parameters ->
+        {
+            parameters.getCommand().set(sourceCommand);
+            if (depfile != null) parameters.getDependencyFile().set(depfile.toFile());
+            parameters.getLauncher().set(getLauncherCommand());
+            parameters.getLauncherEnvironment().set(getLauncherEnvironment());
+            if (moduleOutput != null) parameters.getModuleOutput().set(moduleOutput.toFile());
+            final var remote = getMetal().get().getParameters();
+            if (getRemoteExecution().get() && remote.getRemoteEndpoint().isPresent()) {
+                parameters.getRemoteEndpoint().set(remote.getRemoteEndpoint());
+                parameters.getRemoteInstance().set(remote.getRemoteInstance());
+                parameters.getRemoteRoot().set(rootDirectory);
+            }
+            if (objectCache) {
+                parameters.getObjectCacheDirectory().set(getMetal().get().getParameters().getCacheDirectory().dir("objects"));
+                parameters.getObjectCacheRoot().set(rootDirectory);
+                parameters.getObjectCacheSize().set(getMetal().get().getParameters().getObjectCacheSize());
+            }
+            parameters.getObject().set(getOutputDirectory().file(objectName(rootDirectory,source)));
+            if (schedule != null) {
+                parameters.getSchedule().set(schedule);
+                parameters.getScheduleRequires().from(requires);
+            }
+            parameters.getSource().set(source);
+        });
+    }
+
+    /**
+     * Whether to compile many sources per compiler invocation: launchers and remote execution take one source per invocation.
+     *
+     * @return whether to compile many sources per compiler invocation
+     */
+    private boolean multiSource ()
+    {
+        return getMultiSource().get()
+            && getLauncher().get().isEmpty()
+            && ! (getRemoteExecution().get() && getMetal().get().getParameters().getRemoteEndpoint().isPresent());
+    }
+
+    /**
+     * Submit sources in groups, one compiler invocation per group.
+     *
+     * <p>Groups are sized to give each worker one group, up to a maximum group size; sources in a group have distinct file names,
+     * since the compiler names outputs after them. Module files are compiled alone.</p>
+     */
+    private void submitMany (WorkQueue workers, List<String> command, List<File> sources, Map<File,Path> depfiles) throws IOException
+    {
+        final var size = Math.min(MAX_GROUP_SIZE,(sources.size() + getMaxWorkers().get() - 1) / getMaxWorkers().get());
+        final var groups = new ArrayList<List<File>>();
+        for (var source : sources)
+        {
+            if (size <= 1 || source.getName().endsWith(".pcm")) {
+                submit(workers,command,source,null,depfiles);
+                continue;
+            }
+            final var stem = stem(source);
+            var group = groups.stream()
+                .filter(it -> it.size() < size && it.stream().noneMatch(other -> stem(other).equals(stem)))
+                .findFirst()
+                .orElse(null);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(source);
+        }
+
+        final var objectCache = getObjectCache().get();
+        final var tracked = ! getIncludeFiles().isEmpty() || objectCache;
+        for (int i = 0; i != groups.size(); ++i)
+        {
+            final var group = groups.get(i);
+            final var groupDepfiles = new ArrayList<String>();
+            for (var source : group) {
+                final var depfile = tracked ? getTemporaryDir().toPath().resolve(objectName(rootDirectory,source) + ".d") : null;
+                if (depfile != null) {
+                    Files.deleteIfExists(depfile);
+                    groupDepfiles.add(depfile.toString());
+                }
+                depfiles.put(source,depfile);
+            }
+            final var workDirectory = getTemporaryDir().toPath().resolve("multi/%d".formatted(i)).toFile();
+            workers.submit(MultiCompileAction.class,parameters ->
+            {
+                parameters.getCommand().set(command);
+                parameters.getDependencyFiles().set(groupDepfiles);
+                if (objectCache) {
+                    parameters.getObjectCacheDirectory().set(getMetal().get().getParameters().getCacheDirectory().dir("objects"));
+                    parameters.getObjectCacheRoot().set(rootDirectory);
+                    parameters.getObjectCacheSize().set(getMetal().get().getParameters().getObjectCacheSize());
+                }
+                parameters.getObjects().set(group.stream().map(source -> getOutputDirectory().file(objectName(rootDirectory,source)).get().getAsFile().toString()).toList());
+                parameters.getSources().set(group.stream().map(File::toString).toList());
+                parameters.getWorkDirectory().set(workDirectory);
             });
+        }
+    }
+
+    static final int MAX_GROUP_SIZE = 64;
+
+    private static String stem (File source)
+    {
+        final var name = source.getName();
+        final var dot = name.lastIndexOf('.');
+        return dot == -1 ? name : name.substring(0,dot);
+    }
+
+    static List<String> withoutPrecompiledHeader (List<String> command)
+    {
+        final var list = new ArrayList<String>();
+        for (int i = 0; i != command.size(); ++i) {
+            if (command.get(i).equals("-include-pch")) ++i;
+            else list.add(command.get(i));
+        }
+        return list;
+    }
+
+    static void deleteObject (Path object)
+    {
+        try
+        {
+            Files.deleteIfExists(object);
+            try (var siblings = Files.list(object.getParent())) {
+                if (siblings.findAny().isEmpty()) Files.delete(object.getParent());
+            }
+        }
+        catch (NoSuchFileException ignored) { }
+        catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    /**
+     * Object file name for source file, relative to the output directory.
+     *
+     * <p>Sources under the root directory are named by their path relative to it,
+     * so that object file names do not depend on the location of the checkout.</p>
+     *
+     * @param root    root directory
+     * @param source  source file
+     * @return        object file name
+     */
+    static String objectName (File root, File source)
+    {
+        return "%X/%s.%s".formatted(hash(relocate(root.toPath(),source.toString())),source.getName(),"o");
+    }
+
+    /**
+     * Path relative to the root directory, if under it.
+     *
+     * @param root  root directory
+     * @param path  path
+     * @return      relative path, with forward slashes, or path
+     */
+    static String relocate (Path root, String path)
+    {
+        final var file = Path.of(path).toAbsolutePath().normalize();
+        return file.startsWith(root) ? root.relativize(file).toString().replace('\\','/') : path;
+    }
+
+    /**
+     * Paths relative to the root directory, if under it.
+     *
+     * <p>Path inputs are declared in this form, so that task cache keys do not depend on the location of the checkout.</p>
+     *
+     * @param paths  paths
+     * @return       relative paths, or paths
+     */
+    List<String> relocate (List<String> paths)
+    {
+        return paths.stream().map(path -> relocate(rootDirectory.toPath(),path)).toList();
+    }
+
+    /**
+     * Compiler arguments mapping the root directory to the current directory.
+     *
+     * <p>Debug information, <code>__FILE__</code> expansions and the compilation directory are written relative to the root directory,
+     * so that objects do not depend on the location of the checkout.</p>
+     *
+     * @return arguments
+     */
+    List<String> relocationArguments ()
+    {
+        return List.of("-ffile-prefix-map=%s=.".formatted(rootDirectory),"-fdebug-compilation-dir=.");
+    }
+
+    /**
+     * Module file name for module name, relative to the output directory.
+     *
+     * @param module  module name
+     * @return        module file name
+     */
+    static String moduleFileName (String module)
+    {
+        return module.replace(":","-") + ".pcm";
+    }
+
+    /**
+     * Module files in import directories.
+     *
+     * <p>Module names derive from module file names. Modules found in earlier directories take precedence.</p>
+     *
+     * @param importPath  import directories
+     * @return            module files, by module name
+     * @throws IOException in case of failure
+     */
+    static Map<String,Path> importModules (Collection<String> importPath) throws IOException
+    {
+        final var modules = new TreeMap<String,Path>();
+        for (var directory : importPath)
+        {
+            final var path = Path.of(directory);
+            if (! Files.isDirectory(path)) continue;
+            try (var stream = Files.list(path)) {
+                for (var file : stream.toList()) {
+                    final var fileName = file.getFileName().toString();
+                    if (! fileName.endsWith(".pcm") || ! Files.isRegularFile(file)) continue;
+                    final var module = fileName.substring(0,fileName.length() - 4).replace("-",":");
+                    modules.putIfAbsent(module,file);
+                }
+            }
+        }
+        return modules;
+    }
+
+    /**
+     * Compiler arguments for header unit module files in header unit directories.
+     *
+     * @param headerUnitPath  header unit directories
+     * @return                compiler arguments
+     * @throws IOException in case of failure
+     */
+    static List<String> headerUnitArguments (Collection<String> headerUnitPath) throws IOException
+    {
+        final var files = new TreeSet<Path>();
+        for (var directory : headerUnitPath)
+        {
+            final var path = Path.of(directory);
+            if (! Files.isDirectory(path)) continue;
+            try (var stream = Files.walk(path)) {
+                stream.filter(file -> file.getFileName().toString().endsWith(".pcm") && Files.isRegularFile(file)).forEach(files::add);
+            }
+        }
+        final var arguments = new ArrayList<String>();
+        files.forEach(file -> arguments.add("-fmodule-file=%s".formatted(file)));
+        return arguments;
+    }
+
+    /**
+     * Compiler arguments mapping standard library module names to module files.
+     *
+     * @return compiler arguments
+     */
+    List<String> standardModuleArguments ()
+    {
+        final var arguments = new ArrayList<String>();
+        getMetal().get().getStandardModules(getCompiler().get(),getTarget().get(),getOptions().get())
+            .forEach((module,file) -> arguments.add("-fmodule-file=%s=%s".formatted(module,file)));
+        return arguments;
+    }
+
+    /**
+     * Launcher command, with the launcher tool located.
+     *
+     * @return launcher command, or empty
+     */
+    @Internal
+    Provider<List<String>> getLauncherCommand ()
+    {
+        return getLauncher().map(launcher -> {
+            if (launcher.isEmpty()) return launcher;
+            final var list = new ArrayList<String>();
+            list.add(getMetal().get().locateTool(launcher.get(0)).toString());
+            list.addAll(launcher.subList(1,launcher.size()));
+            return list;
         });
     }
 
+    /**
+     * Module file compatibility key for this task's compiler command.
+     *
+     * @return compatibility key
+     */
+    String moduleCompatibility ()
+    {
+        return getCompatibility("c++").get();
+    }
+
+    /**
+     * Precompiled artifacts compatibility key for this task's compiler command.
+     *
+     * @param language  source language: <code>c</code> or <code>c++</code>
+     * @return          provider
+     */
+    Provider<String> getCompatibility (String language)
+    {
+        return getMetal().zip(getCompiler(),(metal,compiler) ->
+            metal.getModuleCompatibility(compiler,language,getTarget().get(),getOptions().get())
+        );
+    }
+
+    /**
+     * Module files in import directories, compatible with this task's compiler command.
+     *
+     * <p>Import directories with a module manifest of a different compatibility key are replaced by module files
+     * precompiled from the module interface sources in the manifest with this task's compiler command;
+     * other import directories are used as they are.</p>
+     *
+     * @param importPath  import directories
+     * @return            module files, by module name
+     * @throws IOException in case of failure
+     */
+    Map<String,Path> resolveImports (Collection<String> importPath) throws IOException
+    {
+        String compatibility = null;
+        final var compatible = new ArrayList<String>();
+        final var incompatible = new LinkedHashMap<Path,MetalModuleManifest>();
+        for (var directory : importPath)
+        {
+            final var manifestFile = Path.of(directory).resolve(MetalModuleManifest.FILE_NAME);
+            if (Files.isRegularFile(manifestFile)) {
+                final var manifest = MetalModuleManifest.read(manifestFile);
+                if (compatibility == null) compatibility = moduleCompatibility();
+                if (! manifest.compatibility().equals(compatibility)) {
+                    incompatible.put(manifestFile,manifest);
+                    continue;
+                }
+            }
+            compatible.add(directory);
+        }
+
+        final var modules = new TreeMap<>(importModules(compatible));
+
+        // precompile manifests after manifests providing their requires
+        while (! incompatible.isEmpty())
+        {
+            final var pending = new HashSet<String>();
+            incompatible.values().forEach(manifest -> manifest.modules().forEach(module -> pending.add(module.name())));
+            final var next = incompatible.entrySet().stream()
+                .filter(entry -> entry.getValue().modules().stream().allMatch(module ->
+                    module.requires().stream().noneMatch(required ->
+                        pending.contains(required) && entry.getValue().modules().stream().noneMatch(it -> it.name().equals(required))
+                    )
+                ))
+                .findFirst()
+                .orElseThrow(() -> new GradleException("module manifest dependency cycle: " + incompatible.keySet()));
+            incompatible.remove(next.getKey());
+
+            final var imports = new TreeMap<String,File>();
+            modules.forEach((name,file) -> imports.put(name,file.toFile()));
+            getMetal().get().getPortableModules(getCompiler().get(),getTarget().get(),getOptions().get(),next.getKey().toFile(),imports)
+                .forEach((name,file) -> modules.putIfAbsent(name,file.toPath()));
+        }
+
+        return modules;
+    }
+
+    /**
+     * Compiler arguments mapping module names to module files.
+     *
+     * <p>Module files are mapped explicitly, sparing the compiler a directory search per import;
+     * import directories not yet built, as when generating compilation databases, are added as prebuilt module paths.</p>
+     *
+     * @param importPath  import directories
+     * @param imports     module files, by module name
+     * @return            compiler arguments
+     */
+    static List<String> importArguments (Collection<String> importPath, Map<String,Path> imports)
+    {
+        final var arguments = new ArrayList<String>();
+        for (var directory : importPath) {
+            if (! Files.isDirectory(Path.of(directory)))
+                arguments.add("-fprebuilt-module-path=%s".formatted(directory));
+        }
+        imports.forEach((module,file) -> arguments.add("-fmodule-file=%s=%s".formatted(module,file)));
+        return arguments;
+    }
+
     // see: https://en.wikipedia.org/wiki/Fowler–Noll–Vo_hash_function
 
     static final int FNV_OFFSET_32 = 0x811c9dc5;
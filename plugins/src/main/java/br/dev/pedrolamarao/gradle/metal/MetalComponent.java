@@ -2,6 +2,8 @@ package br.dev.pedrolamarao.gradle.metal;
 
 import org.gradle.api.NonNullApi;
 import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.util.PatternFilterable;
@@ -19,6 +21,79 @@ public interface MetalComponent extends PatternFilterable
      */
     ListProperty<String> getCompileOptions ();
 
+    /**
+     * Whether to compile implementation units together with module interfaces.
+     *
+     * <p>Each implementation unit is compiled as soon as the module interfaces it imports are precompiled,
+     * instead of after all module interfaces are precompiled. Implies single pass module interfaces. Default is false.</p>
+     *
+     * @return property
+     */
+    Property<Boolean> getCombinedModules ();
+
+    /**
+     * Header units.
+     *
+     * <p>System headers are declared between angle brackets, as in <code>&lt;vector&gt;</code>;
+     * user headers are declared without, as in <code>foo.h</code>, and found in the include path.</p>
+     *
+     * @return property
+     */
+    ListProperty<String> getHeaderUnits ();
+
+    /**
+     * Whether to import standard library modules.
+     *
+     * <p>Requires libc++. Default is false.</p>
+     *
+     * @return property
+     */
+    Property<Boolean> getImportStd ();
+
+    /**
+     * Compiler launcher command, such as <code>ccache</code>, <code>sccache</code> or <code>distcc</code>.
+     *
+     * @return property
+     */
+    ListProperty<String> getLauncher ();
+
+    /**
+     * Compiler launcher environment.
+     *
+     * @return property
+     */
+    MapProperty<String,String> getLauncherEnvironment ();
+
+    /**
+     * Whether to compile many sources per compiler invocation.
+     *
+     * <p>Sources without module dependencies are compiled in groups, sparing process start-up for each source;
+     * groups are sized to spread sources among available workers. Default is false.</p>
+     *
+     * @return property
+     */
+    Property<Boolean> getMultiSource ();
+
+    /**
+     * Precompiled header.
+     *
+     * <p>The header is found in the include path, as in include directives, and precompiled once per language and target;
+     * sources are compiled with the precompiled header included before their first line. Default is none.</p>
+     *
+     * @return property
+     */
+    Property<String> getPrecompiledHeader ();
+
+    /**
+     * Whether to compile module interfaces in a single pass.
+     *
+     * <p>A single compiler invocation produces both the module file and the object file of each module interface,
+     * instead of compiling precompiled modules again into object files. Default is false.</p>
+     *
+     * @return property
+     */
+    Property<Boolean> getSinglePassModules ();
+
     /**
      * Build target.
      *
@@ -34,4 +109,23 @@ public interface MetalComponent extends PatternFilterable
      * @return property
      */
     SetProperty<String> getTargets ();
+
+    /**
+     * Unity build batch size.
+     *
+     * <p>If greater than one, C and C++ sources are compiled in batches of about this many sources, balanced by source size;
+     * sources changed since the last full build are compiled alone. Default is zero.</p>
+     *
+     * @return property
+     */
+    Property<Integer> getUnityBatchSize ();
+
+    /**
+     * Unity build exclusions.
+     *
+     * <p>Sources matching these glob patterns, relative to the root directory, are compiled alone.</p>
+     *
+     * @return property
+     */
+    ListProperty<String> getUnityExcludes ();
 }
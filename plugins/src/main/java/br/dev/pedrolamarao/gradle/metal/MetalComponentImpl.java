@@ -1,10 +1,14 @@
 package br.dev.pedrolamarao.gradle.metal;
 
 import groovy.lang.Closure;
+import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
 import org.gradle.api.services.ServiceReference;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.util.PatternFilterable;
@@ -22,6 +26,11 @@ abstract class MetalComponentImpl implements MetalComponent
     public MetalComponentImpl ()
     {
         patternSet = getPatternSetFactory().create();
+        getCombinedModules().convention(false);
+        getImportStd().convention(false);
+        getMultiSource().convention(false);
+        getSinglePassModules().convention(false);
+        getUnityBatchSize().convention(0);
     }
 
     @ServiceReference
@@ -30,6 +39,12 @@ abstract class MetalComponentImpl implements MetalComponent
     @Inject
     protected abstract Factory<PatternSet> getPatternSetFactory ();
 
+    @Inject
+    protected abstract ProjectLayout getLayout ();
+
+    @Inject
+    protected abstract ProviderFactory getProviders ();
+
     /**
      * Compiled object files
      *
@@ -44,6 +59,28 @@ abstract class MetalComponentImpl implements MetalComponent
      */
     public abstract ConfigurableFileCollection getCommandFiles ();
 
+    /**
+     * Precompiled header published by dependencies, compatible with this component.
+     *
+     * <p>Dependencies without a compatible precompiled header are ignored; if many are compatible, the first is used.</p>
+     *
+     * @param dependencies   precompiled dependencies configuration
+     * @param compatibility  compatibility key of the consuming task's compiler command
+     * @return               provider
+     */
+    Provider<RegularFile> getPrecompiledDependency (Provider<Configuration> dependencies, Provider<String> compatibility)
+    {
+        final var files = dependencies.flatMap(configuration -> {
+            if (configuration.getAllDependencies().isEmpty()) return getProviders().provider(() -> null);
+            return configuration.getIncoming().artifactView(view -> {
+                view.lenient(true);
+                view.attributes(it -> it.attributeProvider(MetalCompatibility.ATTRIBUTE,compatibility));
+            })
+            .getFiles().getElements();
+        });
+        return getLayout().file(files.map(it -> it.isEmpty() ? null : it.iterator().next().getAsFile()));
+    }
+
     // MetalComponent
 
     @Override
@@ -2,14 +2,35 @@
 
 package br.dev.pedrolamarao.gradle.metal;
 
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.internal.file.FileOperations;
 import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.InputChanges;
 
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import static br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile.includeDigest;
+import static br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile.lookupScans;
+import static br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile.scanKey;
+import static br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile.storeScans;
 
 /**
  * Gradle Metal C++ compile task.
@@ -17,52 +38,216 @@ import java.util.List;
 @CacheableTask
 public abstract class MetalCxxCompile extends MetalCompileImpl
 {
+    /**
+     * Whether to cache scan results across builds.
+     *
+     * <p>Scan results are keyed by source content, scan arguments, compiler version and content of include files. Default is true.</p>
+     *
+     * @return property
+     */
+    @Internal
+    public abstract Property<Boolean> getCacheScan ();
+
+    /**
+     * Compiler header unit path.
+     *
+     * @return property
+     */
+    @Internal
+    public abstract ListProperty<String> getHeaderUnitPath ();
+
     /**
      * Compiler import path.
      *
      * @return property
      */
-    @Input
+    @Internal
     public abstract ListProperty<String> getImportPath ();
 
     /**
-     * Compiler include path.
+     * Whether to import standard library modules.
+     *
+     * <p>Standard library modules are precompiled once per build and cached among builds. Requires libc++. Default is false.</p>
      *
      * @return property
      */
     @Input
+    public abstract Property<Boolean> getImportStd ();
+
+    /**
+     * Compiler include path.
+     *
+     * @return property
+     */
+    @Internal
     public abstract ListProperty<String> getIncludePath ();
 
+    /**
+     * Precompiled header file.
+     *
+     * <p>The precompiled header is included before the first line of each source.</p>
+     *
+     * @return property
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getPrecompiledHeaderFile ();
+
+    /**
+     * Whether to scan sources for module dependencies.
+     *
+     * <p>Sources importing changed module files are compiled again;
+     * implementation partitions are compiled before the sources importing them.
+     * Default is to scan if the import path holds module files or standard library modules are imported.</p>
+     *
+     * @return property
+     */
+    @Input
+    @Optional
+    public abstract Property<Boolean> getScanModules ();
+
+    /**
+     * FileOperations service.
+     *
+     * @return property
+     */
+    @Inject
+    protected abstract FileOperations getFiles ();
+
     /**
      * Constructor.
      */
     public MetalCxxCompile ()
     {
+        final var name = getName();
+        final var buildDirectory = getProject().getLayout().getBuildDirectory();
+        getCacheScan().convention(true);
         getCompiler().convention("clang++");
+        getImportStd().convention(false);
+        getIncludeFiles().from(getHeaderUnitPath());
+        getIncludeFiles().from(getIncludePath());
+        getIncludeFiles().from(getImportPath());
+        getModuleDirectory().convention(
+            buildDirectory.zip(getTarget(),(dir,target) -> dir.dir("bmi/%s/%s".formatted(name,target)))
+        );
+    }
+
+    /**
+     * Compiler header unit path, relative to the root directory where possible.
+     *
+     * @return provider
+     */
+    @Input
+    protected Provider<List<String>> getRelocatedHeaderUnitPath ()
+    {
+        return getHeaderUnitPath().map(this::relocate);
+    }
+
+    /**
+     * Compiler import path, relative to the root directory where possible.
+     *
+     * @return provider
+     */
+    @Input
+    protected Provider<List<String>> getRelocatedImportPath ()
+    {
+        return getImportPath().map(this::relocate);
+    }
+
+    /**
+     * Compiler include path, relative to the root directory where possible.
+     *
+     * @return provider
+     */
+    @Input
+    protected Provider<List<String>> getRelocatedIncludePath ()
+    {
+        return getIncludePath().map(this::relocate);
     }
 
     @Override
     Provider<List<String>> getCommand ()
     {
-        return getProviders().provider(() ->
-        {
-            final var list = new ArrayList<String>();
-            list.add(getMetal().get().locateTool(getCompiler().get()).toString());
-            list.add("--target=%s".formatted(getTarget().get()));
-            list.addAll(getOptions().get());
-            getImportPath().get().forEach(path -> list.add("-fprebuilt-module-path=%s".formatted(path)));
-            getIncludePath().get().forEach(path -> list.add("--include-directory=%s".formatted(path)));
-            list.add("--compile");
-            return list;
+        return getProviders().provider(() -> command(importModules(getImportPath().get())));
+    }
+
+    @Override
+    List<String> command (Map<String,Path> imports) throws IOException
+    {
+        final var list = new ArrayList<String>();
+        list.add(getMetal().get().locateTool(getCompiler().get()).toString());
+        list.add("--target=%s".formatted(getTarget().get()));
+        list.addAll(getOptions().get());
+        list.addAll(relocationArguments());
+        list.addAll(importArguments(getImportPath().get(),imports));
+        if (getImportStd().get()) list.addAll(standardModuleArguments());
+        list.addAll(headerUnitArguments(getHeaderUnitPath().get()));
+        if (getPrecompiledHeaderFile().isPresent()) {
+            list.add("-include-pch");
+            list.add(getPrecompiledHeaderFile().get().getAsFile().toString());
+        }
+        getIncludePath().get().forEach(path -> list.add("--include-directory=%s".formatted(path)));
+        list.add("--compile");
+        return list;
+    }
+
+    @Override
+    Map<String,Path> importModules () throws IOException
+    {
+        return resolveImports(getImportPath().get());
+    }
+
+    @Override
+    Map<File,MetalIxxModule> scanModules (Collection<File> sources, List<String> command, Map<String,Path> imports) throws IOException
+    {
+        // module files are compiled into objects and import nothing of their own
+        final var scanSources = sources.stream().filter(source -> ! source.getName().endsWith(".pcm")).toList();
+        if (scanSources.isEmpty()) return Map.of();
+        // sources cannot depend on modules if there are no modules to import
+        if (! getScanModules().getOrElse(getImportStd().get() || ! imports.isEmpty())) return Map.of();
+
+        final var temporaryDirectory = getTemporaryDir().toPath();
+        final var scanDirectory = temporaryDirectory.resolve("scan");
+        final var cacheDirectory = temporaryDirectory.resolve("cache");
+        getFiles().delete(scanDirectory);
+
+        final var cache = getCacheScan().get();
+        final var cacheFiles = new LinkedHashMap<File,Path>();
+        final var toolVersion = getMetal().get().getToolVersion(getCompiler().get());
+        final var includeDigest = cache ? includeDigest(getFiles().configurableFiles(getHeaderUnitPath(),getIncludePath()).getAsFileTree().getFiles()) : "";
+        final var scan = lookupScans(scanSources,scanKey(toolVersion,command,includeDigest),cache,cacheDirectory,cacheFiles);
+
+        if (! scan.isEmpty()) {
+            // scan with compiler arguments, so that scans see the same target, imports and macros
+            final var workers = getWorkers().noIsolation();
+            workers.submit(MetalIxxPrecompile.BatchScanAction.class,parameter -> {
+                parameter.getDatabase().set(scanDirectory.resolve("compile_commands.json").toFile());
+                parameter.getJobs().set(getMaxWorkers());
+                parameter.getOptions().set(command);
+                parameter.getOutputDirectory().set(scanDirectory.toFile());
+                parameter.getSources().from(scan);
+            });
+            workers.await();
+        }
+
+        // sources without module dependencies are omitted: they compile as plain sources, such as in unity batches
+        final var modules = new LinkedHashMap<File,MetalIxxModule>();
+        storeScans(scan,scanDirectory,cacheDirectory,cacheFiles).forEach((source,module) -> {
+            if (! module.provides().isEmpty() || ! module.requires().isEmpty()) modules.put(source,module);
         });
+        return modules;
     }
 
     /**
      * Compile action.
+     *
+     * @param changes  input changes
+     * @throws IOException in case of failure
      */
     @TaskAction
-    public void compile ()
+    public void compile (InputChanges changes) throws IOException
     {
-        super.compile();
+        super.compile(changes);
     }
 }
@@ -5,9 +5,11 @@ package br.dev.pedrolamarao.gradle.metal;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.file.Directory;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 /**
  * Gradle Metal C++ language plugin.
@@ -30,6 +32,7 @@ public class MetalCxxPlugin implements Plugin<Project>
         {
             final var library = (MetalLibraryImpl) extensions.getByType(MetalLibrary.class);
             registerMain(project,library);
+            registerPrecompiledElements(project,library);
 
             final var test = (MetalApplicationImpl) extensions.getByType(MetalApplication.class);
             registerTest(project,test);
@@ -50,19 +53,72 @@ public class MetalCxxPlugin implements Plugin<Project>
 
         final var importDependencies = configurations.named(Metal.IMPORTABLE_DEPENDENCIES);
         final var includeDependencies = configurations.named(Metal.INCLUDABLE_DEPENDENCIES);
+        final var precompiledDependencies = configurations.named(Metal.PRECOMPILED_DEPENDENCIES);
 
         final var importPath = importDependencies.map(it -> {
-            final var list = new HashSet<String>();
+            final var list = new LinkedHashSet<String>();
             it.getElements().get().forEach(element -> list.add(element.toString()));
             return list;
         });
         final var includePath = includeDependencies.map(it -> {
-            final var list = new HashSet<String>();
+            final var list = new LinkedHashSet<String>();
             list.add(projectDirectory.dir("src/main/cpp").toString());
             it.getElements().get().forEach(element -> list.add(element.toString()));
             return list;
         });
 
+        final var headerUnitsTask = tasks.register("precompileHeaderUnits",MetalHeaderUnitPrecompile.class,task ->
+        {
+            final var condition = component.getTargets().zip(task.getTarget(),
+                (allowed,target) -> allowed.isEmpty() || allowed.contains(target)
+            );
+            final var output = task.getProject().getLayout().getBuildDirectory().dir(
+                task.getTarget().map("bmi/main/hu/%s"::formatted)
+            );
+
+            task.dependsOn(
+                includeDependencies.map(Configuration::getBuildDependencies)
+            );
+            task.getHeaderUnits().convention(component.getHeaderUnits());
+            task.getIncludePath().convention(includePath);
+            task.getOptions().convention(component.getCompileOptions());
+            task.getOutputDirectory().convention(output);
+            task.getTarget().convention(component.getTarget());
+
+            task.onlyIf("target is enabled",it -> condition.get());
+        });
+        // without header units, the task is skipped: module files of previous executions are not used
+        final var headerUnitPath = headerUnitsTask.flatMap(task ->
+            task.getHeaderUnits().zip(task.getOutputDirectory(),(units,directory) -> units.isEmpty() ? List.<String>of() : List.of(directory.getAsFile().toString()))
+        );
+
+        final var headerTask = tasks.register("precompileHeaderCxx",MetalHeaderPrecompile.class,task ->
+        {
+            final var condition = component.getTargets().zip(task.getTarget(),
+                (allowed,target) -> allowed.isEmpty() || allowed.contains(target)
+            );
+            final var enabled = component.getPrecompiledHeader().map(header -> true).orElse(false);
+            final var output = task.getProject().getLayout().getBuildDirectory().file(
+                task.getTarget().map("pch/main/cxx/%s/header.pch"::formatted)
+            );
+
+            task.dependsOn(
+                includeDependencies.map(Configuration::getBuildDependencies)
+            );
+            task.getHeader().convention(component.getPrecompiledHeader());
+            task.getIncludePath().convention(includePath);
+            task.getLanguage().convention("c++");
+            task.getOptions().convention(component.getCompileOptions());
+            task.getOutput().convention(output);
+            task.getPrecompiledHeaderFile().convention(component.getPrecompiledDependency(precompiledDependencies,task.getCompatibility()));
+            task.getTarget().convention(component.getTarget());
+
+            task.onlyIf("precompiled header is enabled",it -> enabled.get());
+            task.onlyIf("target is enabled",it -> condition.get());
+        });
+        final var precompiledHeader = component.getPrecompiledHeader().flatMap(header -> headerTask.flatMap(MetalHeaderPrecompile::getOutput));
+
+        final var singlePass = component.getSinglePassModules().zip(component.getCombinedModules(),(a,b) -> a || b);
         final var precompileTask = tasks.register("precompileIxx",MetalIxxPrecompile.class,task ->
         {
             final var condition = component.getTargets().zip(task.getTarget(),
@@ -71,15 +127,35 @@ public class MetalCxxPlugin implements Plugin<Project>
             final var output = task.getProject().getLayout().getBuildDirectory().dir(
                 task.getTarget().map("bmi/main/ixx/%s"::formatted)
             );
+            final var objectOutput = task.getProject().getLayout().getBuildDirectory().dir(
+                task.getTarget().map("obj/main/ixx/%s"::formatted)
+            );
             final var source = task.getProject().getLayout().getProjectDirectory().dir("src/main/ixx");
+            final var implementationSource = task.getProject().getLayout().getProjectDirectory().dir("src/main/cxx")
+                .getAsFileTree()
+                .matching(it -> {
+                    it.exclude(component.getExcludes());
+                    it.include(component.getIncludes());
+                });
 
             task.dependsOn(
                 includeDependencies.map(Configuration::getBuildDependencies),
                 importDependencies.map(Configuration::getBuildDependencies)
             );
+            task.getImplementationSource().from(component.getCombinedModules().map(enabled ->
+                enabled ? List.<Object>of(implementationSource) : List.<Object>of()
+            ));
+            task.dependsOn(headerUnitsTask);
+            task.getHeaderUnitPath().addAll(headerUnitPath);
             task.getImportPath().convention(importPath);
+            task.getImportStd().convention(component.getImportStd());
             task.getIncludePath().convention(includePath);
+            task.getObjectDirectory().convention(singlePass.flatMap(enabled ->
+                enabled ? objectOutput : task.getProject().<Directory>provider(() -> null)
+            ));
             task.getOutputDirectory().convention(output);
+            task.getLauncher().convention(component.getLauncher());
+            task.getLauncherEnvironment().convention(component.getLauncherEnvironment());
             task.getOptions().convention(component.getCompileOptions());
             task.setSource(source);
             task.getTarget().convention(component.getTarget());
@@ -89,7 +165,7 @@ public class MetalCxxPlugin implements Plugin<Project>
             task.onlyIf("target is enabled",it -> condition.get());
         });
         importableElements.configure(it ->
-            it.getOutgoing().artifact(precompileTask)
+            it.getOutgoing().artifact(precompileTask.flatMap(MetalCompile::getOutputDirectory))
         );
 
         final var precommandsTask = tasks.register("precompileIxxCommands",MetalCompileCommands.class,task ->
@@ -119,8 +195,9 @@ public class MetalCxxPlugin implements Plugin<Project>
         });
 
         final var compileSources = objects.fileCollection();
-        compileSources.from(layout.getProjectDirectory().dir("src/main/cxx"));
-        compileSources.from(precompileTask);
+        compileSources.from(precompileTask.map(it -> implementationSources(it,projectDirectory.dir("src/main/cxx"))));
+        compileSources.from(precompileTask.map(MetalCxxPlugin::precompiledSources));
+        component.getObjectFiles().from(precompileTask.map(MetalCxxPlugin::precompiledObjects));
 
         final var compileTask = tasks.register("compileCxx",MetalCxxCompile.class,task ->
         {
@@ -131,18 +208,27 @@ public class MetalCxxPlugin implements Plugin<Project>
                 task.getTarget().map("obj/main/cxx/%s"::formatted)
             );
 
+            task.dependsOn(headerUnitsTask);
+            task.getHeaderUnitPath().addAll(headerUnitPath);
             task.getImportPath().convention(compileImports);
+            task.getImportStd().convention(component.getImportStd());
             task.getIncludePath().convention(includePath);
             task.getOutputDirectory().convention(output);
+            task.getLauncher().convention(component.getLauncher());
+            task.getLauncherEnvironment().convention(component.getLauncherEnvironment());
+            task.getMultiSource().convention(component.getMultiSource());
             task.getOptions().convention(component.getCompileOptions());
+            task.getPrecompiledHeaderFile().convention(precompiledHeader.orElse(component.getPrecompiledDependency(precompiledDependencies,task.getCompatibility("c++"))));
             task.setSource(compileSources);
             task.getTarget().convention(component.getTarget());
+            task.getUnityBatchSize().convention(component.getUnityBatchSize());
+            task.getUnityExcludes().convention(component.getUnityExcludes());
 
             task.exclude(component.getExcludes());
             task.include(component.getIncludes());
             task.onlyIf("target is enabled",it -> condition.get());
         });
-        component.getObjectFiles().from(compileTask);
+        component.getObjectFiles().from(compileTask.flatMap(MetalCompile::getOutputDirectory));
 
         final var commandsTask = tasks.register("compileCxxCommands",MetalCompileCommands.class,task ->
         {
@@ -154,7 +240,8 @@ public class MetalCxxPlugin implements Plugin<Project>
             task.getCompileDirectory().convention(compileTask.flatMap(it -> it.getOutputDirectory().getAsFile()));
             task.getDirectory().convention(task.getProject().getProjectDir());
             task.getOutput().convention(output);
-            task.setSource(compileSources);
+            task.setSource(projectDirectory.dir("src/main/cxx"));
+            task.source(precompileTask.map(MetalCxxPlugin::precompiledSources));
             task.getTarget().convention(component.getTarget());
 
             task.exclude(component.getExcludes());
@@ -164,6 +251,28 @@ public class MetalCxxPlugin implements Plugin<Project>
         commandsElements.configure(it -> it.getOutgoing().artifact(commandsTask));
     }
 
+    private static void registerPrecompiledElements (Project project, MetalComponentImpl component)
+    {
+        final var headerTask = project.getTasks().named("precompileHeaderCxx",MetalHeaderPrecompile.class);
+
+        // consumers never match the incompatible key: disabled precompiled headers are not published
+        final var enabled = component.getTargets().zip(component.getTarget(),
+            (allowed,target) -> allowed.isEmpty() || allowed.contains(target)
+        );
+        final var compatibility = component.getPrecompiledHeader()
+            .zip(enabled,(header,allowed) -> allowed)
+            .filter(allowed -> allowed)
+            .flatMap(allowed -> headerTask.flatMap(MetalHeaderPrecompile::getCompatibility))
+            .orElse(MetalCompatibility.NONE);
+
+        project.getConfigurations().named(Metal.PRECOMPILED_ELEMENTS).configure(configuration ->
+            configuration.getOutgoing().getVariants().create("cxx",variant -> {
+                variant.attributes(it -> it.attributeProvider(MetalCompatibility.ATTRIBUTE,compatibility));
+                variant.artifact(headerTask.flatMap(MetalHeaderPrecompile::getOutput));
+            })
+        );
+    }
+
     private static void registerTest (Project project, MetalComponentImpl component)
     {
         final var configurations = project.getConfigurations();
@@ -176,21 +285,74 @@ public class MetalCxxPlugin implements Plugin<Project>
         final var commandsElements = configurations.named(Metal.COMMANDS_ELEMENTS);
         final var importDependencies = configurations.named("testImportDependencies");
         final var includeDependencies = configurations.named("testIncludeDependencies");
+        final var precompiledDependencies = configurations.named("testPrecompiledDependencies");
 
         final var importPath = importDependencies.map(it -> {
-            final var list = new HashSet<String>();
+            final var list = new LinkedHashSet<String>();
             list.add(tasks.named("precompileIxx",MetalIxxPrecompile.class).get().getOutputDirectory().get().toString());
             it.getElements().get().forEach(element -> list.add(element.toString()));
             return list;
         });
         final var includePath = includeDependencies.map(it -> {
-            final var list = new HashSet<String>();
+            final var list = new LinkedHashSet<String>();
             list.add(projectDirectory.dir("src/main/cpp").toString());
             list.add(projectDirectory.dir("src/test/cpp").toString());
             it.getElements().get().forEach(element -> list.add(element.toString()));
             return list;
         });
 
+        final var headerUnitsTask = tasks.register("precompileTestHeaderUnits",MetalHeaderUnitPrecompile.class,task ->
+        {
+            final var condition = component.getTargets().zip(task.getTarget(),
+                (allowed,target) -> allowed.isEmpty() || allowed.contains(target)
+            );
+            final var output = task.getProject().getLayout().getBuildDirectory().dir(
+                task.getTarget().map("bmi/test/hu/%s"::formatted)
+            );
+
+            task.dependsOn(
+                includeDependencies.map(Configuration::getBuildDependencies)
+            );
+            task.getHeaderUnits().convention(component.getHeaderUnits());
+            task.getIncludePath().convention(includePath);
+            task.getOptions().convention(component.getCompileOptions());
+            task.getOutputDirectory().convention(output);
+            task.getTarget().convention(component.getTarget());
+
+            task.onlyIf("target is enabled",it -> condition.get());
+        });
+        // without header units, the task is skipped: module files of previous executions are not used
+        final var headerUnitPath = headerUnitsTask.flatMap(task ->
+            task.getHeaderUnits().zip(task.getOutputDirectory(),(units,directory) -> units.isEmpty() ? List.<String>of() : List.of(directory.getAsFile().toString()))
+        );
+
+        final var headerTask = tasks.register("precompileTestHeaderCxx",MetalHeaderPrecompile.class,task ->
+        {
+            final var condition = component.getTargets().zip(task.getTarget(),
+                (allowed,target) -> allowed.isEmpty() || allowed.contains(target)
+            );
+            final var enabled = component.getPrecompiledHeader().map(header -> true).orElse(false);
+            final var output = task.getProject().getLayout().getBuildDirectory().file(
+                task.getTarget().map("pch/test/cxx/%s/header.pch"::formatted)
+            );
+
+            task.dependsOn(
+                includeDependencies.map(Configuration::getBuildDependencies)
+            );
+            task.getHeader().convention(component.getPrecompiledHeader());
+            task.getIncludePath().convention(includePath);
+            task.getLanguage().convention("c++");
+            task.getOptions().convention(component.getCompileOptions());
+            task.getOutput().convention(output);
+            task.getPrecompiledHeaderFile().convention(component.getPrecompiledDependency(precompiledDependencies,task.getCompatibility()));
+            task.getTarget().convention(component.getTarget());
+
+            task.onlyIf("precompiled header is enabled",it -> enabled.get());
+            task.onlyIf("target is enabled",it -> condition.get());
+        });
+        final var precompiledHeader = component.getPrecompiledHeader().flatMap(header -> headerTask.flatMap(MetalHeaderPrecompile::getOutput));
+
+        final var singlePass = component.getSinglePassModules().zip(component.getCombinedModules(),(a,b) -> a || b);
         final var precompileTask = tasks.register("precompileTestIxx",MetalIxxPrecompile.class,task ->
         {
             final var condition = component.getTargets().zip(task.getTarget(),
@@ -199,15 +361,35 @@ public class MetalCxxPlugin implements Plugin<Project>
             final var output = task.getProject().getLayout().getBuildDirectory().dir(
                 task.getTarget().map("bmi/test/ixx/%s"::formatted)
             );
+            final var objectOutput = task.getProject().getLayout().getBuildDirectory().dir(
+                task.getTarget().map("obj/test/ixx/%s"::formatted)
+            );
             final var source = task.getProject().getLayout().getProjectDirectory().dir("src/test/ixx");
+            final var implementationSource = task.getProject().getLayout().getProjectDirectory().dir("src/test/cxx")
+                .getAsFileTree()
+                .matching(it -> {
+                    it.exclude(component.getExcludes());
+                    it.include(component.getIncludes());
+                });
 
             task.dependsOn(
                 includeDependencies.map(Configuration::getBuildDependencies),
                 importDependencies.map(Configuration::getBuildDependencies)
             );
+            task.getImplementationSource().from(component.getCombinedModules().map(enabled ->
+                enabled ? List.<Object>of(implementationSource) : List.<Object>of()
+            ));
+            task.dependsOn(headerUnitsTask);
+            task.getHeaderUnitPath().addAll(headerUnitPath);
             task.getImportPath().convention(importPath);
+            task.getImportStd().convention(component.getImportStd());
             task.getIncludePath().convention(includePath);
+            task.getObjectDirectory().convention(singlePass.flatMap(enabled ->
+                enabled ? objectOutput : task.getProject().<Directory>provider(() -> null)
+            ));
             task.getOutputDirectory().convention(output);
+            task.getLauncher().convention(component.getLauncher());
+            task.getLauncherEnvironment().convention(component.getLauncherEnvironment());
             task.getOptions().convention(component.getCompileOptions());
             task.setSource(source);
             task.getTarget().convention(component.getTarget());
@@ -245,8 +427,9 @@ public class MetalCxxPlugin implements Plugin<Project>
         });
 
         final var compileSources = objects.fileCollection();
-        compileSources.from(layout.getProjectDirectory().dir("src/test/cxx"));
-        compileSources.from(precompileTask);
+        compileSources.from(precompileTask.map(it -> implementationSources(it,projectDirectory.dir("src/test/cxx"))));
+        compileSources.from(precompileTask.map(MetalCxxPlugin::precompiledSources));
+        component.getObjectFiles().from(precompileTask.map(MetalCxxPlugin::precompiledObjects));
 
         final var compileTask = tasks.register("compileTestCxx",MetalCxxCompile.class,task ->
         {
@@ -258,18 +441,27 @@ public class MetalCxxPlugin implements Plugin<Project>
             );
 
             task.dependsOn(tasks.named("precompileIxx")); // TODO
+            task.dependsOn(headerUnitsTask);
+            task.getHeaderUnitPath().addAll(headerUnitPath);
             task.getImportPath().convention(compileImports);
+            task.getImportStd().convention(component.getImportStd());
             task.getIncludePath().convention(includePath);
             task.getOutputDirectory().convention(output);
+            task.getLauncher().convention(component.getLauncher());
+            task.getLauncherEnvironment().convention(component.getLauncherEnvironment());
+            task.getMultiSource().convention(component.getMultiSource());
             task.getOptions().convention(component.getCompileOptions());
+            task.getPrecompiledHeaderFile().convention(precompiledHeader.orElse(component.getPrecompiledDependency(precompiledDependencies,task.getCompatibility("c++"))));
             task.setSource(compileSources);
             task.getTarget().convention(component.getTarget());
+            task.getUnityBatchSize().convention(component.getUnityBatchSize());
+            task.getUnityExcludes().convention(component.getUnityExcludes());
 
             task.exclude(component.getExcludes());
             task.include(component.getIncludes());
             task.onlyIf("target is enabled",it -> condition.get());
         });
-        component.getObjectFiles().from(compileTask);
+        component.getObjectFiles().from(compileTask.flatMap(MetalCompile::getOutputDirectory));
 
         final var commandsTask = tasks.register("compileTestCxxCommands",MetalCompileCommands.class,task ->
         {
@@ -281,7 +473,8 @@ public class MetalCxxPlugin implements Plugin<Project>
             task.getCompileDirectory().convention(compileTask.flatMap(it -> it.getOutputDirectory().getAsFile()));
             task.getDirectory().convention(task.getProject().getProjectDir());
             task.getOutput().convention(output);
-            task.setSource(compileSources);
+            task.setSource(projectDirectory.dir("src/test/cxx"));
+            task.source(precompileTask.map(MetalCxxPlugin::precompiledSources));
             task.getTarget().convention(component.getTarget());
 
             task.exclude(component.getExcludes());
@@ -290,4 +483,45 @@ public class MetalCxxPlugin implements Plugin<Project>
         component.getCommandFiles().from(commandsTask);
         commandsElements.configure(it -> it.getOutgoing().artifact(commandsTask));
     }
+
+    /**
+     * Implementation sources to compile into object files.
+     *
+     * <p>Combined module compilation compiles implementation units with module interfaces,
+     * unless there are no module interfaces.</p>
+     *
+     * @param precompile  precompile task
+     * @param directory   implementation sources directory
+     * @return            sources
+     */
+    static List<Object> implementationSources (MetalIxxPrecompile precompile, Directory directory)
+    {
+        final var combined = ! precompile.getImplementationSource().isEmpty() && ! precompile.getSource().isEmpty();
+        return combined ? List.of() : List.of(directory);
+    }
+
+    /**
+     * Precompiled module files to compile into object files.
+     *
+     * <p>Single pass precompilation produces object files directly.</p>
+     *
+     * @param precompile  precompile task
+     * @return            sources
+     */
+    static List<Object> precompiledSources (MetalIxxPrecompile precompile)
+    {
+        // module files only: output directories also hold module manifests and module interface sources
+        return precompile.getObjectDirectory().isPresent() ? List.of() : List.of(precompile.getOutputDirectory().getAsFileTree().matching(it -> it.include("*.pcm")));
+    }
+
+    /**
+     * Object files produced by single pass precompilation.
+     *
+     * @param precompile  precompile task
+     * @return            objects
+     */
+    static List<Object> precompiledObjects (MetalIxxPrecompile precompile)
+    {
+        return precompile.getObjectDirectory().isPresent() ? List.of(precompile.getObjectDirectory()) : List.of();
+    }
 }
@@ -0,0 +1,219 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gradle Metal source dependencies index.
+ *
+ * <p>Maps each source file to the header files it includes.</p>
+ *
+ * <p>The binary format is a string table followed by one record of string table indexes per source;
+ * loading the index does not require parsing compiler depfiles again.
+ * Paths under the root directory are stored relative to it, so that the index remains valid when restored from the build cache
+ * into another checkout.</p>
+ */
+final class MetalDependencies
+{
+    static final int MAGIC = 0x4D444550; // MDEP
+
+    static final int VERSION = 2;
+
+    private final Map<String,List<String>> dependencies = new LinkedHashMap<>();
+
+    /**
+     * Source files.
+     *
+     * @return sources
+     */
+    Set<String> sources ()
+    {
+        return dependencies.keySet();
+    }
+
+    /**
+     * Header dependencies of source file.
+     *
+     * @param source  source file
+     * @return        header files
+     */
+    List<String> get (String source)
+    {
+        return dependencies.getOrDefault(source,List.of());
+    }
+
+    /**
+     * Set header dependencies of source file.
+     *
+     * @param source   source file
+     * @param headers  header files
+     */
+    void put (String source, Collection<String> headers)
+    {
+        dependencies.put(source,List.copyOf(headers));
+    }
+
+    /**
+     * Remove source file.
+     *
+     * @param source  source file
+     */
+    void remove (String source)
+    {
+        dependencies.remove(source);
+    }
+
+    /**
+     * Source files which depend on any of the header files.
+     *
+     * @param headers  header files
+     * @return         source files
+     */
+    Set<String> dependents (Set<String> headers)
+    {
+        final var sources = new HashSet<String>();
+        if (headers.isEmpty()) return sources;
+        dependencies.forEach((source,list) -> {
+            for (var header : list) {
+                if (headers.contains(header)) {
+                    sources.add(source);
+                    break;
+                }
+            }
+        });
+        return sources;
+    }
+
+    /**
+     * Read index from file.
+     *
+     * <p>Missing, truncated and unknown format files read as an empty index.</p>
+     *
+     * @param file  index file
+     * @param root  root directory
+     * @return      index
+     * @throws IOException in case of failure
+     */
+    static MetalDependencies read (Path file, Path root) throws IOException
+    {
+        final var index = new MetalDependencies();
+        try (var stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file),1 << 16)))
+        {
+            if (stream.readInt() != MAGIC || stream.readInt() != VERSION) return index;
+
+            final var strings = new String[stream.readInt()];
+            for (int i = 0; i != strings.length; ++i)
+                strings[i] = root.resolve(stream.readUTF()).toString();
+
+            final var count = stream.readInt();
+            for (int i = 0; i != count; ++i) {
+                final var source = strings[stream.readInt()];
+                final var headers = new String[stream.readInt()];
+                for (int j = 0; j != headers.length; ++j)
+                    headers[j] = strings[stream.readInt()];
+                index.dependencies.put(source,List.of(headers));
+            }
+        }
+        catch (NoSuchFileException ignored) { }
+        catch (EOFException ignored) { return new MetalDependencies(); }
+        return index;
+    }
+
+    /**
+     * Write index to file.
+     *
+     * @param file  index file
+     * @param root  root directory
+     * @throws IOException in case of failure
+     */
+    void write (Path file, Path root) throws IOException
+    {
+        final var table = new HashMap<String,Integer>();
+        final var strings = new ArrayList<String>();
+        dependencies.forEach((source,headers) -> {
+            table.computeIfAbsent(source,it -> { strings.add(it); return strings.size() - 1; });
+            headers.forEach(header -> table.computeIfAbsent(header,it -> { strings.add(it); return strings.size() - 1; }));
+        });
+
+        Files.createDirectories(file.getParent());
+        try (var stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file),1 << 16)))
+        {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeInt(strings.size());
+            for (var string : strings)
+                stream.writeUTF(MetalCompileImpl.relocate(root,string));
+            stream.writeInt(dependencies.size());
+            for (var entry : dependencies.entrySet()) {
+                stream.writeInt(table.get(entry.getKey()));
+                stream.writeInt(entry.getValue().size());
+                for (var header : entry.getValue())
+                    stream.writeInt(table.get(header));
+            }
+        }
+    }
+
+    /**
+     * Parse compiler depfile.
+     *
+     * <p>Depfiles are make rules; the first prerequisite is the source file itself and is skipped.</p>
+     *
+     * @param file  depfile
+     * @return      prerequisite files, excluding the source file
+     * @throws IOException in case of failure
+     */
+    static List<String> parseDepfile (Path file) throws IOException
+    {
+        final var text = Files.readString(file);
+        final var list = new ArrayList<String>();
+        final var item = new StringBuilder();
+        boolean target = true;
+        for (int i = 0, n = text.length(); i != n; ++i)
+        {
+            var c = text.charAt(i);
+            if (c == '\\' && i + 1 != n) {
+                final var d = text.charAt(i + 1);
+                if (d == ' ' || d == '#') { item.append(d); ++i; continue; }
+                if (d == '\n') { ++i; c = ' '; }
+                else if (d == '\r' && i + 2 != n && text.charAt(i + 2) == '\n') { i += 2; c = ' '; }
+            }
+            else if (c == '$' && i + 1 != n && text.charAt(i + 1) == '$') {
+                item.append('$'); ++i; continue;
+            }
+            if (target) {
+                // target ends at the first colon followed by whitespace; drive letters are not followed by whitespace
+                if (c == ':' && (i + 1 == n || Character.isWhitespace(text.charAt(i + 1)))) {
+                    target = false;
+                    item.setLength(0);
+                }
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                if (! item.isEmpty()) list.add(item.toString());
+                item.setLength(0);
+            }
+            else {
+                item.append(c);
+            }
+        }
+        if (! item.isEmpty()) list.add(item.toString());
+        return list.isEmpty() ? list : list.subList(1,list.size());
+    }
+}
@@ -0,0 +1,289 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.UntrackedTask;
+import org.gradle.api.tasks.options.Option;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Gradle Metal explain task.
+ *
+ * <p>Reports why native tasks executed: for each compile, module interface precompile, link and archive task,
+ * the task inputs and the units changed since the previous execution, as recorded in their explain directories.</p>
+ *
+ * <p>Records may also be compared with the records of another build, such as a copy of the explain directories of another checkout,
+ * or with the record of a local build cache entry, by cache key; differences explain cache misses.</p>
+ *
+ * <p>Otherwise, also suggests precompiled header contents: the headers included by most units of each task.</p>
+ */
+@UntrackedTask(because = "reports on other tasks")
+public abstract class MetalExplain extends DefaultTask
+{
+    /**
+     * Baseline explain directory: explain directories of another build.
+     *
+     * @return property
+     */
+    @Input
+    @Optional
+    @Option(option = "baseline", description = "Compare with the explain directories of another build.")
+    public abstract Property<String> getBaseline ();
+
+    /**
+     * Local build cache directory.
+     *
+     * <p>Default is the local build cache directory in the Gradle user home, {@code caches/build-cache-1};
+     * builds configuring another local build cache directory set this property to match.</p>
+     *
+     * @return property
+     */
+    @Internal
+    public abstract DirectoryProperty getBuildCacheDirectory ();
+
+    /**
+     * Build cache key to compare with.
+     *
+     * @return property
+     */
+    @Input
+    @Optional
+    @Option(option = "cache-key", description = "Compare with the local build cache entry with this key.")
+    public abstract Property<String> getCacheKey ();
+
+    /**
+     * Explain directories of reported tasks.
+     *
+     * @return property
+     */
+    @InputFiles
+    public abstract ConfigurableFileCollection getExplainDirectories ();
+
+    /**
+     * Report file.
+     *
+     * @return property
+     */
+    @OutputFile
+    public abstract RegularFileProperty getReport ();
+
+    /**
+     * Constructor.
+     */
+    public MetalExplain ()
+    {
+        final var buildCacheDirectory = new File(getProject().getGradle().getGradleUserHomeDir(),"caches/build-cache-1");
+        getBuildCacheDirectory().convention(getProject().getLayout().dir(getProject().provider(() -> buildCacheDirectory)));
+        getReport().convention(getProject().getLayout().getBuildDirectory().file("reports/metal/explain.txt"));
+    }
+
+    /**
+     * Explain action.
+     *
+     * @throws IOException in case of failure
+     */
+    @TaskAction
+    public void explain () throws IOException
+    {
+        final var records = new TreeMap<String,MetalInputRecord>();
+        final var reasons = new TreeMap<String,Path>();
+        for (var directory : getExplainDirectories().getFiles())
+        {
+            final var file = directory.toPath().resolve(MetalInputRecord.FILE_NAME);
+            if (! Files.isRegularFile(file)) continue;
+            final var record = MetalInputRecord.read(file);
+            records.put(record.task(),record);
+            reasons.put(record.task(),directory.toPath().resolve(MetalInputRecord.REASONS_FILE_NAME));
+        }
+
+        final var lines = new ArrayList<String>();
+        if (getCacheKey().isPresent())
+        {
+            final var key = getCacheKey().get();
+            final var entry = getBuildCacheDirectory().get().getAsFile().toPath().resolve(key);
+            if (! Files.isRegularFile(entry)) throw new GradleException("build cache entry not found: " + entry);
+            final var cached = readCacheEntry(entry);
+            if (cached == null) throw new GradleException("build cache entry has no input record: " + key);
+            final var current = records.get(cached.task());
+            lines.add("task %s, compared with cache entry %s".formatted(cached.task(),key));
+            if (current == null) lines.add("  no record");
+            else report(lines,current.differences(cached));
+        }
+        else if (getBaseline().isPresent())
+        {
+            final var baseline = new TreeMap<String,MetalInputRecord>();
+            try (var stream = Files.walk(Path.of(getBaseline().get()))) {
+                for (var file : stream.filter(it -> it.getFileName().toString().equals(MetalInputRecord.FILE_NAME)).toList()) {
+                    final var record = MetalInputRecord.read(file);
+                    baseline.put(record.task(),record);
+                }
+            }
+            records.forEach((task,record) -> {
+                lines.add("task %s, compared with baseline".formatted(task));
+                final var other = baseline.get(task);
+                if (other == null) lines.add("  no baseline record");
+                else report(lines,record.differences(other));
+            });
+        }
+        else
+        {
+            for (var entry : reasons.entrySet()) {
+                lines.add("task %s, last execution".formatted(entry.getKey()));
+                report(lines,Files.isRegularFile(entry.getValue()) ? Files.readAllLines(entry.getValue(),UTF_8) : List.of());
+            }
+            records.forEach((task,record) -> {
+                final var candidates = precompiledHeaderCandidates(record);
+                if (candidates.isEmpty()) return;
+                lines.add("task %s, precompiled header candidates".formatted(task));
+                candidates.forEach(it -> lines.add("  " + it));
+            });
+        }
+
+        final var report = getReport().get().getAsFile().toPath();
+        Files.createDirectories(report.getParent());
+        Files.write(report,lines,UTF_8);
+        lines.forEach(getLogger()::lifecycle);
+    }
+
+    private static void report (List<String> lines, List<String> items)
+    {
+        if (items.isEmpty()) lines.add("  no differences");
+        else items.forEach(item -> lines.add("  " + item));
+    }
+
+    /**
+     * Precompiled header candidates.
+     *
+     * <p>Lists headers included by most units of the record, most frequently included first.</p>
+     *
+     * @param record  input record
+     * @return        candidates, one per line
+     */
+    static List<String> precompiledHeaderCandidates (MetalInputRecord record)
+    {
+        final var units = record.units().size();
+        if (units < 2) return List.of();
+        final var counts = new TreeMap<String,Integer>();
+        record.units().forEach((unit,files) -> files.keySet().forEach(file -> {
+            if (HEADER.matcher(file).matches()) counts.merge(file,1,Integer::sum);
+        }));
+        return counts.entrySet().stream()
+            .filter(entry -> entry.getValue() * 2 > units)
+            .sorted(Map.Entry.<String,Integer>comparingByValue().reversed())
+            .limit(10)
+            .map(entry -> "%s: included by %d of %d units".formatted(entry.getKey(),entry.getValue(),units))
+            .toList();
+    }
+
+    private static final Pattern HEADER = Pattern.compile(".*\\.(h|hh|hpp|hxx|inl)");
+
+    /**
+     * Read input record from build cache entry.
+     *
+     * <p>Build cache entries are gzip compressed tar archives with one tree per output property;
+     * the input record is found in the explain directory tree.</p>
+     *
+     * @param entry  build cache entry
+     * @return       input record, or null
+     * @throws IOException in case of failure
+     */
+    static MetalInputRecord readCacheEntry (Path entry) throws IOException
+    {
+        try (var stream = new DataInputStream(new GZIPInputStream(Files.newInputStream(entry))))
+        {
+            final var header = new byte[512];
+            String longName = null;
+            while (true)
+            {
+                try { stream.readFully(header); }
+                catch (EOFException e) { return null; }
+                if (header[0] == 0) return null;
+
+                final var type = (char) header[156];
+                final var sizeField = field(header,124,12).trim();
+                final var size = sizeField.isEmpty() ? 0 : Long.parseLong(sizeField,8);
+                // entry content is padded to the record size
+                final var padding = (512 - size % 512) % 512;
+
+                // long names are given by preceding GNU or PAX extension entries
+                if (type == 'L' || type == 'x') {
+                    final var content = read(stream,size);
+                    stream.skipNBytes(padding);
+                    longName = type == 'L' ? new String(content,UTF_8).trim() : paxPath(content);
+                    continue;
+                }
+
+                final var prefix = field(header,345,155);
+                final var name = longName != null ? longName : prefix.isEmpty() ? field(header,0,100) : prefix + "/" + field(header,0,100);
+                longName = null;
+
+                if (name.startsWith("tree-explainDirectory/") && name.endsWith("/" + MetalInputRecord.FILE_NAME))
+                    return MetalInputRecord.parse(new String(read(stream,size),UTF_8),entry + "!" + name);
+
+                stream.skipNBytes(size + padding);
+            }
+        }
+    }
+
+    private static String field (byte[] header, int offset, int length)
+    {
+        var end = offset;
+        while (end < offset + length && header[end] != 0) ++end;
+        return new String(header,offset,end - offset,UTF_8);
+    }
+
+    private static byte[] read (InputStream stream, long size) throws IOException
+    {
+        final var buffer = new ByteArrayOutputStream();
+        final var chunk = new byte[8192];
+        var remaining = size;
+        while (remaining > 0) {
+            final var count = stream.read(chunk,0,(int) Math.min(chunk.length,remaining));
+            if (count < 0) throw new EOFException();
+            buffer.write(chunk,0,count);
+            remaining -= count;
+        }
+        return buffer.toByteArray();
+    }
+
+    private static String paxPath (byte[] content)
+    {
+        // records: "<length> <key>=<value>\n"
+        final Map<String,String> records = new TreeMap<>();
+        for (var line : new String(content,UTF_8).split("\n")) {
+            final var space = line.indexOf(' ');
+            final var equals = line.indexOf('=');
+            if (space < 0 || equals < space) continue;
+            records.put(line.substring(space + 1,equals),line.substring(equals + 1));
+        }
+        return records.get("path");
+    }
+}
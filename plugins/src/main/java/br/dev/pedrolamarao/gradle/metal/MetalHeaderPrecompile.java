@@ -0,0 +1,267 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.ServiceReference;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Gradle Metal precompiled header compiler task.
+ *
+ * <p>The header is found in the include path, as in include directives.
+ * The precompiled header is compiled again only if the header or the headers it includes from the include path change,
+ * or if the compiler command changes.</p>
+ */
+@CacheableTask
+public abstract class MetalHeaderPrecompile extends DefaultTask
+{
+    // properties
+
+    /**
+     * Compiler tool.
+     *
+     * @return property
+     */
+    @Input
+    public abstract Property<String> getCompiler ();
+
+    /**
+     * Header.
+     *
+     * @return property
+     */
+    @Input
+    public abstract Property<String> getHeader ();
+
+    /**
+     * Compiler include path.
+     *
+     * @return property
+     */
+    @Input
+    public abstract ListProperty<String> getIncludePath ();
+
+    /**
+     * Header language: <code>c</code> or <code>c++</code>.
+     *
+     * @return property
+     */
+    @Input
+    public abstract Property<String> getLanguage ();
+
+    /**
+     * Compiler options.
+     *
+     * @return property
+     */
+    @Input
+    public abstract ListProperty<String> getOptions ();
+
+    /**
+     * Precompiled header file.
+     *
+     * @return property
+     */
+    @OutputFile
+    public abstract RegularFileProperty getOutput ();
+
+    /**
+     * Precompiled header file to extend.
+     *
+     * <p>The header is precompiled after the given precompiled header, which is chained into the output.</p>
+     *
+     * @return property
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getPrecompiledHeaderFile ();
+
+    /**
+     * Compiler target.
+     *
+     * @return property
+     */
+    @Input
+    public abstract Property<String> getTarget ();
+
+    /**
+     * Header dependencies index file.
+     *
+     * @return property
+     */
+    @OutputFile
+    protected abstract RegularFileProperty getDependencyFile ();
+
+    /**
+     * Compiler include files.
+     *
+     * <p>Precompiled headers embed absolute paths: include files keep absolute path sensitivity.</p>
+     *
+     * @return property
+     */
+    @IgnoreEmptyDirectories
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.ABSOLUTE)
+    protected abstract ConfigurableFileCollection getIncludeFiles ();
+
+    /**
+     * Precompiled header compatibility key for this task's compiler command.
+     *
+     * @return provider
+     */
+    @Internal
+    Provider<String> getCompatibility ()
+    {
+        return getMetal().zip(getCompiler(),(metal,compiler) ->
+            metal.getModuleCompatibility(compiler,getLanguage().get(),getTarget().get(),getOptions().get())
+        );
+    }
+
+    // services
+
+    /**
+     * ExecOperations service.
+     *
+     * @return service
+     */
+    @Inject
+    protected abstract ExecOperations getExec ();
+
+    /**
+     * Gradle Metal service.
+     *
+     * @return service
+     */
+    @ServiceReference
+    protected abstract Property<MetalService> getMetal ();
+
+    // task
+
+    private final File rootDirectory;
+
+    /**
+     * Constructor.
+     */
+    public MetalHeaderPrecompile ()
+    {
+        final var name = getName();
+        final var buildDirectory = getProject().getLayout().getBuildDirectory();
+        getCompiler().convention(getLanguage().map(language -> language.equals("c") ? "clang" : "clang++"));
+        getDependencyFile().convention(
+            buildDirectory.zip(getTarget(),(dir,target) -> dir.file("deps/%s/%s/dependencies".formatted(name,target)))
+        );
+        getIncludeFiles().from(getIncludePath());
+        rootDirectory = getProject().getRootDir();
+    }
+
+    /**
+     * Precompile action.
+     *
+     * @param changes  input changes
+     * @throws IOException in case of failure
+     */
+    @TaskAction
+    public void precompile (InputChanges changes) throws IOException
+    {
+        final var output = getOutput().get().getAsFile().toPath();
+        final var dependencyFile = getDependencyFile().get().getAsFile().toPath();
+        final var header = locate(getHeader().get());
+
+        // compile again only if some header dependency changed
+        final var dependencies = changes.isIncremental() ? MetalDependencies.read(dependencyFile,rootDirectory.toPath()) : new MetalDependencies();
+        if (changes.isIncremental() && Files.isRegularFile(output) && ! dependencies.sources().isEmpty())
+        {
+            final var changed = new HashSet<String>();
+            for (var change : changes.getFileChanges(getIncludeFiles())) {
+                if (change.getFileType() == FileType.DIRECTORY) continue;
+                changed.add(change.getFile().toPath().normalize().toString());
+            }
+            if (dependencies.dependents(changed).isEmpty()) {
+                getLogger().info("{}: header dependencies unchanged",getPath());
+                return;
+            }
+        }
+
+        final var depfile = getTemporaryDir().toPath().resolve("depfile");
+        Files.deleteIfExists(depfile);
+        Files.createDirectories(output.getParent());
+
+        final var command = new ArrayList<String>();
+        command.add(getMetal().get().locateTool(getCompiler().get()).toString());
+        command.add("--target=%s".formatted(getTarget().get()));
+        command.addAll(getOptions().get());
+        getIncludePath().get().forEach(path -> command.add("--include-directory=%s".formatted(path)));
+        if (getPrecompiledHeaderFile().isPresent()) {
+            command.add("-include-pch");
+            command.add(getPrecompiledHeaderFile().get().getAsFile().toString());
+        }
+        command.add("--language=%s-header".formatted(getLanguage().get()));
+        command.add("-MD");
+        command.add("-MF");
+        command.add(depfile.toString());
+        command.add("--output=%s".formatted(output));
+        command.add(header.toString());
+
+        final var permit = getMetal().get().admit("precompile",output.toString());
+        try
+        {
+            getExec().exec(it -> it.commandLine(command));
+        }
+        finally
+        {
+            permit.close();
+        }
+
+        // track headers under include roots; depfiles omit the header itself, which is a dependency too
+        final var includeRoots = getIncludeFiles().getFiles().stream().map(file -> file.toPath().normalize()).toList();
+        final var headers = new ArrayList<String>();
+        headers.add(header.toString());
+        for (var dependency : MetalDependencies.parseDepfile(depfile)) {
+            final var path = Path.of(dependency).normalize();
+            if (includeRoots.stream().anyMatch(path::startsWith)) headers.add(path.toString());
+        }
+        final var index = new MetalDependencies();
+        index.put(header.toString(),headers);
+        index.write(dependencyFile,rootDirectory.toPath());
+    }
+
+    private Path locate (String header)
+    {
+        for (var directory : getIncludePath().get()) {
+            final var file = Path.of(directory).resolve(header).toAbsolutePath().normalize();
+            if (Files.isRegularFile(file)) return file;
+        }
+        throw new GradleException("precompiled header not found in include path: " + header);
+    }
+}
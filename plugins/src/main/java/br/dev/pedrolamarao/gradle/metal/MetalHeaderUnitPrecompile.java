@@ -0,0 +1,354 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.internal.file.FileOperations;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.ServiceReference;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import static br.dev.pedrolamarao.gradle.metal.MetalCompileImpl.hash;
+
+/**
+ * Gradle Metal C++ header unit compiler task.
+ *
+ * <p>Header units are declared as in import declarations:
+ * system headers between angle brackets, as in <code>&lt;vector&gt;</code>, and user headers without, as in <code>foo.h</code>;
+ * user headers are found in the include path.</p>
+ *
+ * <p>The task is skipped if there are no header units.
+ * Otherwise, header units are compiled again only if some header they include changed, as recorded from their depfiles,
+ * or if the compiler command changes; module files of other header units are kept.</p>
+ */
+@CacheableTask
+public abstract class MetalHeaderUnitPrecompile extends DefaultTask
+{
+    // properties
+
+    /**
+     * Compiler tool.
+     *
+     * @return property
+     */
+    @Input
+    public abstract Property<String> getCompiler ();
+
+    /**
+     * Header units.
+     *
+     * @return property
+     */
+    @Input
+    public abstract ListProperty<String> getHeaderUnits ();
+
+    /**
+     * Compiler include path.
+     *
+     * @return property
+     */
+    @Input
+    public abstract ListProperty<String> getIncludePath ();
+
+    /**
+     * Compiler options.
+     *
+     * @return property
+     */
+    @Input
+    public abstract ListProperty<String> getOptions ();
+
+    /**
+     * Compiler output directory.
+     *
+     * @return property
+     */
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory ();
+
+    /**
+     * Compiler target.
+     *
+     * @return property
+     */
+    @Input
+    public abstract Property<String> getTarget ();
+
+    /**
+     * Header dependencies index file.
+     *
+     * @return property
+     */
+    @OutputFile
+    protected abstract RegularFileProperty getDependencyFile ();
+
+    /**
+     * Compiler include files.
+     *
+     * @return property
+     */
+    @IgnoreEmptyDirectories
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.ABSOLUTE)
+    protected abstract ConfigurableFileCollection getIncludeFiles ();
+
+    // services
+
+    /**
+     * FileOperations service.
+     *
+     * @return service
+     */
+    @Inject
+    protected abstract FileOperations getFiles ();
+
+    /**
+     * Gradle Metal service.
+     *
+     * @return service
+     */
+    @ServiceReference
+    protected abstract Property<MetalService> getMetal ();
+
+    /**
+     * WorkerExecutor service.
+     *
+     * @return service
+     */
+    @Inject
+    protected abstract WorkerExecutor getWorkers ();
+
+    // task
+
+    private final File rootDirectory;
+
+    /**
+     * Constructor.
+     */
+    public MetalHeaderUnitPrecompile ()
+    {
+        final var name = getName();
+        final var buildDirectory = getProject().getLayout().getBuildDirectory();
+        getCompiler().convention("clang++");
+        getDependencyFile().convention(
+            buildDirectory.zip(getTarget(),(dir,target) -> dir.file("deps/%s/%s/dependencies".formatted(name,target)))
+        );
+        getIncludeFiles().from(getIncludePath());
+        rootDirectory = getProject().getRootDir();
+        onlyIf("header units are declared",it -> ! getHeaderUnits().get().isEmpty());
+    }
+
+    /**
+     * Header unit module file name, relative to the output directory.
+     *
+     * @param header  header unit
+     * @return        module file name
+     */
+    static String headerUnitName (String header)
+    {
+        final var name = header.replaceAll("^<|>$","");
+        return "%X/%s.pcm".formatted(hash(header),name.substring(name.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * Header unit worker parameters.
+     */
+    interface HeaderUnitParameter extends WorkParameters
+    {
+        /**
+         * Compiler command.
+         *
+         * @return property
+         */
+        ListProperty<String> getCommand ();
+
+        /**
+         * Depfile.
+         *
+         * @return property
+         */
+        RegularFileProperty getDepfile ();
+
+        /**
+         * Header unit.
+         *
+         * @return property
+         */
+        Property<String> getHeader ();
+
+        /**
+         * Output file.
+         *
+         * @return property
+         */
+        RegularFileProperty getOutput ();
+    }
+
+    /**
+     * Header unit worker action.
+     */
+    static abstract class HeaderUnitAction implements WorkAction<HeaderUnitParameter>
+    {
+        /**
+         * Exec operations service.
+         *
+         * @return service
+         */
+        @Inject
+        public abstract ExecOperations getExec ();
+
+        /**
+         * Gradle Metal service.
+         *
+         * @return service
+         */
+        @ServiceReference
+        public abstract Property<MetalService> getMetal ();
+
+        public HeaderUnitAction () { }
+
+        @Override
+        public void execute ()
+        {
+            final var parameters = getParameters();
+            final var header = parameters.getHeader().get();
+            final var output = parameters.getOutput().getAsFile().get().toPath();
+
+            try
+            {
+                Files.createDirectories(output.getParent());
+            }
+            catch (IOException e) { throw new RuntimeException(e); }
+
+            final var system = header.startsWith("<") && header.endsWith(">");
+            final var command = new ArrayList<>(parameters.getCommand().get());
+            command.add(system ? "--language=c++-system-header" : "--language=c++-user-header");
+            command.add("-MD");
+            command.add("-MF");
+            command.add(parameters.getDepfile().getAsFile().get().toString());
+            command.add("--output=%s".formatted(output));
+            command.add(system ? header.substring(1,header.length() - 1) : header);
+
+            final var permit = getMetal().get().admit("precompile",output.toString());
+            try
+            {
+                getExec().exec(it -> it.commandLine(command));
+            }
+            finally
+            {
+                permit.close();
+            }
+        }
+    }
+
+    /**
+     * Precompile action.
+     *
+     * @param changes  input changes
+     * @throws IOException in case of failure
+     */
+    @TaskAction
+    public void precompile (InputChanges changes) throws IOException
+    {
+        final var outputDirectory = getOutputDirectory().get().getAsFile().toPath();
+        final var dependencyFile = getDependencyFile().get().getAsFile().toPath();
+        final var depfileDirectory = getTemporaryDir().toPath().resolve("depfiles");
+
+        final var command = new ArrayList<String>();
+        command.add(getMetal().get().locateTool(getCompiler().get()).toString());
+        command.add("--target=%s".formatted(getTarget().get()));
+        command.addAll(getOptions().get());
+        getIncludePath().get().forEach(path -> command.add("--include-directory=%s".formatted(path)));
+        command.add("--precompile");
+
+        // module files are indexed by path: header unit declarations, such as <vector>, are not paths
+        final var outputs = new LinkedHashMap<String,String>();
+        getHeaderUnits().get().forEach(header -> outputs.put(header,outputDirectory.resolve(headerUnitName(header)).toString()));
+
+        // compile again header units including changed headers; compile all if not incremental, removing previous module files
+        final var dependencies = changes.isIncremental() ? MetalDependencies.read(dependencyFile,rootDirectory.toPath()) : new MetalDependencies();
+        if (! changes.isIncremental()) getFiles().delete(outputDirectory);
+        final var changed = new HashSet<String>();
+        if (changes.isIncremental()) {
+            for (var change : changes.getFileChanges(getIncludeFiles())) {
+                if (change.getFileType() == FileType.DIRECTORY) continue;
+                changed.add(change.getFile().toPath().normalize().toString());
+            }
+        }
+        final var affected = dependencies.dependents(changed);
+        final var compile = new ArrayList<String>();
+        outputs.forEach((header,output) -> {
+            if (! dependencies.sources().contains(output) || affected.contains(output) || ! Files.isRegularFile(Path.of(output)))
+                compile.add(header);
+        });
+        compile.forEach(header -> dependencies.remove(outputs.get(header)));
+
+        getFiles().delete(depfileDirectory);
+        Files.createDirectories(depfileDirectory);
+
+        final var workers = getWorkers().noIsolation();
+        try
+        {
+            for (var header : compile)
+            {
+                workers.submit(HeaderUnitAction.class,parameters -> {
+                    parameters.getCommand().set(command);
+                    parameters.getDepfile().set(depfileDirectory.resolve(headerUnitName(header).replace('/','-') + ".d").toFile());
+                    parameters.getHeader().set(header);
+                    parameters.getOutput().set(Path.of(outputs.get(header)).toFile());
+                });
+            }
+            workers.await();
+        }
+        finally
+        {
+            // track headers under include roots; header units not compiled, as when failed, are compiled again next time
+            final var includeRoots = getIncludeFiles().getFiles().stream().map(file -> file.toPath().normalize()).toList();
+            for (var header : compile)
+            {
+                final var depfile = depfileDirectory.resolve(headerUnitName(header).replace('/','-') + ".d");
+                if (! Files.isRegularFile(depfile)) continue;
+                final var headers = new ArrayList<String>();
+                // depfiles omit the header itself, which may be found in any include root
+                if (! header.startsWith("<")) includeRoots.forEach(root -> headers.add(root.resolve(header).normalize().toString()));
+                for (var dependency : MetalDependencies.parseDepfile(depfile)) {
+                    final var path = Path.of(dependency).normalize();
+                    if (includeRoots.stream().anyMatch(path::startsWith)) headers.add(path.toString());
+                }
+                dependencies.put(outputs.get(header),headers);
+            }
+            dependencies.write(dependencyFile,rootDirectory.toPath());
+        }
+
+        if (compile.isEmpty()) getLogger().info("{}: header unit dependencies unchanged",getPath());
+    }
+}
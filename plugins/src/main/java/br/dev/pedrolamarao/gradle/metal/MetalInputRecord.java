@@ -0,0 +1,358 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Gradle Metal task input record.
+ *
+ * <p>Describes the normalized inputs of a task execution: task inputs, such as the command line and the toolchain version,
+ * and unit inputs, such as the source, header and module files of each translation unit, by content digest.
+ * Paths under the root directory are recorded relative to it, so that records of different checkouts compare equal.</p>
+ *
+ * <p>Tasks write records and the reasons of their execution into their explain directory;
+ * records are compared with records of previous executions, of other builds, or of build cache entries.</p>
+ *
+ * @param task    task path
+ * @param inputs  task inputs, by name: strings, string lists or string maps
+ * @param units   unit inputs, by unit: file digests, by file
+ */
+record MetalInputRecord (String task, Map<String,Object> inputs, Map<String,Map<String,String>> units)
+{
+    /**
+     * Record file name, relative to the explain directory.
+     */
+    static final String FILE_NAME = "inputs.json";
+
+    /**
+     * Reasons file name, relative to the explain directory.
+     */
+    static final String REASONS_FILE_NAME = "reasons.txt";
+
+    /**
+     * Root directory placeholder in recorded command lines.
+     */
+    static final String ROOT = "$ROOT";
+
+    /**
+     * Record builder.
+     */
+    static final class Builder
+    {
+        private final String task;
+
+        private final Path root;
+
+        private final Map<String,Object> inputs = new TreeMap<>();
+
+        private final Map<String,Map<String,String>> units = new TreeMap<>();
+
+        private MetalInputRecord previous;
+
+        Builder (String task, File root)
+        {
+            this.task = task;
+            this.root = root.toPath();
+        }
+
+        /**
+         * Add task input.
+         *
+         * @param name   input name
+         * @param value  input value
+         * @return       this
+         */
+        Builder input (String name, String value)
+        {
+            inputs.put(name,value);
+            return this;
+        }
+
+        /**
+         * Add task input: command line, with the root directory replaced by a placeholder.
+         *
+         * @param name     input name
+         * @param command  command line
+         * @return         this
+         */
+        Builder command (String name, List<String> command)
+        {
+            final var prefix = root.toString();
+            inputs.put(name,command.stream().map(argument -> argument.replace(prefix,ROOT)).toList());
+            return this;
+        }
+
+        /**
+         * Add task input: files, by content digest.
+         *
+         * @param name   input name
+         * @param files  files
+         * @return       this
+         * @throws IOException in case of failure
+         */
+        Builder files (String name, Collection<File> files) throws IOException
+        {
+            inputs.put(name,digests(files.stream().map(File::toString).toList()));
+            return this;
+        }
+
+        /**
+         * Set record of previous execution, from which digests of units not executed are carried over.
+         *
+         * <p>The record must describe the current outputs, such as the record in the explain directory;
+         * unreadable records are ignored.</p>
+         *
+         * @param file  record file
+         * @return      this
+         */
+        Builder previous (Path file)
+        {
+            try { previous = Files.isRegularFile(file) ? read(file) : null; }
+            catch (IOException e) { previous = null; }
+            return this;
+        }
+
+        /**
+         * Add unit inputs: files, by content digest.
+         *
+         * <p>Units not executed have unchanged inputs: their digests are carried over from the previous record,
+         * if it lists the same files.</p>
+         *
+         * @param unit      unit file
+         * @param files     input files
+         * @param executed  whether the unit was executed
+         * @return          this
+         * @throws IOException in case of failure
+         */
+        Builder unit (String unit, Collection<String> files, boolean executed) throws IOException
+        {
+            final var name = MetalCompileImpl.relocate(root,unit);
+            final var carried = executed || previous == null ? null : previous.units.get(name);
+            if (carried != null && carried.keySet().equals(relocate(files))) units.put(name,carried);
+            else units.put(name,digests(files));
+            return this;
+        }
+
+        private TreeSet<String> relocate (Collection<String> files)
+        {
+            final var set = new TreeSet<String>();
+            files.forEach(file -> set.add(MetalCompileImpl.relocate(root,file)));
+            return set;
+        }
+
+        private Map<String,String> digests (Collection<String> files) throws IOException
+        {
+            final var map = new TreeMap<String,String>();
+            for (var file : files) {
+                final var path = Path.of(file);
+                map.put(MetalCompileImpl.relocate(root,file),Files.isRegularFile(path) ? MetalObjectCache.fileDigest(path) : "missing");
+            }
+            return map;
+        }
+
+        MetalInputRecord build ()
+        {
+            return new MetalInputRecord(task,inputs,units);
+        }
+    }
+
+    /**
+     * Read record.
+     *
+     * @param file  record file
+     * @return      record
+     * @throws IOException in case of failure
+     */
+    static MetalInputRecord read (Path file) throws IOException
+    {
+        return parse(Files.readString(file,UTF_8),file.toString());
+    }
+
+    /**
+     * Parse record.
+     *
+     * @param text    record text
+     * @param origin  record origin, for error messages
+     * @return        record
+     * @throws IOException in case of failure
+     */
+    @SuppressWarnings("unchecked")
+    static MetalInputRecord parse (String text, String origin) throws IOException
+    {
+        try
+        {
+            final var json = (Map<String,Object>) new JsonSlurper().parseText(text);
+            final var units = new TreeMap<String,Map<String,String>>();
+            ((Map<String,Map<String,String>>) json.get("units")).forEach((unit,files) -> units.put(unit,new TreeMap<>(files)));
+            return new MetalInputRecord((String) json.get("task"),new TreeMap<>((Map<String,Object>) json.get("inputs")),units);
+        }
+        catch (RuntimeException e) { throw new IOException("failed reading input record: " + origin, e); }
+    }
+
+    /**
+     * Write record.
+     *
+     * @param file  record file
+     * @throws IOException in case of failure
+     */
+    void write (Path file) throws IOException
+    {
+        final var json = new LinkedHashMap<String,Object>();
+        json.put("task",task);
+        json.put("inputs",inputs);
+        json.put("units",units);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file,JsonOutput.prettyPrint(JsonOutput.toJson(json)),UTF_8);
+    }
+
+    /**
+     * Differences from another record.
+     *
+     * <p>Lists changed task inputs, then changed units with their changed files; unchanged units are omitted.</p>
+     *
+     * @param other  other record
+     * @return       differences, one per line
+     */
+    List<String> differences (MetalInputRecord other)
+    {
+        final var lines = new ArrayList<String>();
+        lines.addAll(inputDifferences(other));
+        final var names = new TreeSet<>(units.keySet());
+        names.addAll(other.units.keySet());
+        for (var unit : names) {
+            if (! units.containsKey(unit)) lines.add("%s: removed".formatted(unit));
+            else if (! other.units.containsKey(unit)) lines.add("%s: new".formatted(unit));
+            else mapDifferences(other.units.get(unit),units.get(unit)).forEach(it -> lines.add("%s: %s".formatted(unit,it)));
+        }
+        return lines;
+    }
+
+    /**
+     * Reasons of execution.
+     *
+     * <p>Names, for each executed unit, the changed inputs causing its execution.</p>
+     *
+     * @param previous  record of previous execution, or null
+     * @param executed  executed units
+     * @return          reasons, one per line
+     */
+    List<String> reasons (MetalInputRecord previous, Collection<String> executed)
+    {
+        final var lines = new ArrayList<String>();
+        if (previous == null) {
+            lines.add("no previous execution");
+            return lines;
+        }
+
+        final var inputs = inputDifferences(previous);
+        inputs.forEach(it -> lines.add("task input %s".formatted(it)));
+
+        for (var unit : new TreeSet<>(executed))
+        {
+            if (! previous.units.containsKey(unit)) {
+                lines.add("%s: new".formatted(unit));
+                continue;
+            }
+            final var changes = units.containsKey(unit) ? mapDifferences(previous.units.get(unit),units.get(unit)) : List.<String>of();
+            if (! changes.isEmpty()) changes.forEach(it -> lines.add("%s: %s".formatted(unit,it)));
+            else if (! inputs.isEmpty()) lines.add("%s: task inputs changed".formatted(unit));
+            else lines.add("%s: outputs out of date".formatted(unit));
+        }
+        for (var unit : previous.units.keySet())
+            if (! units.containsKey(unit)) lines.add("%s: removed".formatted(unit));
+        return lines;
+    }
+
+    /**
+     * Write record and reasons of execution to explain directory.
+     *
+     * <p>The record of the previous execution is kept in a separate file, since explain directories are removed
+     * before non-incremental executions.</p>
+     *
+     * @param directory  explain directory
+     * @param previous   previous record file
+     * @param executed   executed units, relative to the root directory
+     * @return           reasons, one per line
+     * @throws IOException in case of failure
+     */
+    List<String> update (Path directory, Path previous, Collection<String> executed) throws IOException
+    {
+        final var previousRecord = Files.isRegularFile(previous) ? read(previous) : null;
+        final var reasons = reasons(previousRecord,executed);
+        final var record = directory.resolve(FILE_NAME);
+        write(record);
+        Files.writeString(directory.resolve(REASONS_FILE_NAME),String.join("\n",reasons) + "\n",UTF_8);
+        Files.createDirectories(previous.getParent());
+        Files.copy(record,previous,StandardCopyOption.REPLACE_EXISTING);
+        return reasons;
+    }
+
+    private List<String> inputDifferences (MetalInputRecord other)
+    {
+        final var lines = new ArrayList<String>();
+        final var names = new TreeSet<>(inputs.keySet());
+        names.addAll(other.inputs.keySet());
+        for (var name : names)
+        {
+            final var before = other.inputs.get(name);
+            final var after = inputs.get(name);
+            if (Objects.equals(before,after)) continue;
+            if (before == null) lines.add("%s: added".formatted(name));
+            else if (after == null) lines.add("%s: removed".formatted(name));
+            else if (before instanceof List<?> b && after instanceof List<?> a) lines.add("%s: %s".formatted(name,listDifferences(b,a)));
+            else if (before instanceof Map<?,?> b && after instanceof Map<?,?> a) mapDifferences(b,a).forEach(it -> lines.add("%s: %s".formatted(name,it)));
+            else lines.add("%s: '%s' -> '%s'".formatted(name,before,after));
+        }
+        return lines;
+    }
+
+    private static String listDifferences (List<?> before, List<?> after)
+    {
+        final var added = new ArrayList<Object>(after);
+        added.removeAll(new HashSet<>(before));
+        final var removed = new ArrayList<Object>(before);
+        removed.removeAll(new HashSet<>(after));
+        if (added.isEmpty() && removed.isEmpty()) return "order changed";
+        final var parts = new ArrayList<String>();
+        if (! added.isEmpty()) parts.add("added " + added);
+        if (! removed.isEmpty()) parts.add("removed " + removed);
+        return String.join(", ",parts);
+    }
+
+    private static List<String> mapDifferences (Map<?,?> before, Map<?,?> after)
+    {
+        final var lines = new ArrayList<String>();
+        final var keys = new TreeSet<String>();
+        before.keySet().forEach(it -> keys.add(it.toString()));
+        after.keySet().forEach(it -> keys.add(it.toString()));
+        for (var key : keys)
+        {
+            final var b = before.get(key);
+            final var a = after.get(key);
+            if (Objects.equals(b,a)) continue;
+            if (b == null) lines.add("%s added".formatted(key));
+            else if (a == null) lines.add("%s removed".formatted(key));
+            else lines.add("%s changed".formatted(key));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,208 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import org.gradle.api.GradleException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Gradle Metal C++ module dependency graph.
+ *
+ * <p>Nodes are modules; edges connect modules to the modules providing their requires.
+ * Requires not provided by any module in the graph are external and ignored.</p>
+ *
+ * <p>The priority of a module is the length of the longest chain of modules depending on it, including itself;
+ * scheduling modules by priority starts the longest chain first.</p>
+ */
+final class MetalIxxGraph
+{
+    private final List<MetalIxxModule> modules;
+
+    private final Map<MetalIxxModule,List<MetalIxxModule>> requires = new HashMap<>();
+
+    private final Map<MetalIxxModule,List<MetalIxxModule>> dependents = new HashMap<>();
+
+    private final Map<MetalIxxModule,Integer> priorities = new HashMap<>();
+
+    private final List<MetalIxxModule> sorted;
+
+    private MetalIxxGraph (Collection<MetalIxxModule> modules)
+    {
+        this.modules = List.copyOf(modules);
+
+        final var providers = new HashMap<String,MetalIxxModule>();
+        for (var module : this.modules) {
+            for (var name : module.provides()) {
+                final var previous = providers.put(name,module);
+                if (previous != null && ! previous.equals(module))
+                    throw new GradleException("module %s provided by both %s and %s".formatted(name,previous.source(),module.source()));
+            }
+        }
+
+        for (var module : this.modules) {
+            final var list = new LinkedHashSet<MetalIxxModule>();
+            for (var name : module.requires()) {
+                final var provider = providers.get(name);
+                if (provider != null && ! provider.equals(module)) list.add(provider);
+            }
+            requires.put(module,List.copyOf(list));
+            dependents.putIfAbsent(module,new ArrayList<>());
+            list.forEach(provider -> dependents.computeIfAbsent(provider,it -> new ArrayList<>()).add(module));
+        }
+
+        // topological order, without priorities
+        final var pending = new HashMap<MetalIxxModule,Integer>();
+        final var queue = new ArrayDeque<MetalIxxModule>();
+        this.modules.forEach(module -> {
+            pending.put(module,requires.get(module).size());
+            if (requires.get(module).isEmpty()) queue.add(module);
+        });
+        final var order = new ArrayList<MetalIxxModule>();
+        while (! queue.isEmpty()) {
+            final var module = queue.poll();
+            order.add(module);
+            for (var dependent : dependents.get(module))
+                if (pending.merge(dependent,-1,Integer::sum) == 0)
+                    queue.add(dependent);
+        }
+        if (order.size() != this.modules.size())
+            throw new GradleException("module dependency cycle: " + describeCycle(pending));
+
+        // priorities, in reverse topological order
+        for (int i = order.size() - 1; i >= 0; --i) {
+            final var module = order.get(i);
+            int priority = 0;
+            for (var dependent : dependents.get(module))
+                priority = Math.max(priority,priorities.get(dependent));
+            priorities.put(module,priority + 1);
+        }
+
+        // topological order, with priorities
+        this.sorted = new ArrayList<>();
+        final var ready = newReadyQueue();
+        this.modules.forEach(module -> {
+            pending.put(module,requires.get(module).size());
+            if (requires.get(module).isEmpty()) ready.add(module);
+        });
+        while (! ready.isEmpty()) {
+            final var module = ready.poll();
+            sorted.add(module);
+            for (var dependent : dependents.get(module))
+                if (pending.merge(dependent,-1,Integer::sum) == 0)
+                    ready.add(dependent);
+        }
+    }
+
+    /**
+     * Build graph from modules.
+     *
+     * @param modules  modules
+     * @return         graph
+     * @throws GradleException if modules provide the same name or have cyclic dependencies
+     */
+    static MetalIxxGraph of (Collection<MetalIxxModule> modules)
+    {
+        return new MetalIxxGraph(modules);
+    }
+
+    /**
+     * Modules in the graph.
+     *
+     * @return modules
+     */
+    List<MetalIxxModule> modules ()
+    {
+        return modules;
+    }
+
+    /**
+     * Modules providing the requires of a module.
+     *
+     * @param module  module
+     * @return        modules
+     */
+    List<MetalIxxModule> requires (MetalIxxModule module)
+    {
+        return requires.get(module);
+    }
+
+    /**
+     * Modules requiring a module.
+     *
+     * @param module  module
+     * @return        modules
+     */
+    List<MetalIxxModule> dependents (MetalIxxModule module)
+    {
+        return dependents.get(module);
+    }
+
+    /**
+     * Module priority: length of the longest chain of dependents, including the module itself.
+     *
+     * @param module  module
+     * @return        priority
+     */
+    int priority (MetalIxxModule module)
+    {
+        return priorities.get(module);
+    }
+
+    /**
+     * Modules in dependency order, higher priority first among ready modules.
+     *
+     * @return modules
+     */
+    List<MetalIxxModule> sorted ()
+    {
+        return sorted;
+    }
+
+    /**
+     * New ready queue, ordering modules by descending priority.
+     *
+     * @return queue
+     */
+    private PriorityQueue<MetalIxxModule> newReadyQueue ()
+    {
+        return new PriorityQueue<>(
+            Comparator.<MetalIxxModule>comparingInt(priorities::get).reversed()
+                .thenComparing(module -> module.source().toString())
+        );
+    }
+
+    private String describeCycle (Map<MetalIxxModule,Integer> pending)
+    {
+        // every module still pending requires another pending module; walk requires until a module repeats
+        var module = modules.stream().filter(it -> pending.get(it) != 0).findFirst().orElseThrow();
+        final var path = new LinkedHashSet<MetalIxxModule>();
+        while (path.add(module)) {
+            module = requires.get(module).stream()
+                .filter(it -> pending.get(it) != 0)
+                .findFirst().orElseThrow();
+        }
+        final var cycle = new ArrayList<MetalIxxModule>();
+        boolean inside = false;
+        for (var it : path) {
+            if (it.equals(module)) inside = true;
+            if (inside) cycle.add(it);
+        }
+        cycle.add(module);
+        return cycle.stream().map(MetalIxxGraph::name).collect(Collectors.joining(" -> "));
+    }
+
+    static String name (MetalIxxModule module)
+    {
+        return module.provides().isEmpty() ? module.source().getName() : module.provides().get(0);
+    }
+}
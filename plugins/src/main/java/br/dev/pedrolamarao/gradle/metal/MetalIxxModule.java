@@ -2,8 +2,10 @@
 
 package br.dev.pedrolamarao.gradle.metal;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -13,6 +15,46 @@ import java.util.List;
  * @param provides  module provides
  * @param requires  module requires
  */
-public record MetalIxxModule(File source, List<String> provides, List<String> requires) implements Serializable
+public record MetalIxxModule(File source, List<String> provides, List<String> requires)
 {
+    static final int MAGIC = 0x4D495858; // MIXX
+
+    static final int VERSION = 1;
+
+    /**
+     * Write module record.
+     *
+     * <p>The record contains provides and requires; the source file is implied by the record location.</p>
+     *
+     * @param stream  output stream
+     * @throws IOException in case of failure
+     */
+    void write (DataOutputStream stream) throws IOException
+    {
+        stream.writeInt(MAGIC);
+        stream.writeInt(VERSION);
+        stream.writeInt(provides.size());
+        for (var name : provides) stream.writeUTF(name);
+        stream.writeInt(requires.size());
+        for (var name : requires) stream.writeUTF(name);
+    }
+
+    /**
+     * Read module record.
+     *
+     * @param source  interface module file
+     * @param stream  input stream
+     * @return        module
+     * @throws IOException in case of failure, including unknown record formats
+     */
+    static MetalIxxModule read (File source, DataInputStream stream) throws IOException
+    {
+        if (stream.readInt() != MAGIC || stream.readInt() != VERSION)
+            throw new IOException("unknown module record format: " + source);
+        final var provides = new String[stream.readInt()];
+        for (int i = 0; i != provides.length; ++i) provides[i] = stream.readUTF();
+        final var requires = new String[stream.readInt()];
+        for (int i = 0; i != requires.length; ++i) requires[i] = stream.readUTF();
+        return new MetalIxxModule(source,List.of(provides),List.of(requires));
+    }
 }
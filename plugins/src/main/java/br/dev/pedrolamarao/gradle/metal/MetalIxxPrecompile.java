@@ -2,29 +2,68 @@
 
 package br.dev.pedrolamarao.gradle.metal;
 
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileType;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.internal.file.FileOperations;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.services.ServiceReference;
 import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.process.ExecOperations;
+import org.gradle.work.ChangeType;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
 import org.gradle.workers.WorkAction;
 import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkQueue;
 
 import javax.inject.Inject;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Gradle Metal C++ module interface compiler task.
@@ -34,6 +73,50 @@ public abstract class MetalIxxPrecompile extends MetalCompileImpl
 {
     // properties
 
+    /**
+     * Whether to scan all sources with a single scanner invocation.
+     *
+     * <p>A single invocation shares the scanner file system cache among sources. Default is true.</p>
+     *
+     * @return property
+     */
+    @Internal
+    public abstract Property<Boolean> getBatchScan ();
+
+    /**
+     * Whether to cache scan results across builds.
+     *
+     * <p>Scan results are keyed by source content, scan arguments, compiler version and content of include files,
+     * so that imports controlled by included headers are scanned again when headers change. Default is true.</p>
+     *
+     * @return property
+     */
+    @Internal
+    public abstract Property<Boolean> getCacheScan ();
+
+    /**
+     * Implementation unit sources.
+     *
+     * <p>Implementation units are compiled into object files in the object directory,
+     * each as soon as the modules it imports from this task are precompiled.
+     * Requires the object directory.</p>
+     *
+     * @return property
+     */
+    @IgnoreEmptyDirectories
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.ABSOLUTE)
+    public abstract ConfigurableFileCollection getImplementationSource ();
+
+    /**
+     * Compiler header unit path.
+     *
+     * @return property
+     */
+    @Input
+    public abstract ListProperty<String> getHeaderUnitPath ();
+
     /**
      * Compiler import path.
      *
@@ -42,6 +125,16 @@ public abstract class MetalIxxPrecompile extends MetalCompileImpl
     @Input
     public abstract ListProperty<String> getImportPath ();
 
+    /**
+     * Whether to import standard library modules.
+     *
+     * <p>Standard library modules are precompiled once per build and cached among builds. Requires libc++. Default is false.</p>
+     *
+     * @return property
+     */
+    @Input
+    public abstract Property<Boolean> getImportStd ();
+
     /**
      * Compiler include path.
      *
@@ -50,6 +143,33 @@ public abstract class MetalIxxPrecompile extends MetalCompileImpl
     @Input
     public abstract ListProperty<String> getIncludePath ();
 
+    /**
+     * Compiler object output directory.
+     *
+     * <p>If present, module interfaces are compiled into module files and object files
+     * in a single compiler invocation.</p>
+     *
+     * @return property
+     */
+    @Optional
+    @OutputDirectory
+    public abstract DirectoryProperty getObjectDirectory ();
+
+    /**
+     * Whether to produce reduced module files.
+     *
+     * <p>Reduced module files exclude declarations not reachable from importers,
+     * so changes to non-exported details leave module files unchanged;
+     * source timestamps are also left out of module files. Default is false.</p>
+     *
+     * <p>Requires the object directory: without it, module files are compiled into objects later,
+     * which requires full module files.</p>
+     *
+     * @return property
+     */
+    @Input
+    public abstract Property<Boolean> getReducedModules ();
+
     // services
 
     /**
@@ -76,22 +196,51 @@ public abstract class MetalIxxPrecompile extends MetalCompileImpl
     @Inject
     protected abstract ObjectFactory getObjects ();
 
+    private List<String> getCommandBase (Map<String,Path> imports) throws IOException
+    {
+        final var list = new ArrayList<String>();
+        list.add(getMetal().get().locateTool(getCompiler().get()).toString());
+        list.add("--target=%s".formatted(getTarget().get()));
+        list.addAll(getOptions().get());
+        list.addAll(importArguments(getImportPath().get(),imports));
+        if (getImportStd().get()) list.addAll(standardModuleArguments());
+        list.addAll(headerUnitArguments(getHeaderUnitPath().get()));
+        getIncludePath().get().forEach(path -> list.add("--include-directory=%s".formatted(path)));
+        return list;
+    }
+
     @Override
     Provider<List<String>> getCommand ()
     {
-        return getProviders().provider(() ->
-        {
-            final var list = new ArrayList<String>();
-            list.add(getMetal().get().locateTool(getCompiler().get()).toString());
-            list.add("--target=%s".formatted(getTarget().get()));
-            list.addAll(getOptions().get());
-            getImportPath().get().forEach(path -> list.add("-fprebuilt-module-path=%s".formatted(path)));
-            list.add("-fprebuilt-module-path=%s".formatted(getOutputDirectory().get()));
-            getIncludePath().get().forEach(path -> list.add("--include-directory=%s".formatted(path)));
-            list.add("--precompile");
-            list.add("--language=c++-module");
-            return list;
-        });
+        return getProviders().provider(() -> command(importModules(getImportPath().get())));
+    }
+
+    @Override
+    List<String> command (Map<String,Path> imports) throws IOException
+    {
+        final var list = getCommandBase(imports);
+        if (getReducedModules().get()) {
+            list.add("-fexperimental-modules-reduced-bmi");
+            list.add("-Xclang");
+            list.add("-fno-pch-timestamp");
+        }
+        list.add(getObjectDirectory().isPresent() ? "--compile" : "--precompile");
+        list.add("--language=c++-module");
+        return list;
+    }
+
+    /**
+     * Implementation unit compiler command, mapping imported modules to the module files given.
+     *
+     * @param imports  module files, by module name
+     * @return         compiler command
+     * @throws IOException in case of failure
+     */
+    List<String> implementationCommand (Map<String,Path> imports) throws IOException
+    {
+        final var list = getCommandBase(imports);
+        list.add("--compile");
+        return list;
     }
 
     // task
@@ -101,7 +250,33 @@ public abstract class MetalIxxPrecompile extends MetalCompileImpl
      */
     public MetalIxxPrecompile ()
     {
+        getBatchScan().convention(true);
+        getCacheScan().convention(true);
         getCompiler().convention("clang++");
+        getImportStd().convention(false);
+        getReducedModules().convention(false);
+        getIncludeFiles().from(getHeaderUnitPath());
+        getIncludeFiles().from(getIncludePath());
+        getIncludeFiles().from(getImportPath());
+    }
+
+    // module files embed absolute source and include paths: sources and include files keep absolute path sensitivity
+
+    @Override
+    @IgnoreEmptyDirectories
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.ABSOLUTE)
+    protected abstract ConfigurableFileCollection getIncludeFiles ();
+
+    @Override
+    @InputFiles
+    @SkipWhenEmpty
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.ABSOLUTE)
+    public FileTree getSource ()
+    {
+        return super.getSource();
     }
 
     /**
@@ -164,7 +339,7 @@ public abstract class MetalIxxPrecompile extends MetalCompileImpl
             final var outputFile = parameters.getOutput().getAsFile().get();
 
             // obtain P1689 dependency information from sources
-            final var buffer = new ByteArrayOutputStream();
+            final var buffer = new Buffer();
             try
             {
                 final var scanArgs = new ArrayList<String>();
@@ -173,136 +348,819 @@ public abstract class MetalIxxPrecompile extends MetalCompileImpl
                 scanArgs.addAll(parameters.getOptions().get());
                 scanArgs.add(sourceFile.toString());
 
-                getExec().exec(it -> {
-                    it.executable(scanner);
-                    it.args(scanArgs);
-                    it.setStandardOutput(buffer);
-                });
+                final var permit = getMetal().get().admit("scan",sourceFile.toString());
+                try
+                {
+                    getExec().exec(it -> {
+                        it.executable(scanner);
+                        it.args(scanArgs);
+                        it.setStandardOutput(buffer);
+                    });
+                }
+                finally
+                {
+                    permit.close();
+                }
             }
             catch (RuntimeException e) { throw e; }
             catch (Exception e) { throw new RuntimeException(e); }
 
             // parse P1689 dependency information
-            final var sourceProvides = new ArrayList<String>();
-            final var sourceRequires = new ArrayList<String>();
             final MetalIxxModule dependencies;
             try
             {
-                final var json = (Map<?,?>) new groovy.json.JsonSlurper().parse( buffer.toByteArray() );
-                final var rules = (List<?>) json.get("rules");
-                for (var ruleObj : rules) {
-                    final var rule = (Map<?,?>) ruleObj;
-                    final var provides = (List<?>) rule.get("provides");
-                    if (provides != null) {
-                        for (var provideObj : provides) {
-                            final var provide = (Map<?, ?>) provideObj;
-                            final var logicalName = provide.get("logical-name");
-                            sourceProvides.add(logicalName.toString());
-                        }
-                    }
-                    final var requires = (List<?>) rule.get("requires");
-                    if (requires != null) {
-                        for (var requireObj : requires) {
-                            final var require = (Map<?, ?>) requireObj;
-                            final var logicalName = require.get("logical-name");
-                            sourceRequires.add(logicalName.toString());
-                        }
-                    }
-                }
+                dependencies = toModule(sourceFile,MetalP1689Reader.read(buffer.toInputStream()));
+            }
+            catch (IOException e) { throw new RuntimeException(e); }
+
+            // serialize IxxDependencies
+            writeModule(outputFile,dependencies);
+        }
+    }
+
+    /**
+     * Batch scan worker parameters.
+     */
+    interface BatchScanParameter extends WorkParameters
+    {
+        /**
+         * Compilation database file.
+         *
+         * @return property
+         */
+        RegularFileProperty getDatabase ();
+
+        /**
+         * Scanner parallelism.
+         *
+         * @return property
+         */
+        Property<Integer> getJobs ();
+
+        /**
+         * Compiler arguments.
+         *
+         * @return property
+         */
+        ListProperty<String> getOptions ();
+
+        /**
+         * Output directory.
+         *
+         * @return property
+         */
+        DirectoryProperty getOutputDirectory ();
+
+        /**
+         * Source files.
+         *
+         * @return property
+         */
+        ConfigurableFileCollection getSources ();
+    }
+
+    /**
+     * Batch scan worker action.
+     *
+     * <p>Scans all sources with a single scanner invocation over a temporary compilation database,
+     * then splits P1689 rules per source by their primary output.</p>
+     */
+    static abstract class BatchScanAction implements WorkAction<BatchScanParameter>
+    {
+        /**
+         * Exec operations service.
+         *
+         * @return service
+         */
+        @Inject
+        public abstract ExecOperations getExec ();
 
-                dependencies = new MetalIxxModule(sourceFile,sourceProvides,sourceRequires);
+        /**
+         * Gradle Metal service.
+         *
+         * @return service
+         */
+        @ServiceReference
+        public abstract Property<MetalService> getMetal ();
+
+        public BatchScanAction () { }
+
+        @Override
+        public void execute ()
+        {
+            final var scanner = getMetal().map(it -> it.locateTool("clang-scan-deps")).get();
+
+            final var parameters = getParameters();
+            final var database = parameters.getDatabase().getAsFile().get();
+            final var options = parameters.getOptions().get();
+            final var outputDirectory = parameters.getOutputDirectory().getAsFile().get().toPath();
+
+            // write compilation database; primary outputs identify sources in scanner output
+            final var sources = new HashMap<String,File>();
+            final var entries = new ArrayList<Map<String,Object>>();
+            for (var source : parameters.getSources())
+            {
+                final var output = outputDirectory.resolve(scanName(source) + ".pcm").toString();
+                final var arguments = new ArrayList<>(options);
+                arguments.add(source.toString());
+                arguments.add("-o");
+                arguments.add(output);
+                final var entry = new LinkedHashMap<String,Object>();
+                entry.put("arguments",arguments);
+                entry.put("directory",outputDirectory.toString());
+                entry.put("file",source.toString());
+                entry.put("output",output);
+                entries.add(entry);
+                sources.put(output,source);
             }
-            catch (RuntimeException e) { throw e; }
-            catch (Exception e) { throw new RuntimeException(e); }
+            try
+            {
+                Files.createDirectories(database.toPath().getParent());
+                Files.writeString(database.toPath(),groovy.json.JsonOutput.toJson(entries));
+            }
+            catch (IOException e) { throw new RuntimeException(e); }
+
+            // obtain P1689 dependency information from sources
+            final var buffer = new Buffer();
+            final var permit = getMetal().get().admit("scan",database.toString());
+            try
+            {
+                getExec().exec(it -> {
+                    it.executable(scanner);
+                    it.args(
+                        "-compilation-database=%s".formatted(database),
+                        "-format=p1689",
+                        "-j",
+                        parameters.getJobs().get().toString()
+                    );
+                    it.setStandardOutput(buffer);
+                });
+            }
+            finally
+            {
+                permit.close();
+            }
+
+            // parse P1689 dependency information, split by source
+            final var rules = new HashMap<File,List<MetalP1689Reader.Rule>>();
+            try
+            {
+                for (var rule : MetalP1689Reader.read(buffer.toInputStream()))
+                {
+                    final var primaryOutput = String.valueOf(rule.primaryOutput());
+                    var source = sources.get(primaryOutput);
+                    if (source == null) source = sources.get(Path.of(primaryOutput).normalize().toString());
+                    if (source == null) throw new GradleException("unexpected scanner output: " + primaryOutput);
+                    rules.computeIfAbsent(source,it -> new ArrayList<>()).add(rule);
+                }
+            }
+            catch (IOException e) { throw new RuntimeException(e); }
 
             // serialize IxxDependencies
+            for (var source : parameters.getSources()) {
+                final var module = toModule(source,rules.getOrDefault(source,List.of()));
+                writeModule(outputDirectory.resolve(scanName(source)).toFile(),module);
+            }
+        }
+    }
+
+    /**
+     * SHA-256 digest of byte arrays, in hexadecimal.
+     *
+     * @param arrays  byte arrays
+     * @return        digest
+     */
+    static String digest (byte[]... arrays)
+    {
+        try
+        {
+            final var digest = MessageDigest.getInstance("SHA-256");
+            for (var array : arrays) digest.update(array);
+            return HexFormat.of().formatHex(digest.digest());
+        }
+        catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+    }
+
+    /**
+     * Scan output file name for source file, relative to the scan directory.
+     *
+     * @param source  source file
+     * @return        scan output file name
+     */
+    static String scanName (File source)
+    {
+        return "%X/%s.deps".formatted(source.hashCode(),source.getName());
+    }
+
+    /**
+     * Convert P1689 rules into module.
+     *
+     * @param source  source file
+     * @param rules   P1689 rules
+     * @return        module
+     */
+    static MetalIxxModule toModule (File source, List<MetalP1689Reader.Rule> rules)
+    {
+        final var sourceProvides = new ArrayList<String>();
+        final var sourceRequires = new ArrayList<String>();
+        for (var rule : rules) {
+            sourceProvides.addAll(rule.provides());
+            sourceRequires.addAll(rule.requires());
+        }
+        return new MetalIxxModule(source,sourceProvides,sourceRequires);
+    }
+
+    /**
+     * Serialize module.
+     *
+     * @param output  output file
+     * @param module  module
+     */
+    static void writeModule (File output, MetalIxxModule module)
+    {
+        try
+        {
+            Files.createDirectories(output.toPath().getParent());
+            try (var stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output.toPath())))) {
+                module.write(stream);
+            }
+        }
+        catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    /**
+     * Deserialize module.
+     *
+     * @param source  source file
+     * @param input   input file
+     * @return        module
+     * @throws IOException in case of failure
+     */
+    static MetalIxxModule readModule (File source, Path input) throws IOException
+    {
+        try (var stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(input)))) {
+            return MetalIxxModule.read(source,stream);
+        }
+    }
+
+    /**
+     * Output buffer which can be read back without copying.
+     */
+    static final class Buffer extends ByteArrayOutputStream
+    {
+        InputStream toInputStream ()
+        {
+            return new ByteArrayInputStream(buf,0,count);
+        }
+    }
+
+    /**
+     * Precompile worker parameters.
+     */
+    interface PrecompileParameter extends WorkParameters
+    {
+        /**
+         * Compiler command.
+         *
+         * @return property
+         */
+        ListProperty<String> getCommand ();
+
+        /**
+         * Compiler launcher command.
+         *
+         * @return property
+         */
+        ListProperty<String> getLauncher ();
+
+        /**
+         * Compiler launcher environment.
+         *
+         * @return property
+         */
+        MapProperty<String,String> getLauncherEnvironment ();
+
+        /**
+         * Object output file, if compiling objects.
+         *
+         * @return property
+         */
+        RegularFileProperty getObject ();
+
+        /**
+         * Module output file, if precompiling modules.
+         *
+         * @return property
+         */
+        RegularFileProperty getOutput ();
+
+        /**
+         * Module schedule identifier.
+         *
+         * @return property
+         */
+        Property<String> getSchedule ();
+
+        /**
+         * Module sources to await, directly or indirectly required.
+         *
+         * @return collection
+         */
+        ConfigurableFileCollection getScheduleRequires ();
+
+        /**
+         * Whether to compile only if some required module file was modified.
+         *
+         * @return property
+         */
+        Property<Boolean> getConditional ();
+
+        /**
+         * Source file.
+         *
+         * @return property
+         */
+        RegularFileProperty getSource ();
+    }
+
+    /**
+     * Precompile worker action.
+     *
+     * <p>Compiles into a temporary module file, replacing the output file only if contents differ;
+     * unchanged module files keep their timestamps and stop recompilation of importers.
+     * Scheduled modules first await the modules they require.</p>
+     */
+    static abstract class PrecompileAction implements WorkAction<PrecompileParameter>
+    {
+        /**
+         * Exec operations service.
+         *
+         * @return service
+         */
+        @Inject
+        public abstract ExecOperations getExec ();
+
+        /**
+         * Gradle Metal service.
+         *
+         * @return service
+         */
+        @ServiceReference
+        public abstract Property<MetalService> getMetal ();
+
+        public PrecompileAction () { }
+
+        @Override
+        public void execute ()
+        {
+            final var parameters = getParameters();
+            if (! parameters.getSchedule().isPresent()) {
+                precompile();
+                return;
+            }
+
+            final var schedule = getMetal().get().getSchedule();
+            final var id = parameters.getSchedule().get();
+            MetalModuleSchedule.Outcome outcome = null;
             try
             {
-                Files.createDirectories(outputFile.toPath().getParent());
-                try (var outputStream = new ObjectOutputStream(Files.newOutputStream(outputFile.toPath()))) {
-                    outputStream.writeObject(dependencies);
-                    outputStream.flush();
+                final var modified = schedule.await(id,parameters.getScheduleRequires().getFiles());
+                if (parameters.getConditional().get() && ! modified)
+                    outcome = MetalModuleSchedule.Outcome.SKIPPED;
+                else
+                    outcome = precompile() ? MetalModuleSchedule.Outcome.MODIFIED : MetalModuleSchedule.Outcome.UNCHANGED;
+            }
+            finally
+            {
+                schedule.complete(id,parameters.getSource().getAsFile().get(),outcome);
+            }
+        }
+
+        /**
+         * Precompile.
+         *
+         * @return whether the module file was modified, or objects only were compiled
+         */
+        private boolean precompile ()
+        {
+            final var parameters = getParameters();
+            final var source = parameters.getSource().getAsFile().get();
+
+            try
+            {
+                final var output = parameters.getOutput().getAsFile().map(File::toPath).getOrNull();
+                final var temporary = output == null ? null : output.resolveSibling(output.getFileName() + ".tmp");
+                final var command = new ArrayList<>(parameters.getCommand().get());
+                if (parameters.getObject().isPresent()) {
+                    final var object = parameters.getObject().getAsFile().get().toPath();
+                    Files.createDirectories(object.getParent());
+                    if (temporary != null) command.add("-fmodule-output=%s".formatted(temporary));
+                    command.add("--output=%s".formatted(object));
+                }
+                else {
+                    command.add("--output=%s".formatted(temporary));
+                }
+                command.add(source.toString());
+
+                final var launched = new ArrayList<>(parameters.getLauncher().get());
+                launched.addAll(command);
+                final var permit = getMetal().get().admit("precompile",source.toString());
+                try
+                {
+                    getExec().exec(it -> {
+                        it.commandLine(launched);
+                        it.environment(parameters.getLauncherEnvironment().get());
+                    });
                 }
+                finally
+                {
+                    permit.close();
+                }
+
+                if (output == null) return true;
+                if (Files.exists(output) && Files.mismatch(output,temporary) == -1) {
+                    Files.delete(temporary);
+                    return false;
+                }
+                Files.move(temporary,output,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+                return true;
             }
-            catch (RuntimeException e) { throw e; }
-            catch (Exception e) { throw new RuntimeException(e); }
+            catch (IOException e) { throw new RuntimeException(e); }
         }
     }
 
-    List<MetalIxxModule> scan () throws IOException, ClassNotFoundException
+    /**
+     * Modules in this task required by a module, directly or indirectly.
+     *
+     * @param graph   module graph
+     * @param module  module
+     * @return        required modules, sorted by source
+     */
+    static Collection<MetalIxxModule> requiredModules (MetalIxxGraph graph, MetalIxxModule module)
     {
-        // prepare base arguments
-        final var scanArgs = new ArrayList<String>();
-        scanArgs.add(getCompiler().get());
-        scanArgs.addAll(getOptions().get());
-        getIncludePath().get().forEach(file -> scanArgs.add("--include-directory=%s".formatted(file)));
-        scanArgs.add("--language=c++-module");
-        scanArgs.add("--precompile");
+        final var required = new TreeMap<String,MetalIxxModule>();
+        final var pending = new ArrayDeque<>(graph.requires(module));
+        while (! pending.isEmpty()) {
+            final var next = pending.poll();
+            if (required.putIfAbsent(next.source().toString(),next) == null) pending.addAll(graph.requires(next));
+        }
+        return required.values();
+    }
 
-        // discover dependencies from sources: assemble dependency files
-        final var scanWorkers = getWorkers().noIsolation();
-        getFiles().delete(getTemporaryDir());
-        for (var sourceFile : getSource()) {
-            final var outputPath = getTemporaryDir().toPath().resolve( "%X/%s.deps".formatted(sourceFile.hashCode(),sourceFile.getName() ));
-            scanWorkers.submit(ScanAction.class, parameter -> {
+    /**
+     * Scan cache key prefix: digest of scan result format, compiler version, scan arguments and include files.
+     *
+     * @param toolVersion    compiler version
+     * @param scanArgs       scan arguments
+     * @param includeDigest  include files digest
+     * @return               key prefix
+     */
+    static byte[] scanKey (String toolVersion, List<String> scanArgs, String includeDigest)
+    {
+        return digest(
+            "%X".formatted(MetalIxxModule.VERSION).getBytes(UTF_8),
+            toolVersion.getBytes(UTF_8),
+            String.join("\0",scanArgs).getBytes(UTF_8),
+            includeDigest.getBytes(UTF_8)
+        ).getBytes(UTF_8);
+    }
+
+    /**
+     * Look up cached scan results.
+     *
+     * @param files           sources
+     * @param key             scan cache key prefix
+     * @param cache           whether to use cached scan results
+     * @param cacheDirectory  scan cache directory
+     * @param cacheFiles      cache files, by source; updated
+     * @return                sources to scan
+     * @throws IOException in case of failure
+     */
+    static List<File> lookupScans (Iterable<File> files, byte[] key, boolean cache, Path cacheDirectory, Map<File,Path> cacheFiles) throws IOException
+    {
+        final var sources = new ArrayList<File>();
+        for (var sourceFile : files) {
+            final var cacheFile = cacheDirectory.resolve(digest(key,Files.readAllBytes(sourceFile.toPath())));
+            cacheFiles.put(sourceFile,cacheFile);
+            if (! cache || ! Files.exists(cacheFile)) sources.add(sourceFile);
+        }
+        return sources;
+    }
+
+    /**
+     * Store scan results into the scan cache, and read modules from cached scan results.
+     *
+     * <p>Cached scan results not used for seven days are removed.</p>
+     *
+     * @param scanned         scanned sources
+     * @param scanDirectory   scan output directory
+     * @param cacheDirectory  scan cache directory
+     * @param cacheFiles      cache files, by source
+     * @return                modules, by source
+     * @throws IOException in case of failure
+     */
+    static Map<File,MetalIxxModule> storeScans (Collection<File> scanned, Path scanDirectory, Path cacheDirectory, Map<File,Path> cacheFiles) throws IOException
+    {
+        Files.createDirectories(cacheDirectory);
+        for (var sourceFile : scanned) {
+            Files.move(
+                scanDirectory.resolve(scanName(sourceFile)),
+                cacheFiles.get(sourceFile),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+        }
+
+        final var modules = new LinkedHashMap<File,MetalIxxModule>();
+        final var now = FileTime.from(Instant.now());
+        for (var entry : cacheFiles.entrySet()) {
+            modules.put(entry.getKey(),readModule(entry.getKey(),entry.getValue()));
+            Files.setLastModifiedTime(entry.getValue(),now);
+        }
+
+        final var expired = now.toInstant().minus(Duration.ofDays(7));
+        try (var stream = Files.list(cacheDirectory)) {
+            for (var cacheFile : stream.toList()) {
+                if (Files.getLastModifiedTime(cacheFile).toInstant().isBefore(expired))
+                    Files.deleteIfExists(cacheFile);
+            }
+        }
+        return modules;
+    }
+
+    /**
+     * Digest of include files: paths and content, in path order.
+     *
+     * <p>Included headers may control imports; scan results keyed by this digest are not reused after headers change.</p>
+     *
+     * @param files  include files
+     * @return       digest
+     * @throws IOException in case of failure
+     */
+    static String includeDigest (Collection<File> files) throws IOException
+    {
+        final var arrays = new ArrayList<byte[]>();
+        for (var file : files.stream().sorted().toList()) {
+            arrays.add(file.toString().getBytes(UTF_8));
+            arrays.add(new byte[] { 0 });
+            arrays.add(digest(Files.readAllBytes(file.toPath())).getBytes(UTF_8));
+        }
+        return digest(arrays.toArray(byte[][]::new));
+    }
+
+    private void submitScan (WorkQueue workers, List<String> scanArgs, List<File> sources, Path scanDirectory, String name)
+    {
+        if (sources.isEmpty()) return;
+        if (getBatchScan().get()) {
+            workers.submit(BatchScanAction.class, parameter -> {
+                parameter.getDatabase().set(scanDirectory.resolve("%s/compile_commands.json".formatted(name)).toFile());
+                parameter.getJobs().set(getMaxWorkers());
                 parameter.getOptions().set(scanArgs);
-                parameter.getOutput().set(outputPath.toFile());
-                parameter.getSource().set(sourceFile);
+                parameter.getOutputDirectory().set(scanDirectory.toFile());
+                parameter.getSources().from(sources);
             });
         }
-        scanWorkers.await();
-
-        // discover dependencies from sources: parse dependency files
-        final var modules = new ArrayList<MetalIxxModule>();
-        for (var dependencyFile : getObjects().fileCollection().from(getTemporaryDir()).getAsFileTree()) {
-            try (var stream = Files.newInputStream(dependencyFile.toPath())) {
-                final var module = (MetalIxxModule) new ObjectInputStream(stream).readObject();
-                modules.add(module);
+        else {
+            for (var sourceFile : sources) {
+                final var outputPath = scanDirectory.resolve(scanName(sourceFile));
+                workers.submit(ScanAction.class, parameter -> {
+                    parameter.getOptions().set(scanArgs);
+                    parameter.getOutput().set(outputPath.toFile());
+                    parameter.getSource().set(sourceFile);
+                });
             }
         }
+    }
 
-        // sort sources in dependency order
-        modules.sort((x, y) -> {
-            for (var requires : y.requires())
-                if (x.provides().contains(requires))
-                    return -1;
-            for (var provides : y.provides())
-                if (x.requires().contains(provides))
-                    return 1;
-            return 0;
-        });
+    MetalIxxGraph scan (Map<String,Path> imports) throws IOException
+    {
+        // prepare base arguments: as compiler arguments, so that scans see the same target, imports and macros
+        final var scanArgs = getCommandBase(imports);
+        final var interfaceArgs = new ArrayList<>(scanArgs);
+        interfaceArgs.add("--language=c++-module");
+        interfaceArgs.add("--precompile");
+        final var implementationArgs = new ArrayList<>(scanArgs);
+        implementationArgs.add("--compile");
 
-        return modules;
+        // discover dependencies from sources: look up cached dependency files
+        final var temporaryDirectory = getTemporaryDir().toPath();
+        final var scanDirectory = temporaryDirectory.resolve("scan");
+        final var cacheDirectory = temporaryDirectory.resolve("cache");
+        getFiles().delete(scanDirectory);
+        final var cacheFiles = new LinkedHashMap<File,Path>();
+        final var cache = getCacheScan().get();
+        final var toolVersion = getMetal().get().getToolVersion(getCompiler().get());
+        final var includeDigest = cache ? includeDigest(getObjects().fileCollection().from(getHeaderUnitPath(),getIncludePath()).getAsFileTree().getFiles()) : "";
+        final var interfaces = lookupScans(getSource(),scanKey(toolVersion,interfaceArgs,includeDigest),cache,cacheDirectory,cacheFiles);
+        final var implementations = lookupScans(getImplementationSource(),scanKey(toolVersion,implementationArgs,includeDigest),cache,cacheDirectory,cacheFiles);
+        final var sources = new ArrayList<File>();
+        sources.addAll(interfaces);
+        sources.addAll(implementations);
+
+        // discover dependencies from sources: assemble dependency files
+        final var scanWorkers = getWorkers().noIsolation();
+        if (sources.isEmpty()) {
+            getLogger().info("all sources scanned before");
+        }
+        submitScan(scanWorkers,interfaceArgs,interfaces,scanDirectory,"ixx");
+        submitScan(scanWorkers,implementationArgs,implementations,scanDirectory,"cxx");
+        scanWorkers.await();
+
+        // discover dependencies from sources: cache and parse dependency files
+        final var modules = storeScans(sources,scanDirectory,cacheDirectory,cacheFiles);
+
+        // sort sources in dependency order
+        return MetalIxxGraph.of(modules.values());
     }
 
     /**
      * Compile action.
      *
+     * <p>Modules are submitted to workers all at once, in dependency order, those starting the longest chain of dependents first;
+     * each starts once the modules it requires are precompiled. Implementation units are scheduled likewise.</p>
+     *
+     * <p>Incremental executions compile only sources which changed, sources missing outputs,
+     * and sources requiring modules whose module files changed in this execution;
+     * changes to include files or imported modules compile all sources again.</p>
+     *
+     * @param changes  input changes
      * @throws Exception in case of failure
      */
     @TaskAction
-    public void precompile () throws Exception
+    public void precompile (InputChanges changes) throws Exception
     {
         final var outputDirectory = getOutputDirectory().get().getAsFile().toPath();
+        final var objectDirectory = getObjectDirectory().getAsFile().map(File::toPath).getOrNull();
+        final var implementations = getImplementationSource().getFiles();
+        if (! implementations.isEmpty() && objectDirectory == null)
+            throw new GradleException("implementation sources require an object directory");
+        if (getReducedModules().get() && objectDirectory == null)
+            throw new GradleException("reduced modules require an object directory");
+
+        // resolve imported modules, precompiling if necessary, once for this execution
+        final var imports = resolveImports(getImportPath().get());
 
         // discover dependencies from sources
-        final var modules = scan();
+        final var graph = scan(imports);
 
         // prepare compile arguments
-        final var commandBase = new ArrayList<>(getCommand().get());
+        final var commandBase = command(imports);
+        final var implementationCommandBase = implementationCommand(imports);
+        final var launcher = getLauncherCommand().get();
+
+        // collect changed sources; remove objects of removed sources, or of all sources if compiling all sources again
+        final var changed = new HashSet<File>();
+        var all = ! changes.isIncremental();
+        if (! all) {
+            for (var change : changes.getFileChanges(getIncludeFiles())) {
+                if (change.getFileType() == FileType.DIRECTORY) continue;
+                all = true;
+                break;
+            }
+        }
+        if (all) {
+            if (objectDirectory != null) getFiles().delete(objectDirectory);
+        }
+        else {
+            for (var sources : List.of(getSource(),getImplementationSource())) {
+                for (var change : changes.getFileChanges(sources)) {
+                    if (change.getFileType() == FileType.DIRECTORY) continue;
+                    if (change.getChangeType() != ChangeType.REMOVED) changed.add(change.getFile());
+                    else if (objectDirectory != null) deleteObject(objectDirectory.resolve(objectName(rootDirectory,change.getFile())));
+                }
+            }
+        }
+
+        // remove module files of previous compilation not provided by current sources;
+        // module files of current sources are kept so that unchanged module files are not rewritten
+        final var outputs = new HashSet<Path>();
+        outputs.add(outputDirectory.resolve(MetalModuleManifest.FILE_NAME));
+        for (var module : graph.modules())
+            if (! module.provides().isEmpty()) outputs.add(outputDirectory.resolve( moduleFileName(module.provides().get(0)) ));
+        if (Files.isDirectory(outputDirectory)) {
+            try (var stream = Files.list(outputDirectory)) {
+                for (var file : stream.toList())
+                    if (Files.isRegularFile(file) && ! outputs.contains(file)) Files.delete(file);
+            }
+        }
 
-        // compile objects from sources
-        for (var module : modules)
+        // compile objects from sources: sources which changed or miss outputs, and,
+        // if module files they require are modified in this execution, sources requiring them
+
+        final var requirements = new HashMap<MetalIxxModule,Collection<MetalIxxModule>>();
+        final var conditional = new HashSet<MetalIxxModule>();
+        final var scheduled = new ArrayList<MetalIxxModule>();
+        final var scheduledSet = new HashSet<MetalIxxModule>();
+        for (var module : graph.sorted())
         {
-            final var moduleName = module.provides().get(0);
-            final var output = outputDirectory.resolve( moduleName.replace(":","-") + ".pcm" );
+            final var implementation = implementations.contains(module.source()) && module.provides().isEmpty();
+            final var output = implementation ? null : outputDirectory.resolve( moduleFileName(module.provides().get(0)) );
+            final var object = objectDirectory == null ? null : objectDirectory.resolve(objectName(rootDirectory,module.source()));
+            requirements.put(module,requiredModules(graph,module));
+            final var compile = all
+                || changed.contains(module.source())
+                || (output != null && ! Files.exists(output))
+                || (object != null && ! Files.exists(object));
+            if (! compile) {
+                if (requirements.get(module).stream().noneMatch(scheduledSet::contains)) continue;
+                conditional.add(module);
+            }
+            scheduled.add(module);
+            scheduledSet.add(module);
+        }
+
+        // modules start once the modules they require are compiled: workers start work in submission order
+        final var workers = getWorkers().noIsolation();
+        final var schedule = getMetal().get().getSchedule();
+        final var sources = scheduled.stream().map(MetalIxxModule::source).toList();
+        final var id = schedule.open(sources);
+        final var executed = new ArrayList<File>();
+        try
+        {
+            for (var module : scheduled)
+            {
+                // implementation units providing no module, as opposed to implementation partitions, produce only objects
+                final var implementation = implementations.contains(module.source()) && module.provides().isEmpty();
+                final var output = implementation ? null : outputDirectory.resolve( moduleFileName(module.provides().get(0)) );
+                final var object = objectDirectory == null ? null : objectDirectory.resolve(objectName(rootDirectory,module.source()));
+                final var command = new ArrayList<>(implementation ? implementationCommandBase : commandBase);
+                for (var it : requirements.get(module)) {
+                    final var name = it.provides().get(0);
+                    command.add("-fmodule-file=%s=%s".formatted(name,outputDirectory.resolve(moduleFileName(name))));
+                }
+                workers.submit(PrecompileAction.class,parameters -> {
+                    parameters.getCommand().set(command);
+                    parameters.getConditional().set(conditional.contains(module));
+                    parameters.getLauncher().set(launcher);
+                    parameters.getLauncherEnvironment().set(getLauncherEnvironment());
+                    if (object != null)
+                        parameters.getObject().set(object.toFile());
+                    if (output != null)
+                        parameters.getOutput().set(output.toFile());
+                    parameters.getSchedule().set(id);
+                    parameters.getScheduleRequires().from(requirements.get(module).stream().map(MetalIxxModule::source).toList());
+                    parameters.getSource().set(module.source());
+                });
+            }
+            // awaiting releases this task's worker lease to workers
+            workers.await();
+        }
+        finally
+        {
+            schedule.close(id,sources).forEach((source,outcome) -> {
+                if (outcome != MetalModuleSchedule.Outcome.SKIPPED) executed.add(source);
+            });
+        }
+        if (executed.isEmpty()) getLogger().info("all outputs up to date");
 
-            // finish compile arguments
-            final var command = new ArrayList<>(commandBase);
-            command.add("--output=%s".formatted(output));
-            command.add(module.source().toString());
+        writeManifest(graph,outputDirectory);
 
-            getExec().exec(it -> it.commandLine(command));
+        // record inputs and explain execution
+
+        final var ran = new HashSet<>(executed);
+        final var record = new MetalInputRecord.Builder(getPath(),rootDirectory)
+            .previous(getExplainDirectory().get().file(MetalInputRecord.FILE_NAME).getAsFile().toPath())
+            .input("toolchain",getMetal().get().getToolVersion(getCompiler().get()))
+            .command("command",commandBase)
+            .command("implementationCommand",implementationCommandBase)
+            .files("includeFiles",getIncludeFiles().getAsFileTree().getFiles());
+        for (var module : graph.modules()) {
+            final var files = new ArrayList<String>();
+            files.add(module.source().toString());
+            requiredModules(graph,module).forEach(required -> files.add(required.source().toString()));
+            record.unit(module.source().toString(),files,ran.contains(module.source()));
+        }
+        explain(record.build(),executed);
+    }
+
+    /**
+     * Write module manifest, with copies of module interface sources, into the output directory.
+     *
+     * <p>Consumers with compiler commands incompatible with this task's precompile module files again from these sources.</p>
+     *
+     * @param graph            module graph
+     * @param outputDirectory  output directory
+     * @throws IOException in case of failure
+     */
+    private void writeManifest (MetalIxxGraph graph, Path outputDirectory) throws IOException
+    {
+        final var sourceDirectory = outputDirectory.resolve(MetalModuleManifest.SOURCE_DIRECTORY);
+        getFiles().delete(sourceDirectory);
+
+        final var modules = new ArrayList<MetalModuleManifest.Module>();
+        for (var module : graph.sorted())
+        {
+            if (module.provides().isEmpty()) continue;
+            final var name = module.provides().get(0);
+            final var source = "%s/%X/%s".formatted(MetalModuleManifest.SOURCE_DIRECTORY,hash(module.source()),module.source().getName());
+            final var copy = outputDirectory.resolve(source);
+            Files.createDirectories(copy.getParent());
+            Files.copy(module.source().toPath(),copy);
+            modules.add(new MetalModuleManifest.Module(name,moduleFileName(name),source,module.requires()));
         }
+
+        final var includePath = getIncludePath().get().stream().map(path -> Path.of(path).toAbsolutePath().toString()).toList();
+        new MetalModuleManifest(moduleCompatibility(),includePath,modules)
+            .write(outputDirectory.resolve(MetalModuleManifest.FILE_NAME));
     }
 }
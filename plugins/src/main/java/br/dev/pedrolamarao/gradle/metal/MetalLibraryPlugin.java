@@ -34,6 +34,16 @@ public class MetalLibraryPlugin implements Plugin<Project>
         final var test = (MetalApplicationImpl) project.getExtensions()
             .create(MetalApplication.class,"test",MetalApplicationImpl.class);
         test.getCompileOptions().convention(library.getCompileOptions());
+        test.getCombinedModules().convention(library.getCombinedModules());
+        test.getHeaderUnits().convention(library.getHeaderUnits());
+        test.getImportStd().convention(library.getImportStd());
+        test.getLauncher().convention(library.getLauncher());
+        test.getLauncherEnvironment().convention(library.getLauncherEnvironment());
+        test.getMultiSource().convention(library.getMultiSource());
+        test.getPrecompiledHeader().convention(library.getPrecompiledHeader());
+        test.getSinglePassModules().convention(library.getSinglePassModules());
+        test.getUnityBatchSize().convention(library.getUnityBatchSize());
+        test.getUnityExcludes().convention(library.getUnityExcludes());
 
         final var includeDir = layout.getProjectDirectory().dir("src/main/cpp");
         includableElements.configure(it -> it.getOutgoing().artifact(includeDir));
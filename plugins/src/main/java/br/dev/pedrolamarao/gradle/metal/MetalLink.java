@@ -4,17 +4,22 @@ package br.dev.pedrolamarao.gradle.metal;
 
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileTree;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.services.ServiceReference;
 import org.gradle.api.tasks.*;
 import org.gradle.process.ExecOperations;
 
 import javax.inject.Inject;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Gradle Metal linker task.
@@ -24,12 +29,22 @@ public abstract class MetalLink extends SourceTask
 {
     // properties
 
+    /**
+     * Explain directory.
+     *
+     * <p>Holds the input record and the reasons of the last execution.</p>
+     *
+     * @return property
+     */
+    @OutputDirectory
+    public abstract DirectoryProperty getExplainDirectory ();
+
     /**
      * Linker library path.
      *
      * @return property
      */
-    @Input
+    @Internal
     public abstract ListProperty<Directory> getLibraryPath ();
 
     /**
@@ -39,7 +54,7 @@ public abstract class MetalLink extends SourceTask
      */
     @IgnoreEmptyDirectories
     @InputFiles
-    @PathSensitive(PathSensitivity.ABSOLUTE)
+    @PathSensitive(PathSensitivity.RELATIVE)
     public abstract ConfigurableFileCollection getLinkDependencies ();
 
     /**
@@ -94,13 +109,39 @@ public abstract class MetalLink extends SourceTask
 
     // task
 
+    private final File rootDirectory;
+
     /**
      * Constructor.
      */
     @Inject
     public MetalLink ()
     {
+        final var name = getName();
+        getExplainDirectory().convention(getProject().getLayout().getBuildDirectory().dir("explain/%s".formatted(name)));
         getLinker().convention("clang++");
+        rootDirectory = getProject().getRootDir();
+    }
+
+    /**
+     * Linker library path, relative to the root directory where possible.
+     *
+     * @return provider
+     */
+    @Input
+    protected Provider<List<String>> getRelocatedLibraryPath ()
+    {
+        return getLibraryPath().map(list -> list.stream().map(it -> MetalCompileImpl.relocate(rootDirectory.toPath(),it.toString())).toList());
+    }
+
+    @Override
+    @InputFiles
+    @SkipWhenEmpty
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileTree getSource ()
+    {
+        return super.getSource();
     }
 
     /**
@@ -118,8 +159,9 @@ public abstract class MetalLink extends SourceTask
         final var target = getTarget().map(this::targetMapper).get();
 
         final var atFile = this.getTemporaryDir().toPath().resolve("sources");
+        // objects in path order, so that the linked image does not depend on file system iteration order
         try (var writer = Files.newBufferedWriter(atFile)) {
-            getSource().forEach(file -> {
+            getSource().getFiles().stream().sorted().forEach(file -> {
                 try { writer.write(file.toString().replace("\\","\\\\") + "\n"); }
                     catch (IOException e) { throw new RuntimeException(e); }
             });
@@ -138,7 +180,32 @@ public abstract class MetalLink extends SourceTask
         command.add("--output=%s".formatted(output));
         command.add("@"+atFile);
 
-        getExec().exec(it -> it.commandLine(command));
+        final var permit = metal.admit("link",output.toString());
+        try
+        {
+            getExec().exec(it -> it.commandLine(command));
+        }
+        finally
+        {
+            permit.close();
+        }
+
+        // record inputs and explain execution
+
+        final var inputs = new ArrayList<String>();
+        getSource().getFiles().stream().sorted().forEach(file -> inputs.add(file.toString()));
+        getLinkDependencies().forEach(file -> inputs.add(file.toString()));
+        final var record = new MetalInputRecord.Builder(getPath(),rootDirectory)
+            .input("toolchain",getMetal().get().getToolVersion(getLinker().get()))
+            .command("command",command)
+            .unit(output.toString(),inputs,true)
+            .build();
+        final var reasons = record.update(
+            getExplainDirectory().get().getAsFile().toPath(),
+            getTemporaryDir().toPath().resolve(MetalInputRecord.FILE_NAME),
+            List.of(MetalCompileImpl.relocate(rootDirectory.toPath(),output.toString()))
+        );
+        reasons.forEach(reason -> getLogger().info("{}: {}",getPath(),reason));
     }
 
     String targetMapper (String target)
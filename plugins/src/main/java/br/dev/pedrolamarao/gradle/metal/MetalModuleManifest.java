@@ -0,0 +1,103 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gradle Metal module manifest.
+ *
+ * <p>Describes the module files in a module output directory,
+ * together with copies of the module interface sources and the compatibility key of the compiler command producing them;
+ * consumers with a different compatibility key precompile the module interface sources again with their own command.</p>
+ *
+ * @param compatibility  compatibility key
+ * @param includePath    include path required by module interface sources
+ * @param modules        modules
+ */
+record MetalModuleManifest (String compatibility, List<String> includePath, List<Module> modules)
+{
+    /**
+     * Manifest file name, relative to the module output directory.
+     */
+    static final String FILE_NAME = "modules.json";
+
+    /**
+     * Source directory name, relative to the module output directory.
+     */
+    static final String SOURCE_DIRECTORY = "src";
+
+    /**
+     * Manifest module.
+     *
+     * @param name      module name
+     * @param file      module file, relative to the module output directory
+     * @param source    module interface source, relative to the module output directory
+     * @param requires  module requires
+     */
+    record Module (String name, String file, String source, List<String> requires) { }
+
+    /**
+     * Read manifest.
+     *
+     * @param file  manifest file
+     * @return      manifest
+     * @throws IOException in case of failure
+     */
+    @SuppressWarnings("unchecked")
+    static MetalModuleManifest read (Path file) throws IOException
+    {
+        try
+        {
+            final var json = (Map<String,Object>) new JsonSlurper().parse(file.toFile());
+            final var modules = new ArrayList<Module>();
+            for (var module : (List<Map<String,Object>>) json.get("modules")) {
+                modules.add(new Module(
+                    (String) module.get("name"),
+                    (String) module.get("file"),
+                    (String) module.get("source"),
+                    List.copyOf((List<String>) module.get("requires"))
+                ));
+            }
+            return new MetalModuleManifest(
+                (String) json.get("compatibility"),
+                List.copyOf((List<String>) json.get("includePath")),
+                modules
+            );
+        }
+        catch (RuntimeException e) { throw new IOException("failed reading module manifest: " + file, e); }
+    }
+
+    /**
+     * Write manifest.
+     *
+     * @param file  manifest file
+     * @throws IOException in case of failure
+     */
+    void write (Path file) throws IOException
+    {
+        final var modules = new ArrayList<Map<String,Object>>();
+        for (var module : this.modules) {
+            final var entry = new LinkedHashMap<String,Object>();
+            entry.put("name",module.name());
+            entry.put("file",module.file());
+            entry.put("source",module.source());
+            entry.put("requires",module.requires());
+            modules.add(entry);
+        }
+        final var json = new LinkedHashMap<String,Object>();
+        json.put("compatibility",compatibility);
+        json.put("includePath",includePath);
+        json.put("modules",modules);
+        Files.writeString(file,JsonOutput.prettyPrint(JsonOutput.toJson(json)));
+    }
+}
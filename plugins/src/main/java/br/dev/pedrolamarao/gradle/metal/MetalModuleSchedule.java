@@ -0,0 +1,129 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import org.gradle.api.GradleException;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Gradle Metal module schedule.
+ *
+ * <p>Tasks submit all module sources to workers at once, in dependency order;
+ * each worker awaits the outcomes of the modules its module requires, then reports its own outcome to modules requiring it.
+ * Modules start as soon as the modules they require are compiled, and not later than that.</p>
+ *
+ * <p>Workers start work in submission order, so that modules awaited by a worker were started before:
+ * awaiting never waits for work not yet started, and never deadlocks, whatever the number of workers.
+ * Tasks await workers, releasing their worker leases, as usual.</p>
+ */
+final class MetalModuleSchedule
+{
+    /**
+     * Module outcome.
+     */
+    enum Outcome
+    {
+        /** Module was not compiled: its inputs and the module files it requires are unchanged. */
+        SKIPPED,
+        /** Module was compiled into the same module file. */
+        UNCHANGED,
+        /** Module was compiled into a new module file, or into objects only. */
+        MODIFIED
+    }
+
+    private final Map<String,CompletableFuture<Outcome>> outcomes = new ConcurrentHashMap<>();
+
+    /**
+     * Open schedule for module sources.
+     *
+     * @param sources  module sources to be submitted
+     * @return         schedule identifier
+     */
+    String open (Collection<File> sources)
+    {
+        final var id = UUID.randomUUID().toString();
+        sources.forEach(source -> outcomes.put(key(id,source),new CompletableFuture<>()));
+        return id;
+    }
+
+    /**
+     * Await outcomes of module sources.
+     *
+     * <p>Sources not in the schedule, such as sources not compiled in this execution, are taken as skipped.</p>
+     *
+     * @param id       schedule identifier
+     * @param sources  module sources
+     * @return         whether any module file was modified
+     * @throws GradleException if any source failed to compile
+     */
+    boolean await (String id, Collection<File> sources)
+    {
+        var modified = false;
+        for (var source : sources)
+        {
+            final var outcome = outcomes.get(key(id,source));
+            if (outcome == null) continue;
+            try
+            {
+                modified |= outcome.get() == Outcome.MODIFIED;
+            }
+            catch (ExecutionException e)
+            {
+                throw new GradleException("required module failed: " + source);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new GradleException("interrupted awaiting required module: " + source,e);
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * Report outcome of module source.
+     *
+     * @param id       schedule identifier
+     * @param source   module source
+     * @param outcome  outcome, or null if failed
+     */
+    void complete (String id, File source, Outcome outcome)
+    {
+        final var future = outcomes.get(key(id,source));
+        if (future == null) return;
+        if (outcome != null) future.complete(outcome);
+        else future.completeExceptionally(new GradleException("module failed: " + source));
+    }
+
+    /**
+     * Close schedule.
+     *
+     * @param id       schedule identifier
+     * @param sources  module sources submitted
+     * @return         outcomes of completed sources, by source
+     */
+    Map<File,Outcome> close (String id, Collection<File> sources)
+    {
+        final var result = new LinkedHashMap<File,Outcome>();
+        for (var source : sources)
+        {
+            final var outcome = outcomes.remove(key(id,source));
+            if (outcome != null && outcome.isDone() && ! outcome.isCompletedExceptionally())
+                result.put(source,outcome.join());
+        }
+        return result;
+    }
+
+    private static String key (String id, File source)
+    {
+        return id + ":" + source;
+    }
+}
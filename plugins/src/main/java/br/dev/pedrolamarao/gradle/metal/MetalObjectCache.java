@@ -0,0 +1,419 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile.digest;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Gradle Metal object cache.
+ *
+ * <p>Content addressed store of object files, shared among tasks, projects and builds on the same host.</p>
+ *
+ * <p>Lookup keys digest the compiler tool, the compiler command, the source file, and the module files and precompiled headers
+ * named by the command.
+ * Headers are not known before compiling; each lookup key holds manifest entries listing the headers of a previous compilation,
+ * as found in its depfile, with their digests. An entry whose headers all match names the stored object and depfile.</p>
+ *
+ * <p>Paths under the root directory are relative in keys, manifest entries and stored depfiles,
+ * so that identical sources in different checkouts share entries; compile commands make objects relocatable.</p>
+ *
+ * <p>Entries are written to private files, then moved into place; readers never observe partial entries,
+ * and concurrent writers of the same entry, from this process or others, store identical content.
+ * When the store grows over its capacity, least recently used objects are evicted, with manifest entries naming them;
+ * evicted objects are renamed before deletion, so that readers either copy them whole or miss.</p>
+ */
+final class MetalObjectCache
+{
+    private static final String VERSION = "metal-object-1";
+
+    private record FileDigest (long size, long modified, String digest) { }
+
+    private static final int DIGESTS = 1 << 16;
+
+    private static final Map<Path,FileDigest> digests = Collections.synchronizedMap(new LinkedHashMap<>(16,0.75f,true)
+    {
+        @Override
+        protected boolean removeEldestEntry (Map.Entry<Path,FileDigest> eldest)
+        {
+            return size() > DIGESTS;
+        }
+    });
+
+    private static final AtomicLong stored = new AtomicLong();
+
+    private static final AtomicBoolean trimming = new AtomicBoolean();
+
+    private static final String ROOT = "$(METAL_ROOT)";
+
+    private final Path directory;
+
+    private final long capacity;
+
+    private final Path root;
+
+    /**
+     * Constructor.
+     *
+     * @param directory  cache directory
+     * @param capacity   cache capacity, in bytes
+     * @param root       root directory
+     */
+    MetalObjectCache (Path directory, long capacity, Path root)
+    {
+        this.directory = directory;
+        this.capacity = capacity;
+        this.root = root;
+    }
+
+    /**
+     * Whether compiler command is cacheable.
+     *
+     * <p>Commands searching module directories import module files unknown to the cache.</p>
+     *
+     * @param command  compiler command, without output and source
+     * @return         whether cacheable
+     */
+    static boolean cacheable (List<String> command)
+    {
+        return command.stream().noneMatch(argument -> argument.startsWith("-fprebuilt-module-path="));
+    }
+
+    /**
+     * Lookup key for compiler command.
+     *
+     * @param command  compiler command, without output and source
+     * @param source   source file
+     * @param root     root directory
+     * @return         lookup key
+     * @throws IOException in case of failure
+     */
+    static String key (List<String> command, File source, Path root) throws IOException
+    {
+        final var arrays = new ArrayList<byte[]>();
+        arrays.add(VERSION.getBytes(UTF_8));
+        final var tool = Path.of(command.get(0));
+        arrays.add("%s:%d:%d".formatted(tool,Files.size(tool),Files.getLastModifiedTime(tool).toMillis()).getBytes(UTF_8));
+        for (int i = 0; i != command.size(); ++i) {
+            final var argument = command.get(i);
+            arrays.add(relocate(root,argument).getBytes(UTF_8));
+            arrays.add(new byte[1]);
+            if (i != 0 && command.get(i - 1).equals("-include-pch")) {
+                arrays.add(fileDigest(Path.of(argument)).getBytes(UTF_8));
+            }
+            if (argument.startsWith("-fmodule-file=")) {
+                // named module files map a module name to a path; header unit module files are paths only
+                final var value = argument.substring("-fmodule-file=".length());
+                final var file = Path.of(value.substring(value.indexOf('=') + 1));
+                arrays.add(fileDigest(file).getBytes(UTF_8));
+            }
+        }
+        arrays.add(relocate(root,source.toString()).getBytes(UTF_8));
+        arrays.add(fileDigest(source.toPath()).getBytes(UTF_8));
+        return digest(arrays.toArray(byte[][]::new));
+    }
+
+    /**
+     * Argument with paths under the root directory made relative, and the root directory itself made current.
+     *
+     * @param root      root directory
+     * @param argument  argument
+     * @return          relocated argument
+     */
+    static String relocate (Path root, String argument)
+    {
+        final var prefix = root.toString();
+        final var separator = root.getFileSystem().getSeparator();
+        return argument
+            .replace(prefix + separator,"")
+            .replaceAll(Pattern.quote(prefix) + "(?=$|=)",".");
+    }
+
+    /**
+     * Restore object and depfile for lookup key.
+     *
+     * @param key      lookup key
+     * @param object   object file to restore
+     * @param depfile  depfile to restore
+     * @return         whether restored
+     * @throws IOException in case of failure
+     */
+    boolean restore (String key, Path object, Path depfile) throws IOException
+    {
+        final var manifest = manifestDirectory(key);
+        if (! Files.isDirectory(manifest)) return false;
+        final List<Path> entries;
+        try (var stream = Files.list(manifest)) { entries = stream.filter(it -> ! isPrivate(it)).toList(); }
+        for (var entry : entries)
+        {
+            try
+            {
+                if (! matches(Files.readAllLines(entry,UTF_8))) continue;
+                final var result = resultDirectory(entry.getFileName().toString());
+                final var content = Files.readString(result.resolve("depfile"),UTF_8);
+                Files.copy(result.resolve("object"),object,StandardCopyOption.REPLACE_EXISTING);
+                Files.writeString(depfile,content.replace(ROOT,escape(root.toString())),UTF_8);
+                Files.setLastModifiedTime(result.resolve("object"),FileTime.from(Instant.now()));
+                return true;
+            }
+            catch (NoSuchFileException e)
+            {
+                // result evicted: forget manifest entry
+                Files.deleteIfExists(entry);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Store object and depfile for lookup key.
+     *
+     * <p>Compilations reading files modified since they started may have read any version of those files and are not stored.</p>
+     *
+     * @param key      lookup key
+     * @param started  compilation start time, in milliseconds
+     * @param object   object file to store
+     * @param depfile  depfile to store
+     * @throws IOException in case of failure
+     */
+    void store (String key, long started, Path object, Path depfile) throws IOException
+    {
+        final var lines = new ArrayList<String>();
+        for (var header : MetalDependencies.parseDepfile(depfile).stream().sorted().distinct().toList()) {
+            final var path = Path.of(header);
+            if (Files.getLastModifiedTime(path).toMillis() >= started) return;
+            final var relocated = path.startsWith(root) ? root.relativize(path).toString() : header;
+            lines.add("%s %s".formatted(fileDigest(path),relocated));
+        }
+        final var content = Files.readString(depfile,UTF_8).replace(escape(root.toString()) + root.getFileSystem().getSeparator(),ROOT + root.getFileSystem().getSeparator());
+        final var resultKey = digest(key.getBytes(UTF_8),String.join("\n",lines).getBytes(UTF_8));
+
+        // publish result, then manifest entry naming it
+        final var result = resultDirectory(resultKey);
+        if (! Files.isDirectory(result))
+        {
+            Files.createDirectories(result.getParent());
+            final var temporary = privateName(result);
+            Files.createDirectories(temporary);
+            Files.copy(object,temporary.resolve("object"));
+            Files.writeString(temporary.resolve("depfile"),content,UTF_8);
+            try
+            {
+                Files.move(temporary,result,StandardCopyOption.ATOMIC_MOVE);
+                added(Files.size(object) + Files.size(depfile));
+            }
+            catch (FileAlreadyExistsException | DirectoryNotEmptyException e)
+            {
+                delete(temporary);
+            }
+        }
+
+        final var manifest = manifestDirectory(key);
+        final var entry = manifest.resolve(resultKey);
+        final var temporary = privateName(entry);
+        try
+        {
+            Files.createDirectories(manifest);
+            Files.write(temporary,lines,UTF_8);
+            Files.move(temporary,entry,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (NoSuchFileException e)
+        {
+            // manifest directory trimmed meanwhile: the entry is not recorded
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private boolean matches (List<String> lines) throws IOException
+    {
+        for (var line : lines) {
+            final var separator = line.indexOf(' ');
+            final var path = root.resolve(line.substring(separator + 1));
+            if (! Files.isRegularFile(path) || ! fileDigest(path).equals(line.substring(0,separator))) return false;
+        }
+        return true;
+    }
+
+    private static String escape (String path)
+    {
+        // depfiles escape spaces in paths
+        return path.replace(" ","\\ ");
+    }
+
+    private void added (long size) throws IOException
+    {
+        // trim after every sixteenth of capacity stored by this process
+        if (stored.addAndGet(size) < capacity / 16) return;
+        stored.set(0);
+        if (! trimming.compareAndSet(false,true)) return;
+        try { trim(); }
+        finally { trimming.set(false); }
+    }
+
+    /**
+     * Evict least recently used objects until the store is within capacity.
+     *
+     * <p>Manifests count toward capacity; manifest entries naming evicted objects are deleted, with manifests left empty.
+     * One process trims the store at a time; others skip trimming.</p>
+     *
+     * @throws IOException in case of failure
+     */
+    void trim () throws IOException
+    {
+        Files.createDirectories(directory);
+        try (var lockFile = new RandomAccessFile(directory.resolve("trim.lock").toFile(),"rw");
+             var lock = lockFile.getChannel().tryLock())
+        {
+            if (lock == null) return;
+
+            record Result (Path directory, long size, long used) { }
+            final var results = new ArrayList<Result>();
+            long total = 0;
+            final var objects = directory.resolve("objects");
+            if (! Files.isDirectory(objects)) return;
+            try (var prefixes = Files.list(objects))
+            {
+                for (var prefix : prefixes.toList())
+                {
+                    try (var stream = Files.list(prefix))
+                    {
+                        for (var result : stream.filter(it -> ! isPrivate(it)).toList())
+                        {
+                            try
+                            {
+                                final var size = Files.size(result.resolve("object")) + Files.size(result.resolve("depfile"));
+                                results.add(new Result(result,size,Files.getLastModifiedTime(result.resolve("object")).toMillis()));
+                                total += size;
+                            }
+                            catch (NoSuchFileException ignored) { }
+                        }
+                    }
+                    catch (NoSuchFileException ignored) { }
+                }
+            }
+            final var entries = manifestEntries();
+            for (var entry : entries)
+            {
+                try { total += Files.size(entry); }
+                catch (NoSuchFileException ignored) { }
+            }
+            if (total <= capacity) return;
+
+            // evict down to nine tenths of capacity, so that trimming is not repeated at every store
+            results.sort(Comparator.comparingLong(Result::used));
+            final var limit = capacity - capacity / 10;
+            for (var result : results)
+            {
+                if (total <= limit) break;
+                final var evicted = privateName(result.directory());
+                try
+                {
+                    Files.move(result.directory(),evicted,StandardCopyOption.ATOMIC_MOVE);
+                    delete(evicted);
+                }
+                catch (NoSuchFileException ignored) { }
+                total -= result.size();
+            }
+
+            // forget manifest entries naming evicted objects
+            for (var entry : entries)
+            {
+                if (Files.isDirectory(resultDirectory(entry.getFileName().toString()))) continue;
+                Files.deleteIfExists(entry);
+                try { Files.deleteIfExists(entry.getParent()); }
+                catch (DirectoryNotEmptyException ignored) { }
+            }
+        }
+    }
+
+    private List<Path> manifestEntries () throws IOException
+    {
+        final var entries = new ArrayList<Path>();
+        final var manifests = directory.resolve("manifests");
+        if (! Files.isDirectory(manifests)) return entries;
+        try (var prefixes = Files.list(manifests))
+        {
+            for (var prefix : prefixes.toList())
+            {
+                try (var keys = Files.list(prefix))
+                {
+                    for (var key : keys.toList())
+                    {
+                        try (var stream = Files.list(key)) { stream.filter(it -> ! isPrivate(it)).forEach(entries::add); }
+                        catch (NoSuchFileException ignored) { }
+                    }
+                }
+                catch (NoSuchFileException ignored) { }
+            }
+        }
+        return entries;
+    }
+
+    private Path manifestDirectory (String key)
+    {
+        return directory.resolve("manifests").resolve(key.substring(0,2)).resolve(key);
+    }
+
+    private Path resultDirectory (String key)
+    {
+        return directory.resolve("objects").resolve(key.substring(0,2)).resolve(key);
+    }
+
+    private static Path privateName (Path path)
+    {
+        return path.resolveSibling(path.getFileName() + "." + UUID.randomUUID());
+    }
+
+    private static boolean isPrivate (Path path)
+    {
+        return path.getFileName().toString().contains(".");
+    }
+
+    private static void delete (Path directory) throws IOException
+    {
+        try (var stream = Files.list(directory)) {
+            for (var file : stream.toList()) Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * File content digest, remembered for recently digested files while file size and modification time are unchanged.
+     *
+     * @param file  file
+     * @return      digest
+     * @throws IOException in case of failure
+     */
+    static String fileDigest (Path file) throws IOException
+    {
+        final var size = Files.size(file);
+        final var modified = Files.getLastModifiedTime(file).toMillis();
+        final var known = digests.get(file);
+        if (known != null && known.size() == size && known.modified() == modified) return known.digest();
+        final var digest = digest(Files.readAllBytes(file));
+        digests.put(file,new FileDigest(size,modified,digest));
+        return digest;
+    }
+}
@@ -0,0 +1,261 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Gradle Metal P1689 reader.
+ *
+ * <p>Reads P1689 dependency information in a single pass, keeping only primary outputs and
+ * the logical names of provides and requires; keys are matched in place, and every other value is skipped without allocation.</p>
+ *
+ * @see <a href="https://wg21.link/p1689">P1689</a>
+ */
+final class MetalP1689Reader
+{
+    /**
+     * P1689 rule.
+     *
+     * @param primaryOutput  primary output, or null
+     * @param provides       provided logical names
+     * @param requires       required logical names
+     */
+    record Rule (String primaryOutput, List<String> provides, List<String> requires) { }
+
+    private static final String[] DOCUMENT_KEYS = { "rules" };
+
+    private static final String[] RULE_KEYS = { "primary-output", "provides", "requires" };
+
+    private static final String[] NAME_KEYS = { "logical-name" };
+
+    private final Reader reader;
+
+    private final char[] buffer = new char[1 << 13];
+
+    private int position = 0;
+
+    private int limit = 0;
+
+    private final StringBuilder string = new StringBuilder();
+
+    private MetalP1689Reader (InputStream stream)
+    {
+        this.reader = new InputStreamReader(stream,UTF_8);
+    }
+
+    /**
+     * Read P1689 rules.
+     *
+     * @param stream  P1689 document
+     * @return        rules
+     * @throws IOException in case of failure, including malformed documents
+     */
+    static List<Rule> read (InputStream stream) throws IOException
+    {
+        final var rules = new ArrayList<Rule>();
+        final var reader = new MetalP1689Reader(stream);
+        reader.expect('{');
+        if (reader.peekSkipping() == '}') return rules;
+        do {
+            final var key = reader.readKey(DOCUMENT_KEYS);
+            reader.expect(':');
+            if (key.equals("rules")) reader.readRules(rules);
+            else reader.skipValue();
+        }
+        while (reader.next(',','}'));
+        return rules;
+    }
+
+    private void readRules (List<Rule> rules) throws IOException
+    {
+        expect('[');
+        if (peekSkipping() == ']') { read(); return; }
+        do {
+            String primaryOutput = null;
+            final var provides = new ArrayList<String>();
+            final var requires = new ArrayList<String>();
+            expect('{');
+            if (peekSkipping() == '}') { read(); }
+            else {
+                do {
+                    final var key = readKey(RULE_KEYS);
+                    expect(':');
+                    switch (key) {
+                        case "primary-output" -> primaryOutput = readString();
+                        case "provides" -> readLogicalNames(provides);
+                        case "requires" -> readLogicalNames(requires);
+                        default -> skipValue();
+                    }
+                }
+                while (next(',','}'));
+            }
+            rules.add(new Rule(primaryOutput,provides,requires));
+        }
+        while (next(',',']'));
+    }
+
+    private void readLogicalNames (List<String> names) throws IOException
+    {
+        expect('[');
+        if (peekSkipping() == ']') { read(); return; }
+        do {
+            expect('{');
+            if (peekSkipping() == '}') { read(); continue; }
+            do {
+                final var key = readKey(NAME_KEYS);
+                expect(':');
+                if (key.equals("logical-name")) names.add(readString());
+                else skipValue();
+            }
+            while (next(',','}'));
+        }
+        while (next(',',']'));
+    }
+
+    private void skipValue () throws IOException
+    {
+        final var c = peekSkipping();
+        switch (c) {
+            case '{' -> {
+                read();
+                if (peekSkipping() == '}') { read(); return; }
+                do { skipString(); expect(':'); skipValue(); }
+                while (next(',','}'));
+            }
+            case '[' -> {
+                read();
+                if (peekSkipping() == ']') { read(); return; }
+                do { skipValue(); }
+                while (next(',',']'));
+            }
+            case '"' -> skipString();
+            default -> {
+                // number, true, false, null
+                while (true) {
+                    final var d = peek();
+                    if (d == -1 || d == ',' || d == '}' || d == ']' || Character.isWhitespace(d)) break;
+                    read();
+                }
+            }
+        }
+    }
+
+    private String readString () throws IOException
+    {
+        readChars();
+        return string.toString();
+    }
+
+    /**
+     * Read object key, matched against known keys in place.
+     *
+     * @param keys  known keys
+     * @return      matching known key, or empty
+     * @throws IOException in case of failure
+     */
+    private String readKey (String[] keys) throws IOException
+    {
+        readChars();
+        for (var key : keys) {
+            if (key.contentEquals(string)) return key;
+        }
+        return "";
+    }
+
+    private void readChars () throws IOException
+    {
+        expect('"');
+        string.setLength(0);
+        while (true) {
+            final var c = read();
+            if (c == '"') return;
+            if (c == '\\') string.append(readEscape());
+            else if (c == -1) throw new IOException("unexpected end of P1689 document");
+            else string.append((char) c);
+        }
+    }
+
+    private void skipString () throws IOException
+    {
+        expect('"');
+        while (true) {
+            final var c = read();
+            if (c == '"') return;
+            if (c == '\\') readEscape();
+            else if (c == -1) throw new IOException("unexpected end of P1689 document");
+        }
+    }
+
+    private char readEscape () throws IOException
+    {
+        final var c = read();
+        return switch (c) {
+            case '"', '\\', '/' -> (char) c;
+            case 'b' -> '\b';
+            case 'f' -> '\f';
+            case 'n' -> '\n';
+            case 'r' -> '\r';
+            case 't' -> '\t';
+            case 'u' -> {
+                int value = 0;
+                for (int i = 0; i != 4; ++i) value = (value << 4) | Character.digit(read(),16);
+                yield (char) value;
+            }
+            default -> throw new IOException("unexpected escape in P1689 document: " + (char) c);
+        };
+    }
+
+    private boolean next (char more, char end) throws IOException
+    {
+        final var c = readSkipping();
+        if (c == more) return true;
+        if (c == end) return false;
+        throw new IOException("unexpected character in P1689 document: " + (char) c);
+    }
+
+    private void expect (char expected) throws IOException
+    {
+        final var c = readSkipping();
+        if (c != expected) throw new IOException("unexpected character in P1689 document: " + (char) c);
+    }
+
+    private int peekSkipping () throws IOException
+    {
+        while (true) {
+            final var c = peek();
+            if (c == -1 || ! Character.isWhitespace(c)) return c;
+            read();
+        }
+    }
+
+    private int readSkipping () throws IOException
+    {
+        peekSkipping();
+        return read();
+    }
+
+    private int peek () throws IOException
+    {
+        if (position == limit) {
+            limit = reader.read(buffer,0,buffer.length);
+            position = 0;
+            if (limit <= 0) { limit = 0; return -1; }
+        }
+        return buffer[position];
+    }
+
+    private int read () throws IOException
+    {
+        final var c = peek();
+        if (c != -1) ++position;
+        return c;
+    }
+}
@@ -4,6 +4,10 @@ import org.gradle.api.Action;
 import org.gradle.api.NonNullApi;
 import org.gradle.api.artifacts.ConfigurablePublishArtifact;
 import org.gradle.api.artifacts.ConfigurationContainer;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.ServiceReference;
 
 import javax.inject.Inject;
 
@@ -15,6 +19,44 @@ import static br.dev.pedrolamarao.gradle.metal.Metal.LINKABLE_ELEMENTS;
 @NonNullApi
 public abstract class MetalPrebuilt
 {
+    /**
+     * Compile options of the precompiled header.
+     *
+     * <p>Consumers use the precompiled header only if compiling with the same options.</p>
+     *
+     * @return property
+     */
+    public abstract ListProperty<String> getCompileOptions ();
+
+    /**
+     * Precompiled header.
+     *
+     * <p>The header is found among includable sources and published, precompiled, to consumers with compatible compile options.
+     * Default is none.</p>
+     *
+     * @return property
+     */
+    public abstract Property<String> getPrecompiledHeader ();
+
+    /**
+     * Precompiled header language: <code>c</code> or <code>c++</code>.
+     *
+     * <p>Default is <code>c++</code>.</p>
+     *
+     * @return property
+     */
+    public abstract Property<String> getPrecompiledHeaderLanguage ();
+
+    /**
+     * Build target.
+     *
+     * @return provider
+     */
+    public Provider<String> getTarget ()
+    {
+        return getMetal().map(MetalService::getTarget);
+    }
+
     /**
      * Configuration container.
      *
@@ -23,12 +65,21 @@ public abstract class MetalPrebuilt
     @Inject
     protected abstract ConfigurationContainer getConfigurations ();
 
+    /**
+     * Gradle Metal service.
+     *
+     * @return service
+     */
+    @ServiceReference
+    protected abstract Property<MetalService> getMetal ();
+
     /**
      * Constructor.
      */
     @Inject
     public MetalPrebuilt ()
     {
+        getPrecompiledHeaderLanguage().convention("c++");
     }
 
     /**
@@ -5,6 +5,8 @@ package br.dev.pedrolamarao.gradle.metal;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 
+import java.io.File;
+
 /**
  * Prebuilt component plugin.
  */
@@ -13,11 +15,48 @@ public class MetalPrebuiltPlugin implements Plugin<Project>
     @Override
     public void apply (Project project)
     {
+        final var configurations = project.getConfigurations();
         final var extensions = project.getExtensions();
         final var plugins = project.getPlugins();
+        final var tasks = project.getTasks();
 
         plugins.apply(MetalBasePlugin.class);
 
-        extensions.create("prebuilt", MetalPrebuilt.class);
+        final var prebuilt = extensions.create("prebuilt", MetalPrebuilt.class);
+
+        final var includableElements = configurations.named(Metal.INCLUDABLE_ELEMENTS);
+        final var includableArtifacts = includableElements.map(it -> it.getOutgoing().getArtifacts());
+
+        final var headerTask = tasks.register("precompileHeader",MetalHeaderPrecompile.class,task ->
+        {
+            final var enabled = prebuilt.getPrecompiledHeader().map(header -> true).orElse(false);
+            final var output = task.getProject().getLayout().getBuildDirectory().zip(task.getTarget(),(dir,target) ->
+                dir.file("pch/main/%s/%s/header.pch".formatted(task.getLanguage().get().equals("c") ? "c" : "cxx",target))
+            );
+
+            task.dependsOn(includableArtifacts);
+            task.getHeader().convention(prebuilt.getPrecompiledHeader());
+            task.getIncludePath().convention(includableArtifacts.map(artifacts ->
+                artifacts.getFiles().getFiles().stream().map(File::toString).toList()
+            ));
+            task.getLanguage().convention(prebuilt.getPrecompiledHeaderLanguage());
+            task.getOptions().convention(prebuilt.getCompileOptions());
+            task.getOutput().convention(output);
+            task.getTarget().convention(prebuilt.getTarget());
+
+            task.onlyIf("precompiled header is enabled",it -> enabled.get());
+        });
+
+        // consumers never match the incompatible key: disabled precompiled headers are not published
+        final var compatibility = prebuilt.getPrecompiledHeader()
+            .flatMap(header -> headerTask.flatMap(MetalHeaderPrecompile::getCompatibility))
+            .orElse(MetalCompatibility.NONE);
+
+        configurations.named(Metal.PRECOMPILED_ELEMENTS).configure(configuration ->
+            configuration.getOutgoing().getVariants().create("header",variant -> {
+                variant.attributes(it -> it.attributeProvider(MetalCompatibility.ATTRIBUTE,compatibility));
+                variant.artifact(headerTask.flatMap(MetalHeaderPrecompile::getOutput));
+            })
+        );
     }
 }
@@ -0,0 +1,458 @@
+// Copyright (c) Pedro Lamarão <pedro.lamarao@gmail.com>. All rights reserved.
+
+package br.dev.pedrolamarao.gradle.metal;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile.digest;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Gradle Metal remote execution client.
+ *
+ * <p>Speaks the Remote Execution API v2 through its HTTP mapping, with messages in protobuf JSON;
+ * messages stored in the content addressable storage are serialized as protobuf, as required for their digests.
+ * Remote execution services serve gRPC only: the endpoint must be a gRPC-JSON transcoder in front of the service,
+ * such as Envoy's <code>grpc_json_transcoder</code> or grpc-gateway, configured with the API's HTTP annotations.
+ * Streamed responses of <code>Execute</code> and <code>WaitExecution</code> may arrive as a JSON array or as concatenated JSON messages,
+ * optionally wrapped in <code>result</code>; the last message is taken.</p>
+ *
+ * <p>Protocol failures, such as unexpected responses, are reported as {@link IOException}, as are transport failures.</p>
+ *
+ * <p>Inputs under the root directory are uploaded with paths relative to it; compiler commands are rewritten accordingly.
+ * Inputs elsewhere, such as the compiler and system headers, must be present on executors;
+ * the compiler content digest is sent as the <code>toolchain</code> platform property.</p>
+ *
+ * @see <a href="https://github.com/bazelbuild/remote-apis">Remote Execution API</a>
+ */
+final class MetalRemoteExecution
+{
+    private static final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+    private static final long BATCH_SIZE = 2 << 20;
+
+    private final String endpoint;
+
+    private final String base;
+
+    private final Path root;
+
+    /**
+     * Content digest.
+     *
+     * @param hash  SHA-256 hash, in hexadecimal
+     * @param size  size, in bytes
+     */
+    record Digest (String hash, long size)
+    {
+        static Digest of (byte[] bytes)
+        {
+            return new Digest(digest(bytes),bytes.length);
+        }
+
+        static Digest of (Path file) throws IOException
+        {
+            return new Digest(MetalObjectCache.fileDigest(file),Files.size(file));
+        }
+
+        Map<String,Object> json ()
+        {
+            return Map.of("hash",hash,"sizeBytes",Long.toString(size));
+        }
+
+        static Digest parse (Object value)
+        {
+            final var map = map(value);
+            return new Digest((String) map.get("hash"),Long.parseLong(String.valueOf(map.get("sizeBytes"))));
+        }
+
+        byte[] proto ()
+        {
+            return new Proto().string(1,hash).varint(2,size).bytes();
+        }
+    }
+
+    /**
+     * Remote execution result.
+     *
+     * @param exitCode  command exit code
+     * @param stdout    command standard output
+     * @param stderr    command standard error
+     */
+    record Result (int exitCode, byte[] stdout, byte[] stderr) { }
+
+    /**
+     * Constructor.
+     *
+     * @param endpoint  remote execution endpoint
+     * @param instance  remote execution instance name, or empty
+     * @param root      root directory of uploaded inputs
+     */
+    MetalRemoteExecution (String endpoint, String instance, Path root)
+    {
+        this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0,endpoint.length() - 1) : endpoint;
+        this.base = instance.isEmpty() ? this.endpoint + "/v2" : this.endpoint + "/v2/" + instance;
+        this.root = root;
+    }
+
+    /**
+     * Whether compiler command may execute remotely.
+     *
+     * @param outputs  output files
+     * @return         whether outputs are under the root directory
+     */
+    boolean accepts (Collection<Path> outputs)
+    {
+        return outputs.stream().allMatch(output -> output.startsWith(root));
+    }
+
+    /**
+     * Execute compiler command remotely.
+     *
+     * <p>Results are looked up in the remote action cache before executing.
+     * Only output files are downloaded; outputs of failed commands are not.</p>
+     *
+     * @param command  compiler command
+     * @param inputs   input files
+     * @param outputs  output files
+     * @return         result
+     * @throws IOException in case of transport or protocol failure
+     */
+    Result execute (List<String> command, Collection<Path> inputs, Collection<Path> outputs) throws IOException
+    {
+        try
+        {
+            return run(command,inputs,outputs);
+        }
+        catch (RuntimeException e)
+        {
+            // malformed or unexpected responses
+            throw new IOException("remote execution protocol failure: " + e,e);
+        }
+    }
+
+    private Result run (List<String> command, Collection<Path> inputs, Collection<Path> outputs) throws IOException
+    {
+        final var prefix = root.toString() + root.getFileSystem().getSeparator();
+        final var blobs = new LinkedHashMap<Digest,Object>();
+
+        // input tree
+        final var files = new TreeMap<String,Path>();
+        for (var input : inputs) {
+            final var path = input.toAbsolutePath().normalize();
+            if (path.startsWith(root) && Files.isRegularFile(path)) files.put(root.relativize(path).toString().replace('\\','/'),path);
+        }
+        final var inputRoot = tree(files,blobs);
+
+        // command and action
+        final var tool = Path.of(command.get(0));
+        final var commandProto = new Proto();
+        // remote commands run in the input root: paths are relative already, and root prefix maps are not needed
+        final var prefixMap = "-ffile-prefix-map=%s=.".formatted(root);
+        for (var argument : command) if (! argument.equals(prefixMap)) commandProto.string(1,argument.replace(prefix,""));
+        outputs.stream().map(output -> root.relativize(output).toString().replace('\\','/')).sorted().forEach(output -> commandProto.string(3,output));
+        commandProto.message(5,new Proto().message(1,new Proto().string(1,"toolchain").string(2,MetalObjectCache.fileDigest(tool)).bytes()).bytes());
+        final var commandBytes = commandProto.bytes();
+        final var commandDigest = Digest.of(commandBytes);
+        blobs.put(commandDigest,commandBytes);
+        final var actionBytes = new Proto().message(1,commandDigest.proto()).message(2,inputRoot.proto()).bytes();
+        final var actionDigest = Digest.of(actionBytes);
+        blobs.put(actionDigest,actionBytes);
+
+        // look up action cache, else upload missing blobs and execute
+        var result = getActionResult(actionDigest);
+        if (result == null)
+        {
+            upload(blobs);
+            result = executeAction(actionDigest);
+        }
+
+        final var exitCode = ((Number) result.getOrDefault("exitCode",0)).intValue();
+        final var stdout = output(result,"stdoutRaw","stdoutDigest");
+        final var stderr = output(result,"stderrRaw","stderrDigest");
+        if (exitCode == 0)
+        {
+            final var outputFiles = new LinkedHashMap<String,Digest>();
+            for (var file : list(result.get("outputFiles"))) {
+                final var map = map(file);
+                outputFiles.put((String) map.get("path"),Digest.parse(map.get("digest")));
+            }
+            for (var output : outputs) {
+                final var digest = outputFiles.get(root.relativize(output).toString().replace('\\','/'));
+                if (digest == null) throw new IOException("remote execution result is missing output: " + output);
+                Files.createDirectories(output.getParent());
+                Files.write(output,read(List.of(digest)).get(digest));
+            }
+        }
+        return new Result(exitCode,stdout,stderr);
+    }
+
+    private Digest tree (TreeMap<String,Path> files, Map<Digest,Object> blobs) throws IOException
+    {
+        // split paths into this directory's files and subdirectories' files, both sorted by name
+        final var here = new TreeMap<String,Path>();
+        final var below = new TreeMap<String,TreeMap<String,Path>>();
+        files.forEach((name,path) -> {
+            final var slash = name.indexOf('/');
+            if (slash == -1) here.put(name,path);
+            else below.computeIfAbsent(name.substring(0,slash),it -> new TreeMap<>()).put(name.substring(slash + 1),path);
+        });
+        final var directory = new Proto();
+        for (var entry : here.entrySet()) {
+            final var digest = Digest.of(entry.getValue());
+            blobs.put(digest,entry.getValue());
+            final var node = new Proto().string(1,entry.getKey()).message(2,digest.proto());
+            if (Files.isExecutable(entry.getValue())) node.varint(4,1);
+            directory.message(1,node.bytes());
+        }
+        for (var entry : below.entrySet()) {
+            final var digest = tree(entry.getValue(),blobs);
+            directory.message(2,new Proto().string(1,entry.getKey()).message(2,digest.proto()).bytes());
+        }
+        final var bytes = directory.bytes();
+        final var digest = Digest.of(bytes);
+        blobs.put(digest,bytes);
+        return digest;
+    }
+
+    private void upload (Map<Digest,Object> blobs) throws IOException
+    {
+        final var request = Map.of("blobDigests",blobs.keySet().stream().map(Digest::json).toList());
+        final var response = map(post(base + "/blobs:findMissing",request));
+        final var missing = new ArrayList<Digest>();
+        for (var value : list(response.get("missingBlobDigests")))
+            missing.add(Digest.parse(value));
+
+        final var batch = new ArrayList<Map<String,Object>>();
+        long size = 0;
+        for (var digest : missing)
+        {
+            if (! batch.isEmpty() && size + digest.size() > BATCH_SIZE) {
+                post(base + "/blobs:batchUpdate",Map.of("requests",batch));
+                batch.clear();
+                size = 0;
+            }
+            final var blob = blobs.get(digest);
+            final var bytes = blob instanceof Path path ? Files.readAllBytes(path) : (byte[]) blob;
+            batch.add(Map.of("digest",digest.json(),"data",Base64.getEncoder().encodeToString(bytes)));
+            size += digest.size();
+        }
+        if (! batch.isEmpty()) post(base + "/blobs:batchUpdate",Map.of("requests",batch));
+    }
+
+    private Map<String,Object> getActionResult (Digest action) throws IOException
+    {
+        final var request = HttpRequest.newBuilder(URI.create("%s/actionResults/%s/%d".formatted(base,action.hash(),action.size()))).GET().build();
+        final var response = send(request);
+        if (response.statusCode() == 404) return null;
+        return map(parse(response));
+    }
+
+    private Map<String,Object> executeAction (Digest action) throws IOException
+    {
+        var operation = stream(base + "/actions:execute",Map.of("actionDigest",action.json()));
+        while (! Boolean.TRUE.equals(operation.get("done")))
+            operation = stream("%s/v2/%s:waitExecution".formatted(endpoint,operation.get("name")),Map.of());
+        if (operation.get("error") != null)
+            throw new IOException("remote execution failed: " + map(operation.get("error")).get("message"));
+        final var response = map(operation.get("response"));
+        final var status = response.get("status") == null ? Map.<String,Object>of() : map(response.get("status"));
+        if (((Number) status.getOrDefault("code",0)).intValue() != 0)
+            throw new IOException("remote execution failed: " + status.get("message"));
+        return map(response.get("result"));
+    }
+
+    private byte[] output (Map<String,Object> result, String raw, String digest) throws IOException
+    {
+        if (result.get(raw) instanceof String data) return Base64.getDecoder().decode(data);
+        if (result.get(digest) != null) {
+            final var value = Digest.parse(result.get(digest));
+            return value.size() == 0 ? new byte[0] : read(List.of(value)).get(value);
+        }
+        return new byte[0];
+    }
+
+    private Map<Digest,byte[]> read (List<Digest> digests) throws IOException
+    {
+        final var blobs = new LinkedHashMap<Digest,byte[]>();
+        final var response = map(post(base + "/blobs:batchRead",Map.of("digests",digests.stream().map(Digest::json).toList())));
+        for (var value : list(response.get("responses"))) {
+            final var map = map(value);
+            final var data = map.get("data");
+            blobs.put(Digest.parse(map.get("digest")),data == null ? new byte[0] : Base64.getDecoder().decode((String) data));
+        }
+        for (var digest : digests)
+            if (! blobs.containsKey(digest)) throw new IOException("remote blob not found: " + digest.hash());
+        return blobs;
+    }
+
+    private Object post (String uri, Object body) throws IOException
+    {
+        return parse(send(request(uri,body)));
+    }
+
+    /**
+     * Post request to a server streaming method.
+     *
+     * @return last streamed operation
+     */
+    private Map<String,Object> stream (String uri, Object body) throws IOException
+    {
+        final var response = send(request(uri,body));
+        if (response.statusCode() != 200)
+            throw new IOException("remote execution request failed: %s: %d".formatted(response.uri(),response.statusCode()));
+        final var text = new String(response.body(),UTF_8).strip();
+        final var messages = new ArrayList<Object>();
+        if (text.startsWith("[")) messages.addAll(list(json(text)));
+        else for (var message : split(text)) messages.add(json(message));
+        if (messages.isEmpty())
+            throw new IOException("remote execution response is empty: " + uri);
+        final var last = map(messages.get(messages.size() - 1));
+        // grpc-gateway wraps streamed messages in result, and reports stream errors in error
+        if (last.containsKey("name")) return last;
+        if (last.get("result") != null) return map(last.get("result"));
+        if (last.get("error") != null)
+            throw new IOException("remote execution failed: " + map(last.get("error")).get("message"));
+        throw new IOException("remote execution response is not an operation: " + uri);
+    }
+
+    /**
+     * Split concatenated JSON objects, such as newline delimited JSON.
+     */
+    private static List<String> split (String text) throws IOException
+    {
+        final var messages = new ArrayList<String>();
+        var depth = 0;
+        var start = 0;
+        var quoted = false;
+        for (int i = 0; i != text.length(); ++i)
+        {
+            final var c = text.charAt(i);
+            if (quoted) {
+                if (c == '\\') ++i;
+                else if (c == '"') quoted = false;
+            }
+            else if (c == '"') quoted = true;
+            else if (c == '{') { if (depth++ == 0) start = i; }
+            else if (c == '}') { if (--depth == 0) messages.add(text.substring(start,i + 1)); }
+            else if (depth == 0 && ! Character.isWhitespace(c) && c != ',')
+                throw new IOException("remote execution response is not JSON");
+        }
+        if (depth != 0 || quoted) throw new IOException("remote execution response is truncated");
+        return messages;
+    }
+
+    private static HttpRequest request (String uri, Object body)
+    {
+        return HttpRequest.newBuilder(URI.create(uri))
+            .header("Content-Type","application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(JsonOutput.toJson(body)))
+            .build();
+    }
+
+    private static HttpResponse<byte[]> send (HttpRequest request) throws IOException
+    {
+        try
+        {
+            return client.send(request,HttpResponse.BodyHandlers.ofByteArray());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static Object parse (HttpResponse<byte[]> response) throws IOException
+    {
+        if (response.statusCode() != 200)
+            throw new IOException("remote execution request failed: %s: %d".formatted(response.uri(),response.statusCode()));
+        return json(new String(response.body(),UTF_8));
+    }
+
+    private static Object json (String text)
+    {
+        return new JsonSlurper().parseText(text);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String,Object> map (Object value)
+    {
+        return (Map<String,Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list (Object value)
+    {
+        return value == null ? List.of() : (List<Object>) value;
+    }
+
+    /**
+     * Protobuf message writer, for the few message types stored in the content addressable storage.
+     *
+     * <p>Default values are omitted, as in canonical serialization; fields must be written in field number order.</p>
+     */
+    static final class Proto
+    {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        Proto string (int field, String value)
+        {
+            if (value.isEmpty()) return this;
+            return length(field,value.getBytes(UTF_8));
+        }
+
+        Proto message (int field, byte[] value)
+        {
+            return length(field,value);
+        }
+
+        Proto varint (int field, long value)
+        {
+            if (value == 0) return this;
+            raw((long) field << 3);
+            raw(value);
+            return this;
+        }
+
+        byte[] bytes ()
+        {
+            return buffer.toByteArray();
+        }
+
+        private Proto length (int field, byte[] value)
+        {
+            raw((long) field << 3 | 2);
+            raw(value.length);
+            buffer.writeBytes(value);
+            return this;
+        }
+
+        private void raw (long value)
+        {
+            while ((value & ~0x7FL) != 0) {
+                buffer.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.write((int) value);
+        }
+    }
+}
@@ -2,25 +2,107 @@
 
 package br.dev.pedrolamarao.gradle.metal;
 
+import groovy.json.JsonSlurper;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.provider.ProviderFactory;
 import org.gradle.api.services.BuildService;
 import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.process.ExecOperations;
 
 import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static br.dev.pedrolamarao.gradle.metal.MetalIxxPrecompile.digest;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Metal service.
  */
-public abstract class MetalService implements BuildService<BuildServiceParameters.None>
+public abstract class MetalService implements BuildService<MetalService.Parameters>, AutoCloseable
 {
+    /**
+     * Metal service parameters.
+     */
+    public interface Parameters extends BuildServiceParameters
+    {
+        /**
+         * Cache directory, shared among builds.
+         *
+         * @return property
+         */
+        DirectoryProperty getCacheDirectory ();
+
+        /**
+         * Object cache capacity, in bytes.
+         *
+         * @return property
+         */
+        Property<Long> getObjectCacheSize ();
+
+        /**
+         * Remote execution endpoint, if any.
+         *
+         * <p>Remote Execution API v2 over HTTP with JSON messages: the endpoint must be a gRPC-JSON transcoder in front of the service.</p>
+         *
+         * @return property
+         */
+        Property<String> getRemoteEndpoint ();
+
+        /**
+         * Remote execution instance name.
+         *
+         * @return property
+         */
+        Property<String> getRemoteInstance ();
+
+        /**
+         * Concurrent native tool process limits, by kind.
+         *
+         * @return property
+         */
+        MapProperty<String,Integer> getConcurrencyLimits ();
+
+        /**
+         * Whether to admit native tool processes by available memory.
+         *
+         * @return property
+         */
+        Property<Boolean> getMemoryAdmission ();
+    }
+
+    private volatile MetalAdmission admission;
+
+    private final MetalModuleSchedule schedule = new MetalModuleSchedule();
+
     private final Provider<String> host;
 
     private final Provider<String> path;
 
     private final Provider<String> target;
 
+    private final Map<String,Map<String,File>> portableModules = new ConcurrentHashMap<>();
+
+    private final Map<String,Map<String,File>> standardModules = new ConcurrentHashMap<>();
+
+    private final Map<File,String> toolVersions = new ConcurrentHashMap<>();
+
     /**
      * Constructor.
      */
@@ -39,6 +121,14 @@ public abstract class MetalService implements BuildService<BuildServiceParameter
             .orElse( getHost() );
     }
 
+    /**
+     * Exec operations service.
+     *
+     * @return service
+     */
+    @Inject
+    protected abstract ExecOperations getExec ();
+
     /**
      * Provider factory service.
      *
@@ -57,6 +147,50 @@ public abstract class MetalService implements BuildService<BuildServiceParameter
         return host;
     }
 
+    /**
+     * Admit native tool process, waiting for available memory and concurrency.
+     *
+     * @param kind  process kind, such as <code>compile</code> or <code>link</code>
+     * @param key   process key, such as the source file; found in the process command line
+     * @return      permit, to close when the process ends
+     */
+    MetalAdmission.Permit admit (String kind, String key)
+    {
+        var admission = this.admission;
+        if (admission == null) {
+            synchronized (this) {
+                admission = this.admission;
+                if (admission == null) {
+                    final var parameters = getParameters();
+                    admission = new MetalAdmission(
+                        parameters.getConcurrencyLimits().getOrElse(Map.of()),
+                        parameters.getMemoryAdmission().getOrElse(true),
+                        parameters.getCacheDirectory().get().getAsFile().toPath().resolve("memory").resolve("peaks")
+                    );
+                    this.admission = admission;
+                }
+            }
+        }
+        return admission.admit(kind,key);
+    }
+
+    /**
+     * Module schedule, shared by tasks and their workers.
+     *
+     * @return schedule
+     */
+    MetalModuleSchedule getSchedule ()
+    {
+        return schedule;
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+        final var admission = this.admission;
+        if (admission != null) admission.close();
+    }
+
     /**
      * Tools path.
      *
@@ -84,4 +218,279 @@ public abstract class MetalService implements BuildService<BuildServiceParameter
     {
         return path.map(path -> Metal.toExecutableFile(path,name)).get();
     }
+
+    /**
+     * Standard library module files.
+     *
+     * <p>Standard library modules are precompiled once per compiler, target and compiler options,
+     * then shared among all tasks in the build and cached among builds;
+     * concurrent requests, from this build or others sharing the cache directory, wait for the first one.</p>
+     *
+     * @param compiler  compiler tool name
+     * @param target    compiler target
+     * @param options   compiler options
+     * @return          module files, by module name
+     */
+    public Map<String,File> getStandardModules (String compiler, String target, List<String> options)
+    {
+        final var tool = locateTool(compiler);
+        final String key;
+        try
+        {
+            key = digest(
+                tool.toString().getBytes(UTF_8),
+                "%d:%d".formatted(Files.size(tool.toPath()),Files.getLastModifiedTime(tool.toPath()).toMillis()).getBytes(UTF_8),
+                target.getBytes(UTF_8),
+                String.join("\0",options).getBytes(UTF_8)
+            );
+        }
+        catch (IOException e) { throw new GradleException("failed reading compiler: " + tool, e); }
+        return standardModules.computeIfAbsent(key,it -> precompileStandardModules(key,tool,target,options));
+    }
+
+    private Map<String,File> precompileStandardModules (String key, File tool, String target, List<String> options)
+    {
+        final var manifest = locateStandardModules(tool,target,options);
+        final var cacheDirectory = getParameters().getCacheDirectory().get().getAsFile().toPath().resolve("std");
+        final var directory = cacheDirectory.resolve(key);
+
+        final var modules = new LinkedHashMap<String,File>();
+        for (var module : manifest)
+            modules.put(module.name(),directory.resolve(MetalCompileImpl.moduleFileName(module.name())).toFile());
+
+        try
+        {
+            publish(cacheDirectory,key,temporary ->
+            {
+                for (var module : manifest)
+                {
+                    final var command = new ArrayList<String>();
+                    command.add(tool.toString());
+                    command.add("--target=%s".formatted(target));
+                    command.addAll(options);
+                    command.add("-Wno-reserved-module-identifier");
+                    module.includes().forEach(include -> command.add("-isystem%s".formatted(include)));
+                    modules.forEach((name,file) -> {
+                        final var output = temporary.resolve(file.getName());
+                        if (Files.exists(output)) command.add("-fmodule-file=%s=%s".formatted(name,output));
+                    });
+                    command.add("--precompile");
+                    command.add("--language=c++-module");
+                    command.add("--output=%s".formatted(temporary.resolve(MetalCompileImpl.moduleFileName(module.name()))));
+                    command.add(module.source().toString());
+                    getExec().exec(it -> it.commandLine(command));
+                }
+            });
+        }
+        catch (IOException e) { throw new GradleException("failed precompiling standard library modules", e); }
+
+        return modules;
+    }
+
+    /**
+     * Tool version.
+     *
+     * <p>The first line reported by the tool with <code>--version</code>; remembered for the lifetime of this service.</p>
+     *
+     * @param tool  tool name
+     * @return      tool version
+     */
+    public String getToolVersion (String tool)
+    {
+        return toolVersions.computeIfAbsent(locateTool(tool),this::readVersion);
+    }
+
+    /**
+     * Module file compatibility key.
+     *
+     * <p>Module files and precompiled headers are compatible among compiler commands with the same language, compiler version, target and options;
+     * module files are always <code>c++</code>, precompiled headers are <code>c</code> or <code>c++</code>.</p>
+     *
+     * @param compiler  compiler tool name
+     * @param language  source language
+     * @param target    compiler target
+     * @param options   compiler options
+     * @return          compatibility key
+     */
+    public String getModuleCompatibility (String compiler, String language, String target, List<String> options)
+    {
+        final var version = getToolVersion(compiler);
+        return digest(
+            language.getBytes(UTF_8),
+            version.getBytes(UTF_8),
+            target.getBytes(UTF_8),
+            String.join("\0",options).getBytes(UTF_8)
+        );
+    }
+
+    /**
+     * Module files precompiled from portable module sources.
+     *
+     * <p>Module interface sources described by a module manifest are precompiled once per compiler, target and options,
+     * then shared among all tasks in the build and cached among builds.</p>
+     *
+     * @param compiler  compiler tool name
+     * @param target    compiler target
+     * @param options   compiler options
+     * @param manifest  module manifest file
+     * @param imports   module files of modules imported by module interface sources, by module name
+     * @return          module files, by module name
+     */
+    public Map<String,File> getPortableModules (String compiler, String target, List<String> options, File manifest, Map<String,File> imports)
+    {
+        final var tool = locateTool(compiler);
+        final var base = manifest.toPath().getParent();
+        final MetalModuleManifest content;
+        final String key;
+        try
+        {
+            content = MetalModuleManifest.read(manifest.toPath());
+            final var arrays = new ArrayList<byte[]>();
+            arrays.add(getModuleCompatibility(compiler,"c++",target,options).getBytes(UTF_8));
+            arrays.add(Files.readAllBytes(manifest.toPath()));
+            for (var module : content.modules())
+                arrays.add(Files.readAllBytes(base.resolve(module.source())));
+            for (var entry : new TreeMap<>(imports).entrySet()) {
+                final var file = entry.getValue().toPath();
+                arrays.add("%s=%s:%d:%d".formatted(entry.getKey(),file,Files.size(file),Files.getLastModifiedTime(file).toMillis()).getBytes(UTF_8));
+            }
+            key = digest(arrays.toArray(byte[][]::new));
+        }
+        catch (IOException e) { throw new GradleException("failed reading module manifest: " + manifest, e); }
+        return portableModules.computeIfAbsent(key,it -> precompilePortableModules(key,tool,target,options,base,content,imports));
+    }
+
+    private Map<String,File> precompilePortableModules (String key, File tool, String target, List<String> options, Path base, MetalModuleManifest manifest, Map<String,File> imports)
+    {
+        final var cacheDirectory = getParameters().getCacheDirectory().get().getAsFile().toPath().resolve("modules");
+        final var directory = cacheDirectory.resolve(key);
+
+        final var modules = new LinkedHashMap<String,File>();
+        final var graphModules = new ArrayList<MetalIxxModule>();
+        for (var module : manifest.modules()) {
+            modules.put(module.name(),directory.resolve(MetalCompileImpl.moduleFileName(module.name())).toFile());
+            graphModules.add(new MetalIxxModule(base.resolve(module.source()).toFile(),List.of(module.name()),module.requires()));
+        }
+
+        try
+        {
+            publish(cacheDirectory,key,temporary ->
+            {
+                for (var module : MetalIxxGraph.of(graphModules).sorted())
+                {
+                    final var name = module.provides().get(0);
+                    final var command = new ArrayList<String>();
+                    command.add(tool.toString());
+                    command.add("--target=%s".formatted(target));
+                    command.addAll(options);
+                    manifest.includePath().forEach(path -> command.add("--include-directory=%s".formatted(path)));
+                    imports.forEach((required,file) -> {
+                        if (! modules.containsKey(required)) command.add("-fmodule-file=%s=%s".formatted(required,file));
+                    });
+                    modules.forEach((required,file) -> {
+                        final var output = temporary.resolve(file.getName());
+                        if (Files.exists(output)) command.add("-fmodule-file=%s=%s".formatted(required,output));
+                    });
+                    command.add("--precompile");
+                    command.add("--language=c++-module");
+                    command.add("--output=%s".formatted(temporary.resolve(MetalCompileImpl.moduleFileName(name))));
+                    command.add(module.source().toString());
+                    getExec().exec(it -> it.commandLine(command));
+                }
+            });
+        }
+        catch (IOException e) { throw new GradleException("failed precompiling portable modules: " + base, e); }
+
+        return modules;
+    }
+
+    private interface Publisher
+    {
+        void build (Path directory) throws IOException;
+    }
+
+    private static final Map<Path,Object> publishing = new ConcurrentHashMap<>();
+
+    /**
+     * Publish cache entry.
+     *
+     * <p>Entries are built into a private directory, then moved into place at once;
+     * a lock serializes builders of the same entry from this build, and a file lock, from others sharing the cache directory.
+     * File locks are held by the whole process: alone, they would fail builders from other threads of this process.</p>
+     */
+    private static void publish (Path cacheDirectory, String key, Publisher publisher) throws IOException
+    {
+        final var directory = cacheDirectory.resolve(key);
+        final var lockPath = cacheDirectory.resolve(key + ".lock");
+        Files.createDirectories(cacheDirectory);
+        synchronized (publishing.computeIfAbsent(lockPath,it -> new Object()))
+        {
+            try (var lockFile = new RandomAccessFile(lockPath.toFile(),"rw"))
+            {
+                final var lock = lockFile.getChannel().lock();
+                try
+                {
+                    if (Files.isDirectory(directory)) return;
+                    final var temporary = cacheDirectory.resolve(key + "." + UUID.randomUUID());
+                    Files.createDirectories(temporary);
+                    publisher.build(temporary);
+                    Files.move(temporary,directory,StandardCopyOption.ATOMIC_MOVE);
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private String readVersion (File tool)
+    {
+        final var buffer = new ByteArrayOutputStream();
+        getExec().exec(it -> {
+            it.executable(tool);
+            it.args("--version");
+            it.setStandardOutput(buffer);
+        });
+        // the first line identifies the compiler; following lines may name installation directories
+        return buffer.toString().lines().findFirst().orElse("");
+    }
+
+    private record StandardModule (String name, Path source, List<Path> includes) { }
+
+    @SuppressWarnings("unchecked")
+    private List<StandardModule> locateStandardModules (File tool, String target, List<String> options)
+    {
+        // libc++ describes its modules in libc++.modules.json, found next to the library
+        final var buffer = new ByteArrayOutputStream();
+        getExec().exec(it -> {
+            it.executable(tool);
+            it.args("--target=%s".formatted(target));
+            it.args(options);
+            it.args("-print-file-name=libc++.modules.json");
+            it.setStandardOutput(buffer);
+        });
+        final var manifest = Path.of(buffer.toString().trim());
+        if (! manifest.isAbsolute() || ! Files.isRegularFile(manifest))
+            throw new GradleException("standard library modules not found for target %s; is the standard library libc++?".formatted(target));
+
+        final var list = new ArrayList<StandardModule>();
+        try
+        {
+            final var base = manifest.getParent();
+            final var json = (Map<String,Object>) new JsonSlurper().parse(manifest.toFile());
+            for (var module : (List<Map<String,Object>>) json.get("modules"))
+            {
+                final var name = (String) module.get("logical-name");
+                final var source = base.resolve((String) module.get("source-path")).normalize();
+                final var includes = new ArrayList<Path>();
+                final var arguments = (Map<String,Object>) module.getOrDefault("local-arguments",Map.of());
+                for (var include : (List<String>) arguments.getOrDefault("system-include-directories",List.of()))
+                    includes.add(base.resolve(include).normalize());
+                list.add(new StandardModule(name,source,includes));
+            }
+        }
+        catch (RuntimeException e) { throw new GradleException("failed reading standard library modules manifest: " + manifest, e); }
+        return list;
+    }
 }
@@ -44,6 +44,7 @@ val make = tasks.register<Exec>("make") {
 }
 
 prebuilt {
+    precompiledHeader = "gtest/gtest.h"
     includable( source.dir("googletest/include") ) { builtBy(clone) }
     linkable( metal.archiveFileName("gtest").map { build.file("lib/${it}") } ) { builtBy(make) }
 }
\ No newline at end of file